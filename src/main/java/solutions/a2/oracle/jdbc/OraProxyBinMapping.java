@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * Immutable binary mapping file opened with {@link FileChannel#map}.
+ * Layout (big-endian):
+ * <pre>
+ *   header    - magic, version, number of entries, number of buckets, seed,
+ *               offsets of sections, maximum value length, flags
+ *   pilots    - int per bucket of minimal perfect hash function
+ *   keys      - long per slot, 64-bit key stored in the slot
+ *   entries   - long offset in blob and int length per slot
+ *   blob      - UTF-8 encoded values, hot entries first. When values are compressed
+ *               with {@link OraProxyDeflateCodec}, blob starts with int length and
+ *               bytes of the dictionary. Equal values are written once and entries
+ *               point to the same offset
+ * </pre>
+ * The minimal perfect hash is built with PTHash-like pilot search: keys are split
+ * into buckets, and for every bucket, from the largest, the pilot value is searched
+ * which places all keys of the bucket into free slots. The lookup is two hash
+ * computations, one pilot read and one key comparison, opening the file does not
+ * depend on number of entries, and the pages are shared between JVMs mapping the
+ * same file.
+ * Force matching signatures are stored in the same index with the key
+ * {@link OraProxyUtils#SIGNATURE_SALT} ^ signature.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyBinMapping {
+
+	private static final int MAGIC = 0x41324249;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int ENTRY_SIZE = 12;
+	// average number of keys per bucket
+	private static final double BUCKET_SIZE = 4.0;
+	private static final int MAX_PILOT = 1 << 28;
+	private static final long CHUNK_SIZE = 1L << 30;
+	private static final int FLAG_DEFLATE = 0x1;
+
+	private final ByteBuffer pilots;
+	private final ByteBuffer keys;
+	private final ByteBuffer entries;
+	private final MappedByteBuffer[] blob;
+	private final int count;
+	private final int bucketCount;
+	private final long seed;
+	private final OraProxyDeflateCodec codec;
+
+	private OraProxyBinMapping(final FileChannel channel, final File file) throws IOException {
+		final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			throw new IOException(String.format("File '%s' is not a mapping file of version %d!",
+					file.getAbsolutePath(), VERSION));
+		}
+		count = header.getInt(8);
+		bucketCount = header.getInt(12);
+		seed = header.getLong(16);
+		final long pilotsOffset = header.getLong(24);
+		final long keysOffset = header.getLong(32);
+		final long entriesOffset = header.getLong(40);
+		final long blobOffset = header.getLong(48);
+		final int maxValueLength = header.getInt(56);
+		final int flags = header.getInt(60);
+		final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, blobOffset);
+		pilots = slice(index, pilotsOffset, (long) bucketCount << 2);
+		keys = slice(index, keysOffset, (long) count << 3);
+		entries = slice(index, entriesOffset, (long) count * ENTRY_SIZE);
+		// Values may be larger than 2 GiB in total, they are mapped by chunks overlapping
+		// by maximum value length, so every value is inside one chunk
+		final long blobSize = channel.size() - blobOffset;
+		blob = new MappedByteBuffer[(int) ((blobSize + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+		for (int i = 0; i < blob.length; i++) {
+			final long position = i * CHUNK_SIZE;
+			blob[i] = channel.map(FileChannel.MapMode.READ_ONLY, blobOffset + position,
+					Math.min(blobSize - position, CHUNK_SIZE + maxValueLength));
+		}
+		if ((flags & FLAG_DEFLATE) != 0) {
+			final byte[] dictionary = new byte[blob[0].getInt(0)];
+			final ByteBuffer buffer = blob[0].duplicate();
+			buffer.position(4);
+			buffer.get(dictionary);
+			codec = new OraProxyDeflateCodec(dictionary);
+		} else {
+			codec = null;
+		}
+	}
+
+	/**
+	 * Maps the file, the time does not depend on number of entries
+	 * 
+	 * @param file binary mapping file
+	 * @return mapping
+	 * @throws IOException
+	 */
+	static OraProxyBinMapping open(final File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new OraProxyBinMapping(channel, file);
+		}
+	}
+
+	/**
+	 * Returns the value for the key, or null if there is no entry for the key
+	 * 
+	 * @param key 64-bit key
+	 * @return value or null
+	 */
+	String get(final long key) {
+		if (count == 0) {
+			return null;
+		}
+		final long hash = mix(key ^ seed);
+		final int slot = slot(hash, pilots.getInt(bucket(hash, bucketCount) << 2), count);
+		if (keys.getLong(slot << 3) != key) {
+			return null;
+		}
+		final long offset = entries.getLong(slot * ENTRY_SIZE);
+		final int length = entries.getInt(slot * ENTRY_SIZE + 8);
+		if (length == 0) {
+			// Blob is empty when all values are empty
+			return "";
+		}
+		final ByteBuffer chunk = blob[(int) (offset / CHUNK_SIZE)].duplicate();
+		chunk.position((int) (offset % CHUNK_SIZE));
+		final byte[] bytes = new byte[length];
+		chunk.get(bytes);
+		return codec == null ? new String(bytes, StandardCharsets.UTF_8) : codec.decompress(bytes);
+	}
+
+	int size() {
+		return count;
+	}
+
+	private static ByteBuffer slice(final ByteBuffer buffer, final long offset, final long length) {
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position((int) offset);
+		duplicate.limit((int) (offset + length));
+		return duplicate.slice();
+	}
+
+	private static int bucket(final long hash, final int bucketCount) {
+		return (int) (((hash >>> 32) * bucketCount) >>> 32);
+	}
+
+	private static int slot(final long hash, final int pilot, final int count) {
+		return (int) (((mix(hash ^ (pilot * 0x9e3779b97f4a7c15L)) >>> 32) * count) >>> 32);
+	}
+
+	private static long mix(long key) {
+		// Stafford variant 13 of 64-bit finalizer
+		key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+		key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+		return key ^ (key >>> 31);
+	}
+
+	/**
+	 * Collects entries and writes binary mapping file
+	 */
+	static final class Builder {
+		private final OraProxyDeflateCodec codec;
+		private final OraProxyLongMap<Integer> index = new OraProxyLongMap<>();
+		private final List<byte[]> values = new ArrayList<>();
+		// Every distinct encoded value, so equal values share one array
+		private final Map<ByteBuffer, byte[]> distinct = new HashMap<>();
+		private long[] keys = new long[1024];
+		private int[] hotRank = new int[1024];
+		private int hotCount;
+
+		Builder() {
+			this(null);
+		}
+
+		/**
+		 * 
+		 * @param codec codec to compress values, or null
+		 */
+		Builder(final OraProxyDeflateCodec codec) {
+			this.codec = codec;
+		}
+
+		/**
+		 * Adds entry, value of the existing key is replaced
+		 * 
+		 * @param key    64-bit key
+		 * @param value  value
+		 */
+		void add(final long key, final String value) {
+			final byte[] encoded = intern(codec == null ? value.getBytes(StandardCharsets.UTF_8) : codec.compress(value));
+			final Integer existing = index.get(key);
+			if (existing != null) {
+				values.set(existing, encoded);
+				return;
+			}
+			final int entry = values.size();
+			if (entry == keys.length) {
+				keys = Arrays.copyOf(keys, entry << 1);
+				hotRank = Arrays.copyOf(hotRank, entry << 1);
+			}
+			keys[entry] = key;
+			hotRank[entry] = Integer.MAX_VALUE;
+			values.add(encoded);
+			index.put(key, entry);
+		}
+
+		private byte[] intern(final byte[] encoded) {
+			final byte[] existing = distinct.putIfAbsent(ByteBuffer.wrap(encoded), encoded);
+			return existing == null ? encoded : existing;
+		}
+
+		/**
+		 * Marks entry as hot, hot entries are written first to the blob in order of marking
+		 * 
+		 * @param key 64-bit key
+		 * @return false if there is no entry for the key
+		 */
+		boolean hot(final long key) {
+			final Integer entry = index.get(key);
+			if (entry == null) {
+				return false;
+			}
+			if (hotRank[entry] == Integer.MAX_VALUE) {
+				hotRank[entry] = hotCount++;
+			}
+			return true;
+		}
+
+		int size() {
+			return values.size();
+		}
+
+		void write(final File file) throws IOException {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file), 0x10000))) {
+				write(out);
+			}
+		}
+
+		/**
+		 * Writes mapping to the stream
+		 * 
+		 * @param out stream positioned at the start of file
+		 * @return number of bytes written
+		 * @throws IOException
+		 */
+		long write(final DataOutputStream out) throws IOException {
+			final int count = values.size();
+			final int bucketCount = Math.max(1, (int) Math.ceil(count / BUCKET_SIZE));
+			long seed = 0x5eed;
+			int[] pilots;
+			int[] slots;
+			while (true) {
+				pilots = new int[bucketCount];
+				slots = new int[count];
+				if (build(keys, count, bucketCount, seed, pilots, slots)) {
+					break;
+				}
+				seed = mix(seed);
+			}
+
+			// Blob order: hot entries by rank, then others in order of addition
+			final Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return Integer.compare(hotRank[a], hotRank[b]);
+				}
+			});
+			// Shared value is written at position of its first entry
+			final Map<byte[], Long> valueOffsets = new IdentityHashMap<>();
+			final long[] offsets = new long[count];
+			long blobSize = codec == null ? 0 : 4 + codec.dictionary().length;
+			int maxValueLength = 0;
+			for (final Integer entry : order) {
+				final byte[] value = values.get(entry);
+				final Long offset = valueOffsets.putIfAbsent(value, blobSize);
+				if (offset != null) {
+					offsets[entry] = offset;
+				} else {
+					offsets[entry] = blobSize;
+					blobSize += value.length;
+					maxValueLength = Math.max(maxValueLength, value.length);
+				}
+			}
+			// entry number for every slot
+			final int[] slotEntry = new int[count];
+			for (int i = 0; i < count; i++) {
+				slotEntry[slots[i]] = i;
+			}
+
+			final long pilotsOffset = HEADER_SIZE;
+			final long keysOffset = pilotsOffset + ((long) bucketCount << 2);
+			final long entriesOffset = keysOffset + ((long) count << 3);
+			final long blobOffset = entriesOffset + (long) count * ENTRY_SIZE;
+			if (blobOffset > Integer.MAX_VALUE) {
+				throw new IOException("Too many entries for binary mapping file!");
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			out.writeInt(bucketCount);
+			out.writeLong(seed);
+			out.writeLong(pilotsOffset);
+			out.writeLong(keysOffset);
+			out.writeLong(entriesOffset);
+			out.writeLong(blobOffset);
+			out.writeInt(Math.max(maxValueLength, codec == null ? 0 : 4 + codec.dictionary().length));
+			out.writeInt(codec == null ? 0 : FLAG_DEFLATE);
+			for (final int pilot : pilots) {
+				out.writeInt(pilot);
+			}
+			for (int slot = 0; slot < count; slot++) {
+				out.writeLong(keys[slotEntry[slot]]);
+			}
+			for (int slot = 0; slot < count; slot++) {
+				out.writeLong(offsets[slotEntry[slot]]);
+				out.writeInt(values.get(slotEntry[slot]).length);
+			}
+			if (codec != null) {
+				out.writeInt(codec.dictionary().length);
+				out.write(codec.dictionary());
+			}
+			for (final Integer entry : order) {
+				if (valueOffsets.remove(values.get(entry)) != null) {
+					out.write(values.get(entry));
+				}
+			}
+			return blobOffset + blobSize;
+		}
+
+		/**
+		 * Searches pilots for all buckets, largest buckets first
+		 * 
+		 * @return false if pilot is not found for some bucket with this seed
+		 */
+		private static boolean build(final long[] keys, final int count, final int bucketCount,
+				final long seed, final int[] pilots, final int[] slots) {
+			final long[] hashes = new long[count];
+			final int[] bucketSizes = new int[bucketCount];
+			for (int i = 0; i < count; i++) {
+				hashes[i] = mix(keys[i] ^ seed);
+				bucketSizes[bucket(hashes[i], bucketCount)]++;
+			}
+			// Entries grouped by bucket
+			final int[] bucketStart = new int[bucketCount + 1];
+			for (int b = 0; b < bucketCount; b++) {
+				bucketStart[b + 1] = bucketStart[b] + bucketSizes[b];
+			}
+			final int[] fill = Arrays.copyOf(bucketStart, bucketCount);
+			final int[] bucketEntries = new int[count];
+			for (int i = 0; i < count; i++) {
+				bucketEntries[fill[bucket(hashes[i], bucketCount)]++] = i;
+			}
+			final Integer[] bucketOrder = new Integer[bucketCount];
+			for (int b = 0; b < bucketCount; b++) {
+				bucketOrder[b] = b;
+			}
+			Arrays.sort(bucketOrder, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return Integer.compare(bucketSizes[b], bucketSizes[a]);
+				}
+			});
+
+			final long[] taken = new long[(count + 63) >>> 6];
+			final int[] candidate = new int[count == 0 ? 0 : maxOf(bucketSizes)];
+			for (final Integer b : bucketOrder) {
+				final int size = bucketSizes[b];
+				if (size == 0) {
+					break;
+				}
+				int pilot = 0;
+				search:
+				while (true) {
+					if (pilot >= MAX_PILOT) {
+						return false;
+					}
+					for (int k = 0; k < size; k++) {
+						final int slot = slot(hashes[bucketEntries[bucketStart[b] + k]], pilot, count);
+						if ((taken[slot >>> 6] & (1L << slot)) != 0) {
+							pilot++;
+							continue search;
+						}
+						for (int j = 0; j < k; j++) {
+							if (candidate[j] == slot) {
+								pilot++;
+								continue search;
+							}
+						}
+						candidate[k] = slot;
+					}
+					break;
+				}
+				pilots[b] = pilot;
+				for (int k = 0; k < size; k++) {
+					taken[candidate[k] >>> 6] |= 1L << candidate[k];
+					slots[bucketEntries[bucketStart[b] + k]] = candidate[k];
+				}
+			}
+			return true;
+		}
+
+		private static int maxOf(final int[] values) {
+			int max = 0;
+			for (final int value : values) {
+				max = Math.max(max, value);
+			}
+			return max;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+/**
+ * 
+ * Compact in-heap Bloom filter over 64-bit keys. The filter is populated by a single
+ * thread and then published read-only, so membership checks are not synchronized.
+ * With 16 bits per key and 3 probes false positive rate is about 0.5%.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyBloomFilter {
+
+	private static final int BITS_PER_KEY = 16;
+	private static final int PROBES = 3;
+
+	private final long[] bits;
+	private final long mask;
+
+	OraProxyBloomFilter(final int expectedKeys) {
+		long size = 64;
+		while (size < (long) expectedKeys * BITS_PER_KEY && size < (1L << 36)) {
+			size <<= 1;
+		}
+		bits = new long[(int) (size >>> 6)];
+		mask = size - 1;
+	}
+
+	void add(final long key) {
+		final long hash = mix(key);
+		final long delta = (hash >>> 32) | 1;
+		long probe = hash;
+		for (int i = 0; i < PROBES; i++) {
+			final long bit = probe & mask;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+			probe += delta;
+		}
+	}
+
+	boolean mightContain(final long key) {
+		final long hash = mix(key);
+		final long delta = (hash >>> 32) | 1;
+		long probe = hash;
+		for (int i = 0; i < PROBES; i++) {
+			final long bit = probe & mask;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+			probe += delta;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns size of the filter in bytes
+	 * 
+	 * @return size in bytes
+	 */
+	long sizeInBytes() {
+		return (long) bits.length << 3;
+	}
+
+	private static long mix(long key) {
+		// Stafford variant 13 of 64-bit finalizer
+		key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+		key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+		return key ^ (key >>> 31);
+	}
+
+}
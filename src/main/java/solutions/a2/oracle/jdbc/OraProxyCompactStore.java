@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 
+ * Compact in-heap store of translations keyed by 64-bit value. Open addressing index
+ * maps the key to the entry number, and text of all entries is kept encoded in one
+ * shared byte array: in Latin-1 when all characters fit into one byte, otherwise in
+ * UTF-8. There are no per-entry objects, so for a typical mapping the store needs about
+ * one third of heap of String keys and UTF-16 String values. Text is decoded on lookup.
+ * Optionally every entry is compressed with {@link OraProxyDeflateCodec} and is
+ * decompressed on lookup.
+ * Equal text is stored in the arena once and is shared by all entries with this text.
+ * During population texts are found by hash of encoded bytes, the lookup table is
+ * released by {@link #trim()}.
+ * The store is populated by a single thread and then published read-only via final
+ * field, so lookups are not synchronized.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyCompactStore {
+
+	private static final int MIN_ENTRIES = 16;
+	private static final int MIN_ARENA = 0x1000;
+	private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+	// Sign bit of entry length marks UTF-8 encoded text
+	private static final int UTF8_FLAG = 0x80000000;
+
+	private long[] keys;
+	// entry number + 1 for every slot, 0 - empty slot
+	private int[] slots;
+	private int mask;
+	private int[] offsets;
+	private int[] lengths;
+	private int size;
+	private byte[] arena;
+	private int arenaSize;
+	// offset and length of distinct texts, 0 - empty slot
+	private long[] texts;
+	private int textsMask;
+	private int textsSize;
+	private final OraProxyDeflateCodec codec;
+
+	/**
+	 * 
+	 * @param expectedBytes expected size of all encoded text, for example mapping file size
+	 */
+	OraProxyCompactStore(final long expectedBytes) {
+		this(expectedBytes, null);
+	}
+
+	/**
+	 * 
+	 * @param expectedBytes expected size of all encoded text, for example mapping file size
+	 * @param codec         codec to compress entries, or null
+	 */
+	OraProxyCompactStore(final long expectedBytes, final OraProxyDeflateCodec codec) {
+		this.codec = codec;
+		final int capacity = OraProxyLongMap.tableSize(MIN_ENTRIES);
+		keys = new long[capacity];
+		slots = new int[capacity];
+		mask = capacity - 1;
+		offsets = new int[MIN_ENTRIES];
+		lengths = new int[MIN_ENTRIES];
+		arena = new byte[(int) Math.max(MIN_ARENA, Math.min(expectedBytes, MAX_ARENA))];
+		texts = new long[capacity];
+		textsMask = capacity - 1;
+	}
+
+	/**
+	 * Returns decoded text associated with the key, or null if there is no entry for the key
+	 * 
+	 * @param key 64-bit key
+	 * @return text or null
+	 */
+	String get(final long key) {
+		final long[] keys = this.keys;
+		final int[] slots = this.slots;
+		final int mask = this.mask;
+		int index = OraProxyLongMap.index(key, mask);
+		int slot;
+		while ((slot = slots[index]) != 0) {
+			if (keys[index] == key) {
+				final int length = lengths[slot - 1];
+				if (codec != null) {
+					return codec.decompress(arena, offsets[slot - 1], length);
+				} else if ((length & UTF8_FLAG) == 0) {
+					return new String(arena, offsets[slot - 1], length, StandardCharsets.ISO_8859_1);
+				} else {
+					return new String(arena, offsets[slot - 1], length & ~UTF8_FLAG, StandardCharsets.UTF_8);
+				}
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates text with the key, text of the replaced entry is not reclaimed.
+	 * Before {@link #trim()} equal text already stored is reused
+	 * 
+	 * @param key    64-bit key
+	 * @param value  text, not null
+	 */
+	void put(final long key, final String value) {
+		final byte[] encoded;
+		final int flag;
+		if (codec != null) {
+			encoded = codec.compress(value);
+			flag = 0;
+		} else if (isLatin1(value)) {
+			encoded = value.getBytes(StandardCharsets.ISO_8859_1);
+			flag = 0;
+		} else {
+			encoded = value.getBytes(StandardCharsets.UTF_8);
+			flag = UTF8_FLAG;
+		}
+		final int offset = store(encoded, encoded.length | flag);
+
+		int index = OraProxyLongMap.index(key, mask);
+		int slot;
+		while ((slot = slots[index]) != 0) {
+			if (keys[index] == key) {
+				offsets[slot - 1] = offset;
+				lengths[slot - 1] = encoded.length | flag;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size << 1);
+			lengths = Arrays.copyOf(lengths, size << 1);
+		}
+		offsets[size] = offset;
+		lengths[size] = encoded.length | flag;
+		keys[index] = key;
+		slots[index] = ++size;
+		if (size > (mask + 1) >> 1) {
+			rehash((mask + 1) << 1);
+		}
+	}
+
+	/**
+	 * Returns offset of equal text in the arena, or appends text to the arena
+	 * 
+	 * @param encoded  encoded text
+	 * @param length   length of encoded text with flags
+	 * @return offset in the arena
+	 */
+	private int store(final byte[] encoded, final int length) {
+		// Empty text takes no space in the arena, and 0 marks empty slot of texts
+		final boolean shared = texts != null && encoded.length > 0;
+		int index = 0;
+		if (shared) {
+			index = hash(encoded, 0, encoded.length) & textsMask;
+			long text;
+			while ((text = texts[index]) != 0) {
+				if ((int) text == length && equals(arena, (int) (text >>> 32), encoded)) {
+					return (int) (text >>> 32);
+				}
+				index = (index + 1) & textsMask;
+			}
+		}
+		if (arenaSize + (long) encoded.length > arena.length) {
+			final long required = arenaSize + (long) encoded.length;
+			if (required > MAX_ARENA) {
+				throw new IllegalStateException("Mapping text exceeds 2 GiB, use Chronicle Map to store it!");
+			}
+			arena = Arrays.copyOf(arena, (int) Math.min(MAX_ARENA, Math.max(required, arena.length + (arena.length >> 1))));
+		}
+		System.arraycopy(encoded, 0, arena, arenaSize, encoded.length);
+		final int offset = arenaSize;
+		arenaSize += encoded.length;
+		if (shared) {
+			texts[index] = ((long) offset << 32) | (length & 0xFFFFFFFFL);
+			if (++textsSize > (textsMask + 1) >> 1) {
+				rehashTexts((textsMask + 1) << 1);
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Releases unused capacity after the store is populated
+	 */
+	void trim() {
+		texts = null;
+		if (arena.length - arenaSize > (arena.length >> 6)) {
+			arena = Arrays.copyOf(arena, arenaSize);
+		}
+		if (offsets.length > size) {
+			offsets = Arrays.copyOf(offsets, Math.max(size, 1));
+			lengths = Arrays.copyOf(lengths, Math.max(size, 1));
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns approximate heap size of the store in bytes
+	 * 
+	 * @return size in bytes
+	 */
+	long sizeInBytes() {
+		return arena.length + ((long) keys.length << 3) + ((long) slots.length << 2) + ((long) offsets.length << 3);
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final int[] oldSlots = slots;
+		keys = new long[capacity];
+		slots = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != 0) {
+				int index = OraProxyLongMap.index(oldKeys[i], mask);
+				while (slots[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				slots[index] = oldSlots[i];
+			}
+		}
+	}
+
+	private void rehashTexts(final int capacity) {
+		final long[] oldTexts = texts;
+		texts = new long[capacity];
+		textsMask = capacity - 1;
+		for (final long text : oldTexts) {
+			if (text != 0) {
+				int index = hash(arena, (int) (text >>> 32), (int) text & ~UTF8_FLAG) & textsMask;
+				while (texts[index] != 0) {
+					index = (index + 1) & textsMask;
+				}
+				texts[index] = text;
+			}
+		}
+	}
+
+	private static int hash(final byte[] bytes, final int offset, final int length) {
+		int hash = 1;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(final byte[] arena, final int offset, final byte[] encoded) {
+		for (int i = 0; i < encoded.length; i++) {
+			if (arena[offset + i] != encoded[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLatin1(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * 
+ * Typed access to Oracle JDBC Proxy parameters passed in JDBC URL or connection properties
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyConfig {
+
+	private final Properties props;
+
+	OraProxyConfig(final Properties props) {
+		this.props = props;
+	}
+
+	String getString(final String name, final String defaultValue) {
+		final String value = props.getProperty(name);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	boolean getBoolean(final String name, final boolean defaultValue) throws SQLException {
+		final String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		} else if ("true".equalsIgnoreCase(value)) {
+			return true;
+		} else if ("false".equalsIgnoreCase(value)) {
+			return false;
+		} else {
+			throw new SQLException(
+					"For the '" + name + "' only true and false are allowed!");
+		}
+	}
+
+	int getInt(final String name, final int defaultValue) throws SQLException {
+		return (int) getLong(name, defaultValue, Integer.MAX_VALUE);
+	}
+
+	long getLong(final String name, final long defaultValue) throws SQLException {
+		return getLong(name, defaultValue, Long.MAX_VALUE);
+	}
+
+	private long getLong(final String name, final long defaultValue, final long maxValue) throws SQLException {
+		final String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			final long result = Long.parseLong(value);
+			if (result < 0 || result > maxValue) {
+				throw new NumberFormatException();
+			}
+			return result;
+		} catch (NumberFormatException nfe) {
+			throw new SQLException(
+					"The '" + name + "' must be a non-negative integer, but '" + value + "' is set!");
+		}
+	}
+
+	/**
+	 * Returns the value of parameter which must be one of the allowed values
+	 * 
+	 * @param name          parameter name
+	 * @param defaultValue  default value
+	 * @param allowedValues allowed values
+	 * @return parameter value
+	 * @throws SQLException if parameter value is not allowed
+	 */
+	String getChoice(final String name, final String defaultValue, final String... allowedValues) throws SQLException {
+		final String value = getString(name, defaultValue);
+		for (final String allowed : allowedValues) {
+			if (allowed.equals(value)) {
+				return value;
+			}
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < allowedValues.length; i++) {
+			if (i > 0) {
+				sb.append(i == allowedValues.length - 1 ? " and " : ", ");
+			}
+			sb.append(allowedValues[i]);
+		}
+		throw new SQLException(
+				"For the '" + name + "' only " + sb.toString() + " are allowed!");
+	}
+
+}
@@ -37,14 +37,169 @@ public class OraProxyDriver implements Driver  {
 	 *   File must be yaml in format:
 	 *  SQL-ID:
 	 *     SQL-TEXT 
-	 *  or <a href="https://chronicle.software/">Chronicle Map</a>
+	 *  or <a href="https://chronicle.software/">Chronicle Map</a>.
+	 *   'file' URL can point to a directory, or have a glob pattern in the last
+	 *   element, e.g. 'file:///opt/mapping/*.yaml'. Files are loaded in parallel and
+	 *   for the same key translation from the last file in order of names wins.
+	 *   Directory is filtered by extension: '.yaml' and '.yml', '.cmap' or '.bin'
 	 */
 	public static final String A2_MAPPING_FILE_URL = "a2.mapping.file.url";
 	/**
 	 * 'a2.mapping.file.type' - file type of SQL mapping file.
-	 *   Allowed values 'yaml' or 'chronicle'
+	 *   Allowed values 'yaml', 'chronicle' or 'bin' - memory mapped immutable binary
+	 *   file created by OraProxyFileUtils yaml2bin
 	 */
 	public static final String A2_MAPPING_FILE_TYPE = "a2.mapping.file.type";
+	/**
+	 * 'a2.mapping.yaml.store' - store for the 'yaml' file type.
+	 *   Allowed values 'map' - hash map of String translations, 'compact' - one shared
+	 *   byte array of encoded translations with primitive 64-bit SQL_ID index, which takes
+	 *   about three times less heap, translations are decoded on lookup, 'compressed' -
+	 *   the same as 'compact' with every translation compressed using dictionary from
+	 *   '<mapping file>.dict', or 'lazy' - file is memory mapped and only offsets of
+	 *   translations are indexed at startup, translations are decoded on first lookup.
+	 *   Default - 'map'
+	 */
+	public static final String A2_MAPPING_YAML_STORE = "a2.mapping.yaml.store";
+	/**
+	 * 'a2.mapping.lazy.cache.size' - number of decoded translations kept on heap by
+	 *   'lazy' YAML store. Default - '1024', '0' disables the cache
+	 */
+	public static final String A2_MAPPING_LAZY_CACHE_SIZE = "a2.mapping.lazy.cache.size";
+	/**
+	 * 'a2.mapping.load.parallelism' - number of threads parsing local YAML files for
+	 *   'map', 'compact' and 'compressed' stores. File is memory mapped and split at
+	 *   entry boundaries, when 'a2.mapping.file.url' points to a directory or a glob
+	 *   pattern, every file is parsed by its own task. '1' - single thread.
+	 *   Default - number of available processors
+	 */
+	public static final String A2_MAPPING_LOAD_PARALLELISM = "a2.mapping.load.parallelism";
+	/**
+	 * 'a2.mapping.yaml.snapshot' - when set to 'true', local 'yaml' file is parsed
+	 *   once into binary snapshot '<mapping file>.snapshot' in format of 'bin' file type,
+	 *   and on next starts the snapshot is memory mapped instead of parsing while size,
+	 *   modification time and CRC32 of the YAML file are unchanged.
+	 *   'a2.mapping.yaml.store' is used only when the snapshot can not be written.
+	 *   Default - 'false'
+	 */
+	public static final String A2_MAPPING_YAML_SNAPSHOT = "a2.mapping.yaml.snapshot";
+	/**
+	 * 'a2.mapping.force.matching' - when set to 'true' and there is no translation for
+	 *   the SQL_ID of statement, translation is looked up using Oracle force matching
+	 *   signature of statement. Such entries are stored in mapping file with keys
+	 *   'fms_' followed by V$SQL.FORCE_MATCHING_SIGNATURE value, and system generated
+	 *   binds :"SYS_B_n" in their text are replaced with literals of the statement.
+	 *   Default - 'false'
+	 */
+	public static final String A2_MAPPING_FORCE_MATCHING = "a2.mapping.force.matching";
+	/**
+	 * 'a2.cache.identity.size' - number of entries in the identity-keyed memo of
+	 *   translation results. When the application passes the same String instance
+	 *   for the same statement, the result is taken from the memo without SQL_ID
+	 *   computation. Entries are weakly referenced and can be reclaimed by GC.
+	 *   Default - '0', memo is not used
+	 */
+	public static final String A2_CACHE_IDENTITY_SIZE = "a2.cache.identity.size";
+	/**
+	 * 'a2.cache.text.max.bytes' - memory budget in bytes of the cache of translation
+	 *   results keyed by SQL text. Hot statements are translated without SQL_ID
+	 *   computation and mapping lookup, frequency-aware admission (W-TinyLFU) keeps
+	 *   one-off statements from flushing the cache.
+	 *   Default - '0', cache is not used
+	 */
+	public static final String A2_CACHE_TEXT_MAX_BYTES = "a2.cache.text.max.bytes";
+	/**
+	 * 'a2.mapping.hot.max.bytes' - memory budget in bytes of the on-heap hot tier over
+	 *   the mapping store. Frequently used translations are promoted from the store to
+	 *   the hot tier keyed by SQL_ID, and least frequently used ones are demoted.
+	 *   Default - '0', hot tier is not used
+	 */
+	public static final String A2_MAPPING_HOT_MAX_BYTES = "a2.mapping.hot.max.bytes";
+	/**
+	 * 'a2.mapping.reload.interval.ms' - interval in milliseconds between checks of the
+	 *   mapping files. When the size or modification time of a mapping file, or the
+	 *   local copy of a remote file are changed, the new mapping is loaded in background
+	 *   and replaces the previous one with all caches at once.
+	 *   Default - '0', mapping is not reloaded
+	 */
+	public static final String A2_MAPPING_RELOAD_INTERVAL_MS = "a2.mapping.reload.interval.ms";
+	/**
+	 * 'a2.mapping.close.delay.ms' - delay in milliseconds before the previous mapping
+	 *   replaced by reload is closed, so translations which started with it complete first.
+	 *   Default - '60000'
+	 */
+	public static final String A2_MAPPING_CLOSE_DELAY_MS = "a2.mapping.close.delay.ms";
+	/**
+	 * 'a2.mapping.delta.url' - URL of local directory or glob pattern with delta files
+	 *   '*.delta' in YAML format, applied in order of names over the mapping: entry
+	 *   inserts or replaces translation, entry with value '~' deletes it. Added delta
+	 *   files are applied without reload of the mapping when
+	 *   'a2.mapping.reload.interval.ms' is set. Delta files are created by
+	 *   'OraProxyFileUtils -m yaml2delta'.
+	 *   Default - not set, delta files are not used
+	 */
+	public static final String A2_MAPPING_DELTA_URL = "a2.mapping.delta.url";
+	/**
+	 * 'a2.chronicle.value.cache.size' - number of recently returned translations
+	 *   kept on heap by Chronicle Map translator. While the off-heap entry has the same
+	 *   size and hash, the same String instance is returned without decoding.
+	 *   Default - '64', '0' disables the cache
+	 */
+	public static final String A2_CHRONICLE_VALUE_CACHE_SIZE = "a2.chronicle.value.cache.size";
+	/**
+	 * 'a2.chronicle.open.mode' - how Chronicle Map file is opened: 'recover' - with
+	 *   recovery of all segments, 'readonly' - without recovery, for the file that is
+	 *   not written while it is used. Default - 'recover'
+	 */
+	public static final String A2_CHRONICLE_OPEN_MODE = "a2.chronicle.open.mode";
+	/**
+	 * 'a2.chronicle.entries' - number of entries of Chronicle Map, used when the file
+	 *   is created or its header is recovered
+	 */
+	public static final String A2_CHRONICLE_ENTRIES = "a2.chronicle.entries";
+	/**
+	 * 'a2.chronicle.average.key.size' - average key size in bytes of Chronicle Map,
+	 *   used when the file is created or its header is recovered
+	 */
+	public static final String A2_CHRONICLE_AVERAGE_KEY_SIZE = "a2.chronicle.average.key.size";
+	/**
+	 * 'a2.chronicle.average.value.size' - average value size in bytes of Chronicle Map,
+	 *   used when the file is created or its header is recovered
+	 */
+	public static final String A2_CHRONICLE_AVERAGE_VALUE_SIZE = "a2.chronicle.average.value.size";
+	/**
+	 * 'a2.chronicle.warmup' - when set to 'true' all pages of Chronicle Map file are
+	 *   loaded into memory when the map is opened. Default - 'false'
+	 */
+	public static final String A2_CHRONICLE_WARMUP = "a2.chronicle.warmup";
+	/**
+	 * 'a2.mapping.cache.dir' - directory of local copies of remote mapping files.
+	 *   Default - 'a2-oracle-jdbc-proxy' in 'java.io.tmpdir'
+	 */
+	public static final String A2_MAPPING_CACHE_DIR = "a2.mapping.cache.dir";
+	/**
+	 * 'a2.s3.endpoint' - endpoint of S3 compatible object storage for 's3://bucket/key'
+	 *   mapping URL, e.g. 'http://localhost:9000' for MinIO, path-style requests are used.
+	 *   Default - Amazon S3 endpoint of 'a2.s3.region' with virtual-hosted-style requests
+	 */
+	public static final String A2_S3_ENDPOINT = "a2.s3.endpoint";
+	/**
+	 * 'a2.s3.region' - region of S3 bucket used for request signing.
+	 *   Default - AWS_REGION environment variable or 'us-east-1'
+	 */
+	public static final String A2_S3_REGION = "a2.s3.region";
+	/**
+	 * 'a2.s3.access.key' - access key of S3 bucket.
+	 *   Default - AWS_ACCESS_KEY_ID environment variable, without credentials requests
+	 *   are anonymous
+	 */
+	public static final String A2_S3_ACCESS_KEY = "a2.s3.access.key";
+	/**
+	 * 'a2.s3.secret.key' - secret key of S3 bucket.
+	 *   Default - AWS_SECRET_ACCESS_KEY environment variable
+	 */
+	public static final String A2_S3_SECRET_KEY = "a2.s3.secret.key";
+	private static final String A2_PARAM_PREFIX = "a2.";
 	private static final String URL_PREFIX = "jdbc:proxy:oracle:";
 	private static final String ORA_PREFIX = "jdbc:oracle:thin:";
 
@@ -56,23 +211,21 @@ public class OraProxyDriver implements Driver  {
 			if (paramsPos > -1) {
 				final StringBuilder sb = new StringBuilder(url.length());
 				sb.append(url.substring(0, paramsPos).replace(URL_PREFIX, ORA_PREFIX));
-				String mappingFile = null;
-				boolean useYamlStore = true;
-				boolean formatParamPresent = false;
+				// Proxy parameters from connection properties, overridden by URL parameters
+				final Properties proxyProps = new Properties();
+				for (final String name : info.stringPropertyNames()) {
+					if (name.startsWith(A2_PARAM_PREFIX)) {
+						proxyProps.setProperty(name, info.getProperty(name));
+					}
+				}
 				boolean firstParam = true;
 				for (final String param : url.substring(paramsPos + 1).split("&")) {
-					if (param.startsWith(A2_MAPPING_FILE_URL)) {
-						mappingFile = param.substring(param.indexOf('=') + 1);
-					} else if (param.startsWith(A2_MAPPING_FILE_TYPE)) {
-						formatParamPresent = true;
-						final String mappingFileType = param.substring(param.indexOf('=') + 1);
-						if ("yaml".equals(mappingFileType)) {
-							useYamlStore = true;
-						} else if ("chronicle".equals(mappingFileType)) {
-							useYamlStore = false;
+					if (param.startsWith(A2_PARAM_PREFIX)) {
+						final int eqPos = param.indexOf('=');
+						if (eqPos > -1) {
+							proxyProps.setProperty(param.substring(0, eqPos), param.substring(eqPos + 1));
 						} else {
-							throw new SQLException(
-									"For the '" + A2_MAPPING_FILE_TYPE + "' only yaml and chronicle are allowed!");
+							proxyProps.setProperty(param, "");
 						}
 					} else {
 						if (firstParam) {
@@ -84,25 +237,10 @@ public class OraProxyDriver implements Driver  {
 						sb.append(param);
 					}
 				}
-				if (mappingFile == null) {
-					if (info.containsKey(A2_MAPPING_FILE_URL)) {
-						mappingFile = info.getProperty(A2_MAPPING_FILE_URL);
-					} else {
-						throw new SQLException("The '" + A2_MAPPING_FILE_URL + "' parameter must be set!");
-					}
-				}
-				if (!formatParamPresent && info.containsKey(A2_MAPPING_FILE_TYPE)) {
-					final String mappingFileType = info.getProperty(A2_MAPPING_FILE_TYPE);
-					if ("yaml".equals(mappingFileType)) {
-						useYamlStore = true;
-					} else if ("chronicle".equals(mappingFileType)) {
-						useYamlStore = false;
-					} else {
-						throw new SQLException(
-								"For the '" + A2_MAPPING_FILE_TYPE + "' only yaml and chronicle are allowed!");
-					}
+				if (!proxyProps.containsKey(A2_MAPPING_FILE_URL)) {
+					throw new SQLException("The '" + A2_MAPPING_FILE_URL + "' parameter must be set!");
 				}
-				final OraProxySqlTranslator translator =  OraProxySqlTranslator.getInstance(useYamlStore, mappingFile);
+				final OraProxySqlTranslator translator =  OraProxySqlTranslator.getInstance(proxyProps);
 				final Driver oraDriver = DriverManager.getDriver(sb.toString());
 				return new OraProxyConnection((OracleConnection) oraDriver.connect(sb.toString(), info), translator);
 			} else {
@@ -19,13 +19,25 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.openhft.chronicle.core.values.LongValue;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.values.Values;
 
 /**
  * 
@@ -36,74 +48,181 @@ import net.openhft.chronicle.map.ChronicleMapBuilder;
 public class OraProxyFileUtils {
 
 	private final static Logger LOGGER = Logger.getLogger(OraProxyFileUtils.class.getName());
+	private static final String CHRONICLE_MAP_NAME = "https://a2.solutions/ - SQL substition";
+	private static final String SIGNATURES_SUFFIX = ".signatures";
 	 /**
-	  * Conversion between yaml and Chronicle Map 
+	  * Conversion between yaml, Chronicle Map and binary mapping file
 	  * @param argv  CLI arguments:
 	  *              -m  - conversion type, allowed values:
 	  *                    yaml2cmap - convert from yaml to Chronicle Map
 	  *                    cmap2yaml - convert from Chronicle Map to yaml
+	  *                    yaml2bin  - convert from yaml to binary mapping file
+	  *                    yaml2dict - train compression dictionary for yaml file,
+	  *                                used with a2.mapping.yaml.store=compressed
+	  *                    yaml2yaml - split yaml file into shards, only with -s
+	  *                    yaml2delta - write delta file which turns base yaml file
+	  *                                 into source yaml file, only with -b. Delta file
+	  *                                 starts with comment with CRC32 of base file, and
+	  *                                 is applied only over the mapping made of it.
+	  *                    yaml2cmap, yaml2bin and yaml2yaml write CRC32 of source file to
+	  *                    the file with '.base' suffix next to every written file
 	  *              -f, - full path to source file    
+	  *              -b, - for yaml2delta only, full path to base yaml file. Delta file
+	  *                    contains entries of source file which are not in base file
+	  *                    or have other translation, and entries with value '~' for keys
+	  *                    of base file missing in source file
+	  *              -h, - optional, for yaml2bin only, full path to file with SQL_ID's
+	  *                    of hot statements, one per line, most frequently executed first.
+	  *                    Their translations are placed together at the beginning of file
+	  *              -z, - optional, for yaml2cmap and yaml2bin only, compress translations
+	  *                    using dictionary trained over all translations
+	  *              -l, - optional, for yaml2cmap only, Chronicle Map is keyed by 64-bit
+	  *                    SQL_ID value instead of 13 character SQL_ID text. cmap2yaml
+	  *                    reads both layouts
+	  *              -s, - optional, for yaml2cmap, yaml2bin and yaml2yaml only, number of
+	  *                    shards, power of two. Mapping is written as files
+	  *                    <name>.<index>-of-<count>.<extension>, every key is written to
+	  *                    the shard selected by high bits of its 64-bit value. When the
+	  *                    source file is already a shard, for example 'TG4ODBC.03-of-16.yaml',
+	  *                    only this shard is written and all keys must belong to it
 	  */
 	public static void main(String[] argv) {
 
-		int modeIndex = 0;
-		int fileIndex = 0;
-		if (argv.length != 4 && argv.length != 2) {
-			usage();
-			System.exit(1);
-		} else {
-			 if ("-m".equals(argv[0])) {
-				 modeIndex = 1;
-			 } else if (argv.length == 4 && "-m".equals(argv[2])) {
-				 modeIndex = 3;
-			 } else {
-				 modeIndex = 5;
-			 }
-			 if ("-f".equals(argv[0])) {
-				 fileIndex = 1;
-			 } else if (argv.length == 4 && "-f".equals(argv[2])) {
-				 fileIndex = 3;
-			 }
-			 if (modeIndex == 0 || fileIndex == 0) {
+		String mode = "yaml2cmap";
+		String sourceFileName = null;
+		String hotFileName = null;
+		String baseFileName = null;
+		boolean compress = false;
+		boolean longKeys = false;
+		int shards = 0;
+		for (int i = 0; i < argv.length; i++) {
+			if ("-z".equals(argv[i])) {
+				compress = true;
+			} else if ("-l".equals(argv[i])) {
+				longKeys = true;
+			} else if (i + 1 == argv.length) {
 				usage();
 				System.exit(1);
-			 }
-		 }
-
-		final boolean fromYaml;
-		if (modeIndex == 5) {
-			fromYaml = true;
-		} else if ("yaml2cmap".equalsIgnoreCase(argv[modeIndex])) {
-			fromYaml = true;
-		} else if ("cmap2yaml".equalsIgnoreCase(argv[modeIndex])) {
-			fromYaml = false;
-		} else {
-			fromYaml = false;
+			} else if ("-m".equals(argv[i])) {
+				mode = argv[++i].toLowerCase();
+			} else if ("-f".equals(argv[i])) {
+				sourceFileName = argv[++i];
+			} else if ("-h".equals(argv[i])) {
+				hotFileName = argv[++i];
+			} else if ("-b".equals(argv[i])) {
+				baseFileName = argv[++i];
+			} else if ("-s".equals(argv[i])) {
+				try {
+					shards = Integer.parseInt(argv[++i]);
+				} catch (NumberFormatException nfe) {
+					usage();
+					System.exit(1);
+				}
+			} else {
+				usage();
+				System.exit(1);
+			}
+		}
+		if (sourceFileName == null ||
+				!("yaml2cmap".equals(mode) || "cmap2yaml".equals(mode) ||
+						"yaml2bin".equals(mode) || "yaml2dict".equals(mode) || "yaml2yaml".equals(mode) ||
+						"yaml2delta".equals(mode)) ||
+				(hotFileName != null && !"yaml2bin".equals(mode)) ||
+				((baseFileName != null) != "yaml2delta".equals(mode)) ||
+				(compress && !("yaml2cmap".equals(mode) || "yaml2bin".equals(mode))) ||
+				(longKeys && !"yaml2cmap".equals(mode)) ||
+				(shards != 0 && (shards < 2 || shards > OraProxyMappingFiles.MAX_SHARDS || Integer.bitCount(shards) != 1 ||
+						!("yaml2cmap".equals(mode) || "yaml2bin".equals(mode) || "yaml2yaml".equals(mode)))) ||
+				(shards == 0 && "yaml2yaml".equals(mode))) {
 			usage();
 			System.exit(1);
 		}
 
-		final String sourceFileName = argv[fileIndex];
 		final File sourceFile = new File(sourceFileName);
 		if (!sourceFile.exists()) {
 			LOGGER.log(Level.SEVERE, "File '" + sourceFileName + "' does not exists!");
 			System.exit(1);
 		}
+		final File hotFile = hotFileName == null ? null : new File(hotFileName);
+		if (hotFile != null && !hotFile.exists()) {
+			LOGGER.log(Level.SEVERE, "File '" + hotFileName + "' does not exists!");
+			System.exit(1);
+		}
 
-		final String targetFileName =
-				sourceFileName.substring(0, sourceFileName.lastIndexOf(".") + 1)
-				+ (fromYaml ? "cmap" : "yaml");
-		final File targetFile = new File(targetFileName);
-		if (targetFile.exists()) {
-			LOGGER.log(Level.SEVERE, "Output file '" + targetFileName + "' already exists!");
+		final File baseFile = baseFileName == null ? null : new File(baseFileName);
+		if (baseFile != null && !baseFile.exists()) {
+			LOGGER.log(Level.SEVERE, "File '" + baseFileName + "' does not exists!");
 			System.exit(1);
 		}
 
+		final OraProxyMappingFiles.Shard sourceShard = OraProxyMappingFiles.Shard.parse(sourceFile.getName());
+		if (shards > 0 && sourceShard != null) {
+			LOGGER.log(Level.SEVERE, "File '" + sourceFileName + "' is already a shard!");
+			System.exit(1);
+		}
+		final File[] targetFiles;
+		if ("yaml2dict".equals(mode)) {
+			targetFiles = new File[] {new File(sourceFileName + OraProxyDeflateCodec.FILE_SUFFIX)};
+		} else {
+			final String name = sourceFileName.substring(0, sourceFileName.lastIndexOf("."));
+			final String extension = "." + mode.substring(mode.indexOf('2') + 1);
+			targetFiles = new File[Math.max(shards, 1)];
+			for (int i = 0; i < targetFiles.length; i++) {
+				targetFiles[i] = new File(shards > 0
+						? OraProxyMappingFiles.Shard.fileName(name, i, shards, extension)
+						: name + extension);
+			}
+		}
+		for (final File targetFile : targetFiles) {
+			if (targetFile.exists()) {
+				LOGGER.log(Level.SEVERE, "Output file '" + targetFile.getPath() + "' already exists!");
+				System.exit(1);
+			}
+		}
+
 		try {
-			if (fromYaml) {
-				convertYaml(sourceFile, targetFile);
+			if ("yaml2dict".equals(mode)) {
+				final Map<String, String> data = new HashMap<>();
+				try (BufferedReader reader = new BufferedReader(new FileReader(sourceFile))) {
+					OraProxyUtils.readSimpleYaml(reader, data);
+				}
+				trainDictionary(data.values()).write(targetFiles[0]);
+			} else if ("cmap2yaml".equals(mode)) {
+				convertCmap(sourceFile, targetFiles[0]);
+			} else if ("yaml2delta".equals(mode)) {
+				writeDelta(read(baseFile, 1, -1)[0], read(sourceFile, 1, -1)[0], targetFiles[0],
+						OraProxySqlTranslatorDelta.base(OraProxyUtils.crc32(baseFile)));
 			} else {
-				convertCmap(sourceFile, targetFile);
+				final int count = shards > 0 ? shards : sourceShard == null ? 1 : sourceShard.count;
+				final int onlyShard = sourceShard == null ? -1 : sourceShard.index;
+				final Part[] parts = read(sourceFile, count, onlyShard);
+				final OraProxyDeflateCodec codec;
+				if (compress) {
+					final List<String> values = new ArrayList<>();
+					for (final Part part : parts) {
+						values.addAll(part.data.values());
+					}
+					codec = trainDictionary(values);
+				} else {
+					codec = null;
+				}
+				final List<String> hot = hotFile == null ? null : readHot(hotFile);
+				final String base = OraProxySqlTranslatorDelta.base(OraProxyUtils.crc32(sourceFile));
+				final String targetType = mode;
+				final boolean longKeyLayout = longKeys;
+				write(parts.length, i -> {
+					final int shard = onlyShard < 0 ? i : onlyShard;
+					if ("yaml2cmap".equals(targetType)) {
+						convertYaml(parts[i], targetFiles[i], codec, longKeyLayout);
+					} else if ("yaml2bin".equals(targetType)) {
+						convertYaml2Bin(parts[i], targetFiles[i], hot, codec, shard, count);
+					} else {
+						writeYaml(parts[i], targetFiles[i]);
+					}
+					// Delta files made for the source file are applied over converted file
+					Files.write(new File(targetFiles[i].getPath() + OraProxySqlTranslatorDelta.BASE_SUFFIX).toPath(),
+							base.getBytes(StandardCharsets.US_ASCII));
+				});
 			}
 		} catch (IOException ioe) {
 			LOGGER.log(Level.SEVERE, "Error while running conversion utility!", ioe);
@@ -116,51 +235,429 @@ public class OraProxyFileUtils {
 	private static final void usage() {
 		System.err.println("Usage:");
 		System.err.println(
-				OraProxyFileUtils.class.getName() + " [-m yaml2cmap|cmap2yaml] -f <SOURCE-FILE>");
-		System.err.println("\twhen the option -ь is not specified, the default is yaml2cmap");
+				OraProxyFileUtils.class.getName() +
+				" [-m yaml2cmap|cmap2yaml|yaml2bin|yaml2dict|yaml2yaml|yaml2delta] -f <SOURCE-FILE> [-b <BASE-FILE>] [-h <HOT-SQL_ID-FILE>] [-z] [-l] [-s <SHARDS>]");
+		System.err.println("\twhen the option -m is not specified, the default is yaml2cmap");
+		System.err.println("\tthe option -b is only for yaml2delta, and is required for it");
+		System.err.println("\tthe option -h is only for yaml2bin");
+		System.err.println("\tthe option -z is only for yaml2cmap and yaml2bin");
+		System.err.println("\tthe option -l is only for yaml2cmap");
+		System.err.println("\tthe option -s is only for yaml2cmap, yaml2bin and yaml2yaml, and is required for yaml2yaml");
+	}
+
+	/**
+	 * Trains dictionary over all translations
+	 * 
+	 * @param values translations
+	 * @return codec with trained dictionary
+	 */
+	private static OraProxyDeflateCodec trainDictionary(final Collection<String> values) {
+		final List<byte[]> samples = new ArrayList<>(values.size());
+		long size = 0;
+		for (final String value : values) {
+			final byte[] sample = value.getBytes(StandardCharsets.UTF_8);
+			samples.add(sample);
+			size += sample.length;
+		}
+		final OraProxyDeflateCodec codec = OraProxyDeflateCodec.train(samples, OraProxyDeflateCodec.MAX_DICTIONARY_SIZE);
+		long compressedSize = 0;
+		for (final String value : values) {
+			compressedSize += codec.compress(value).length;
+		}
+		LOGGER.log(Level.INFO, "Dictionary of {0} bytes trained, translations compressed from {1} to {2} bytes.",
+				new Object[] {codec.dictionary().length, size, compressedSize});
+		return codec;
+	}
+
+	/**
+	 * Entries of one shard of yaml file
+	 */
+	private static final class Part {
+		private final Map<String, String> data = new LinkedHashMap<>();
+		private final Map<String, int[]> sourceInfo = new HashMap<>();
+
+		OraProxySourceFilter.Builder sources() {
+			final OraProxySourceFilter.Builder sources = new OraProxySourceFilter.Builder();
+			for (final String sqlId : data.keySet()) {
+				if (!sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+					final int[] info = sourceInfo.get(sqlId);
+					if (info == null) {
+						sources.addMissing();
+					} else {
+						sources.add(OraProxyUtils.sqlIdToLong(sqlId), info[0], info[1]);
+					}
+				}
+			}
+			return sources;
+		}
 	}
 
-	 private static void convertYaml(final File sourceFile, final File targetFile) throws IOException {
-		final BufferedReader reader = new BufferedReader(new FileReader(sourceFile));
-		final Map<String, String> data = new HashMap<>();
-		OraProxyUtils.readSimpleYaml(reader, data);
-		reader.close();
+	/**
+	 * Writes one output file
+	 */
+	private interface PartWriter {
+		void write(final int part) throws IOException;
+	}
+
+	/**
+	 * Reads yaml file and splits its entries by shard
+	 *
+	 * @param sourceFile  yaml file
+	 * @param count       number of shards
+	 * @param onlyShard   when not negative, the file is this shard of count shards,
+	 *                    and all keys must belong to it
+	 * @return entries of every shard, or of onlyShard
+	 * @throws IOException
+	 */
+	private static Part[] read(final File sourceFile, final int count, final int onlyShard) throws IOException {
+		final Part[] parts = new Part[onlyShard < 0 ? count : 1];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = new Part();
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(sourceFile))) {
+			OraProxyUtils.readSimpleYaml(reader, new OraProxyMappingConsumer() {
+				private String sourceInfoSqlId;
+				private int sourceInfoLength;
+				private int sourceInfoHash;
 
+				@Override
+				public void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) {
+					if (!sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+						sourceInfoSqlId = sqlId;
+						sourceInfoLength = sourceLength;
+						sourceInfoHash = sourceHash;
+					}
+				}
+
+				@Override
+				public void accept(final String sqlId, final String sqlStatement) {
+					final int shard = count == 1 ? 0 : OraProxyMappingFiles.shard(longKey(sqlId), count);
+					final Part part;
+					if (onlyShard < 0) {
+						part = parts[shard];
+					} else if (shard == onlyShard) {
+						part = parts[0];
+					} else {
+						throw new IllegalArgumentException(String.format(
+								"Key '%s' does not belong to shard %d of %d!", sqlId, onlyShard, count));
+					}
+					part.data.put(sqlId, sqlStatement);
+					if (sqlId.equals(sourceInfoSqlId)) {
+						part.sourceInfo.put(sqlId, new int[] {sourceInfoLength, sourceInfoHash});
+					} else {
+						part.sourceInfo.remove(sqlId);
+					}
+				}
+			});
+		} catch (IllegalArgumentException iae) {
+			throw new IOException(iae.getMessage(), iae);
+		}
+		return parts;
+	}
+
+	/**
+	 * Writes output files in parallel, one task per file
+	 */
+	private static void write(final int count, final PartWriter writer) throws IOException {
+		final ForkJoinPool pool = new ForkJoinPool(Math.min(count, Runtime.getRuntime().availableProcessors()));
+		try {
+			final List<Future<Void>> tasks = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				final int part = i;
+				tasks.add(pool.submit(() -> {
+					writer.write(part);
+					return null;
+				}));
+			}
+			for (final Future<Void> task : tasks) {
+				try {
+					task.get();
+				} catch (ExecutionException ee) {
+					if (ee.getCause() instanceof IOException) {
+						throw (IOException) ee.getCause();
+					}
+					throw new IOException(ee.getCause());
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ie);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void writeYaml(final Part part, final File targetFile) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(targetFile))) {
+			for (final Map.Entry<String, String> entry : part.data.entrySet()) {
+				writeYaml(writer, part, entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static void writeYaml(final Writer writer, final Part part,
+			final String sqlId, final String sqlStatement) throws IOException {
+		final int[] info = part.sourceInfo.get(sqlId);
+		if (info == null) {
+			OraProxyUtils.write2Yaml(writer, sqlId, sqlStatement);
+		} else {
+			OraProxyUtils.write2Yaml(writer, sqlId, sqlStatement, info[0], info[1]);
+		}
+	}
+
+	/**
+	 * Writes delta file with entries of target which are not in base or have other
+	 * translation, and deletes of keys of base missing in target. The first line is
+	 * comment with CRC32 of the base file
+	 */
+	private static void writeDelta(final Part base, final Part target, final File targetFile,
+			final String baseCrc) throws IOException {
+		int changed = 0;
+		int deleted = 0;
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(targetFile))) {
+			writer
+				.append(OraProxySqlTranslatorDelta.BASE_HEADER)
+				.append(baseCrc)
+				.append('\n');
+			for (final Map.Entry<String, String> entry : target.data.entrySet()) {
+				if (!entry.getValue().equals(base.data.get(entry.getKey()))) {
+					writeYaml(writer, target, entry.getKey(), entry.getValue());
+					changed++;
+				}
+			}
+			for (final String sqlId : base.data.keySet()) {
+				if (!target.data.containsKey(sqlId)) {
+					OraProxyUtils.write2Yaml(writer, sqlId, OraProxyUtils.DELETED);
+					deleted++;
+				}
+			}
+		}
+		LOGGER.log(Level.INFO, "Delta file ''{0}'' with {1} changed and {2} deleted entries written.",
+				new Object[] {targetFile.getPath(), changed, deleted});
+	}
+
+	private static void convertYaml(final Part part, final File targetFile,
+			final OraProxyDeflateCodec codec, final boolean longKeys) throws IOException {
+		final Map<String, String> data = part.data;
+		final boolean compress = codec != null;
+		final Map<String, byte[]> compressed = compress ? new HashMap<>() : null;
 		int entries = 0;
 		double avgKeySize = 0;
 		double avgValueSize = 0;
 		for (final String k : data.keySet()) {
 			entries++;
 			avgKeySize += k.getBytes("UTF-8").length;
-			avgValueSize += data.get(k).getBytes("UTF-8").length;
+			if (compress) {
+				final byte[] value = codec.compress(data.get(k));
+				compressed.put(k, value);
+				avgValueSize += value.length;
+			} else {
+				avgValueSize += data.get(k).getBytes("UTF-8").length;
+			}
 		}
 
-		avgKeySize = Math.floor(avgKeySize/entries);
-		avgValueSize = Math.floor(avgValueSize/entries);
+		if (entries == 0) {
+			// Empty shard
+			entries = 1;
+			avgKeySize = OraProxySqlIdEngine.SQL_ID_LENGTH;
+			avgValueSize = 64;
+		} else {
+			avgKeySize = Math.floor(avgKeySize/entries);
+			avgValueSize = Math.floor(avgValueSize/entries);
+		}
 
-		ChronicleMap<String, String> sqlIdMapping = ChronicleMapBuilder
-				.of(String.class, String.class)
-				.name("https://a2.solutions/ - SQL substition")
-				.averageKeySize(avgKeySize)
+		if (longKeys) {
+			if (compress) {
+				convertToLongKeys(compressed, byte[].class, avgValueSize, entries, targetFile);
+			} else {
+				convertToLongKeys(data, String.class, avgValueSize, entries, targetFile);
+			}
+		} else if (compress) {
+			ChronicleMap<String, byte[]> sqlIdMapping = ChronicleMapBuilder
+					.of(String.class, byte[].class)
+					.name(CHRONICLE_MAP_NAME)
+					.averageKeySize(avgKeySize)
+					.averageValueSize(avgValueSize)
+					.entries(entries)
+					.createOrRecoverPersistedTo(targetFile);
+			sqlIdMapping.putAll(compressed);
+			sqlIdMapping.close();
+		} else {
+			ChronicleMap<String, String> sqlIdMapping = ChronicleMapBuilder
+					.of(String.class, String.class)
+					.name(CHRONICLE_MAP_NAME)
+					.averageKeySize(avgKeySize)
+					.averageValueSize(avgValueSize)
+					.entries(entries)
+					.createOrRecoverPersistedTo(targetFile);
+			sqlIdMapping.putAll(data);
+			sqlIdMapping.close();
+		}
+		if (compress) {
+			codec.write(new File(targetFile.getPath() + OraProxyDeflateCodec.FILE_SUFFIX));
+		}
+
+		writeSourceInfo(part.sources(), targetFile);
+	}
+
+	/**
+	 * Writes Chronicle Map keyed by 64-bit SQL_ID value, force matching keys are stored
+	 * as salted signature, the same as in binary mapping file. They can not be told from
+	 * SQL_ID's by value, so for cmap2yaml they are listed in the '.signatures' file
+	 */
+	private static <V> void convertToLongKeys(final Map<String, V> data, final Class<V> valueClass,
+			final double avgValueSize, final int entries, final File targetFile) throws IOException {
+		final ChronicleMap<LongValue, V> sqlIdMapping = ChronicleMapBuilder
+				.of(LongValue.class, valueClass)
+				.name(CHRONICLE_MAP_NAME)
 				.averageValueSize(avgValueSize)
 				.entries(entries)
 				.createOrRecoverPersistedTo(targetFile);
-		sqlIdMapping.putAll(data);
+		final LongValue key = Values.newHeapInstance(LongValue.class);
+		final List<String> signatures = new ArrayList<>();
+		for (final Map.Entry<String, V> entry : data.entrySet()) {
+			key.setValue(longKey(entry.getKey()));
+			sqlIdMapping.put(key, entry.getValue());
+			if (entry.getKey().startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+				signatures.add(entry.getKey());
+			}
+		}
 		sqlIdMapping.close();
+		if (!signatures.isEmpty()) {
+			try (BufferedWriter writer = new BufferedWriter(
+					new FileWriter(targetFile.getPath() + SIGNATURES_SUFFIX))) {
+				for (final String signature : signatures) {
+					writer.write(signature);
+					writer.newLine();
+				}
+			}
+		}
+	}
+
+	private static long longKey(final String sqlId) {
+		if (sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+			return OraProxyUtils.SIGNATURE_SALT ^ Long.parseUnsignedLong(
+					sqlId.substring(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX.length()));
+		} else {
+			return OraProxyUtils.sqlIdToLong(sqlId);
+		}
+	}
+
+	private static void writeSourceInfo(final OraProxySourceFilter.Builder sources, final File targetFile) throws IOException {
+		if (sources.complete()) {
+			sources.write(new File(targetFile.getPath() + OraProxySourceFilter.FILE_SUFFIX));
+		} else if (sources.size() > 0) {
+			LOGGER.log(Level.WARNING,
+					"Source information is not set for all entries, ''{0}'' is not created.",
+					targetFile.getPath() + OraProxySourceFilter.FILE_SUFFIX);
+		}
+	}
+
+	private static List<String> readHot(final File hotFile) throws IOException {
+		final List<String> hot = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(hotFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					hot.add(line);
+				}
+			}
+		}
+		return hot;
+	}
+
+	private static void convertYaml2Bin(final Part part, final File targetFile, final List<String> hot,
+			final OraProxyDeflateCodec codec, final int shard, final int count) throws IOException {
+		final OraProxyBinMapping.Builder mapping = new OraProxyBinMapping.Builder(codec);
+		for (final Map.Entry<String, String> entry : part.data.entrySet()) {
+			mapping.add(longKey(entry.getKey()), entry.getValue());
+		}
+		if (hot != null) {
+			for (final String sqlId : hot) {
+				final long key = OraProxyUtils.sqlIdToLong(sqlId);
+				if (OraProxyMappingFiles.shard(key, count) == shard && !mapping.hot(key)) {
+					LOGGER.log(Level.WARNING, "Hot SQL_ID ''{0}'' is not in the mapping.", sqlId);
+				}
+			}
+		}
+		mapping.write(targetFile);
+		writeSourceInfo(part.sources(), targetFile);
 	}
 
 	private static void convertCmap(final File sourceFile, final File targetFile) throws IOException {
-		ChronicleMap<String, String> sqlIdMapping = ChronicleMapBuilder
-				.of(String.class, String.class)
-				.createOrRecoverPersistedTo(sourceFile);
-		BufferedWriter writer = new BufferedWriter(new FileWriter(targetFile));
-		for (final String sqlId : sqlIdMapping.keySet()) {
-			final String sqlStatement = sqlIdMapping.get(sqlId);
-			OraProxyUtils.write2Yaml(writer, sqlId, sqlStatement);
+		final File dictionaryFile = new File(sourceFile.getPath() + OraProxyDeflateCodec.FILE_SUFFIX);
+		final OraProxyDeflateCodec codec = dictionaryFile.exists() ? OraProxyDeflateCodec.read(dictionaryFile) : null;
+		// Existing file is opened with key and value classes from its header
+		final ChronicleMap<?, ?> sqlIdMapping;
+		if (codec == null) {
+			sqlIdMapping = ChronicleMapBuilder
+					.of(String.class, String.class)
+					.createOrRecoverPersistedTo(sourceFile);
+		} else {
+			sqlIdMapping = ChronicleMapBuilder
+					.of(String.class, byte[].class)
+					.createOrRecoverPersistedTo(sourceFile);
+		}
+		final boolean longKeys = LongValue.class.isAssignableFrom(sqlIdMapping.keyClass());
+		final OraProxyLongMap<String> signatures = new OraProxyLongMap<>();
+		final File signaturesFile = new File(sourceFile.getPath() + SIGNATURES_SUFFIX);
+		if (longKeys && signaturesFile.exists()) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(signaturesFile))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0) {
+						signatures.put(longKey(line), line);
+					}
+				}
+			}
+		}
+		final File sourceInfoFile = new File(sourceFile.getPath() + OraProxySourceFilter.FILE_SUFFIX);
+		final OraProxyLongMap<Integer> sourceIndex = new OraProxyLongMap<>();
+		final OraProxySourceFilter.Builder sources;
+		if (sourceInfoFile.exists()) {
+			sources = OraProxySourceFilter.read(sourceInfoFile);
+			for (int i = 0; i < sources.size(); i++) {
+				sourceIndex.put(sources.sqlId(i), i);
+			}
+		} else {
+			sources = null;
 		}
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(targetFile));
+		final IOException[] failure = new IOException[1];
+		sqlIdMapping.forEachEntryWhile(entry -> {
+			final Object key = entry.key().get();
+			final String sqlId;
+			if (longKeys) {
+				final long value = ((LongValue) key).getValue();
+				sqlId = signatures.get(value) == null ? OraProxyUtils.sqlIdToString(value) : signatures.get(value);
+			} else {
+				sqlId = (String) key;
+			}
+			final Object value = entry.value().get();
+			final String sqlStatement = codec == null ? (String) value : codec.decompress((byte[]) value);
+			final Integer index = sources == null || sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)
+					? null
+					: sourceIndex.get(OraProxyUtils.sqlIdToLong(sqlId));
+			try {
+				if (index == null) {
+					OraProxyUtils.write2Yaml(writer, sqlId, sqlStatement);
+				} else {
+					OraProxyUtils.write2Yaml(writer, sqlId, sqlStatement, sources.length(index), sources.hashCode(index));
+				}
+				return true;
+			} catch (IOException ioe) {
+				failure[0] = ioe;
+				return false;
+			}
+		});
 		writer.flush();
 		writer.close();
 		sqlIdMapping.close();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
 	 }
 
 }
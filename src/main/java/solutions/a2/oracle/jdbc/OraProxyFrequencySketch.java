@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+/**
+ *
+ * Count-min sketch with four 4-bit counters per key and periodic halving (aging).
+ * Updates are not synchronized, lost increments only reduce precision.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyFrequencySketch {
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+
+	OraProxyFrequencySketch(final int expectedEntries) {
+		int capacity = 64;
+		while (capacity < expectedEntries) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+		tableMask = capacity - 1;
+		sampleSize = capacity * 10;
+	}
+
+	int frequency(final int hashCode) {
+		final int hash = spread(hashCode);
+		final int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	void increment(final int hashCode) {
+		final int hash = spread(hashCode);
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			final int index = indexOf(hash, i);
+			final int offset = (start + i) << 2;
+			final long mask = 0xFL << offset;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	private void reset() {
+		additions = 0;
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+	}
+
+	private int indexOf(final int hash, final int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	private static int spread(final int hashCode) {
+		int h = hashCode * 0x9e3779b9;
+		h ^= h >>> 16;
+		return h * 0x85ebca6b;
+	}
+
+}
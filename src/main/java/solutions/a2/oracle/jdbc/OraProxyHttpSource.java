@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Mapping file served by HTTP(S) server. The response body is stored in
+ * {@link OraProxyMappingCache}, and on next starts the cached copy is revalidated
+ * with conditional GET request using 'If-None-Match' with ETag and 'If-Modified-Since'
+ * with Last-Modified of the cached copy, so unchanged file is not downloaded again.
+ * When the server is not available, the cached copy is used.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyHttpSource {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxyHttpSource.class.getName());
+
+	private static final int CONNECT_TIMEOUT_MS = 10_000;
+	private static final int READ_TIMEOUT_MS = 60_000;
+
+	private final OraProxyMappingCache cache;
+
+	/**
+	 *
+	 * @param config  Oracle JDBC Proxy parameters
+	 * @throws SQLException
+	 */
+	OraProxyHttpSource(final OraProxyConfig config) throws SQLException {
+		cache = new OraProxyMappingCache(config);
+	}
+
+	/**
+	 * Returns URL of the up to date local copy of the file
+	 *
+	 * @param httpUrl  'http' or 'https' URL
+	 * @return 'file' URL of the local copy
+	 * @throws SQLException when the file is not available and there is no local copy
+	 */
+	URL fetch(final URL httpUrl) throws SQLException {
+		return cache.fetch(httpUrl.toString(), (suffix, file) ->
+				fetch(suffix.isEmpty() ? httpUrl : new URL(httpUrl, httpUrl.getPath() + suffix), file));
+	}
+
+	/**
+	 * Revalidates local copy of the file with conditional GET and stores the
+	 * response body when the file is changed
+	 *
+	 * @throws IOException
+	 */
+	private void fetch(final URL url, final File file) throws IOException {
+		final Properties cached = cache.meta(file);
+		final HttpURLConnection get = (HttpURLConnection) url.openConnection();
+		get.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		get.setReadTimeout(READ_TIMEOUT_MS);
+		get.setUseCaches(false);
+		if (cached != null) {
+			if (cached.getProperty(OraProxyMappingCache.ETAG) != null) {
+				get.setRequestProperty("If-None-Match", cached.getProperty(OraProxyMappingCache.ETAG));
+			}
+			if (cached.getProperty(OraProxyMappingCache.LAST_MODIFIED) != null) {
+				get.setRequestProperty("If-Modified-Since", cached.getProperty(OraProxyMappingCache.LAST_MODIFIED));
+			}
+		}
+		try {
+			final int status = get.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return;
+			} else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+				cache.remove(file);
+				return;
+			} else if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException(String.format("GET %s returned HTTP %d!", url, status));
+			}
+			final long started = System.currentTimeMillis();
+			final long length = get.getHeaderFieldLong("Content-Length", -1);
+			final File temp = cache.temp(file);
+			try {
+				long count = 0;
+				try (InputStream is = get.getInputStream();
+						OutputStream os = new FileOutputStream(temp)) {
+					final byte[] buffer = new byte[0x10000];
+					int read;
+					while ((read = is.read(buffer)) > -1) {
+						os.write(buffer, 0, read);
+						count += read;
+					}
+				}
+				if (length > -1 && count != length) {
+					throw new IOException(String.format("GET %s returned %d bytes of %d!", url, count, length));
+				}
+				final Properties meta = new Properties();
+				if (get.getHeaderField("ETag") != null) {
+					meta.setProperty(OraProxyMappingCache.ETAG, get.getHeaderField("ETag"));
+				}
+				if (get.getHeaderField("Last-Modified") != null) {
+					meta.setProperty(OraProxyMappingCache.LAST_MODIFIED, get.getHeaderField("Last-Modified"));
+				}
+				cache.commit(temp, file, meta);
+				LOGGER.log(Level.INFO, "{0} bytes of ''{1}'' downloaded to ''{2}'' in {3} ms.",
+						new Object[] {count, url, file.getAbsolutePath(), System.currentTimeMillis() - started});
+			} finally {
+				temp.delete();
+			}
+		} finally {
+			get.disconnect();
+		}
+	}
+
+}
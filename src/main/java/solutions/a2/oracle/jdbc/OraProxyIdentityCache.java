@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * 
+ * Bounded identity-keyed memo of translation results. Applications usually pass the
+ * same String instance (static final constant, ORM cached SQL) for the same statement,
+ * so the result of translation (translated text or no translation) is remembered per
+ * String instance and the repeated translation costs one array read and one reference
+ * comparison instead of SQL_ID computation.
+ * The cache is a direct-mapped table indexed by identity hash code. Source strings are
+ * weakly referenced and can be reclaimed by GC, a colliding entry simply replaces the
+ * previous one. Entries are immutable, so reads and writes are not synchronized.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyIdentityCache {
+
+	private final Entry[] entries;
+	private final int mask;
+
+	/**
+	 * 
+	 * @param size number of entries, rounded up to the power of two
+	 */
+	OraProxyIdentityCache(final int size) {
+		int capacity = 1;
+		while (capacity < size && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		entries = new Entry[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns remembered translation result for this String instance
+	 * 
+	 * @param source source SQL statement
+	 * @return translated statement, source when there is no translation, or null if not cached
+	 */
+	String get(final String source) {
+		final Entry entry = entries[System.identityHashCode(source) & mask];
+		if (entry != null && entry.get() == source) {
+			return entry.translation == null ? source : entry.translation;
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers translation result for this String instance
+	 * 
+	 * @param source      source SQL statement
+	 * @param translated  translated statement or source when there is no translation
+	 */
+	void put(final String source, final String translated) {
+		entries[System.identityHashCode(source) & mask] =
+				new Entry(source, translated == source ? null : translated);
+	}
+
+	private static final class Entry extends WeakReference<String> {
+		// null when there is no translation, to avoid strong reference to the source
+		private final String translation;
+
+		Entry(final String source, final String translation) {
+			super(source);
+			this.translation = translation;
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+/**
+ * 
+ * Open addressing hash map with primitive 64-bit keys used to store SQL mapping
+ * keyed by SQL_ID value without boxing, String keys and String hashing.
+ * The map is populated by a single thread and then published read-only via final
+ * field, so lookups are not synchronized. Null values are not allowed.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyLongMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+
+	OraProxyLongMap() {
+		this(MIN_CAPACITY);
+	}
+
+	OraProxyLongMap(final int expectedSize) {
+		final int capacity = tableSize(expectedSize);
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Copy of the map sharing its values
+	 * 
+	 * @param source map to copy
+	 */
+	OraProxyLongMap(final OraProxyLongMap<V> source) {
+		keys = source.keys.clone();
+		values = source.values.clone();
+		mask = source.mask;
+		size = source.size;
+	}
+
+	/**
+	 * Returns the value associated with the key, or null if there is no mapping for the key
+	 * 
+	 * @param key 64-bit key
+	 * @return value or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(final long key) {
+		final long[] keys = this.keys;
+		final Object[] values = this.values;
+		final int mask = this.mask;
+		int index = index(key, mask);
+		Object value;
+		while ((value = values[index]) != null) {
+			if (keys[index] == key) {
+				return (V) value;
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates the value with the key
+	 * 
+	 * @param key    64-bit key
+	 * @param value  value, not null
+	 * @return previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	V put(final long key, final V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed!");
+		}
+		int index = index(key, mask);
+		Object current;
+		while ((current = values[index]) != null) {
+			if (keys[index] == key) {
+				values[index] = value;
+				return (V) current;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		if (++size > (mask + 1) >> 1) {
+			rehash((mask + 1) << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Copies all mappings of the other map, replacing values of existing keys
+	 * 
+	 * @param other source of mappings
+	 */
+	@SuppressWarnings("unchecked")
+	void putAll(final OraProxyLongMap<V> other) {
+		for (int i = 0; i < other.values.length; i++) {
+			if (other.values[i] != null) {
+				put(other.keys[i], (V) other.values[i]);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int index = index(oldKeys[i], mask);
+				while (values[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	static int index(final long key, final int mask) {
+		// SQL_ID is already a part of MD5 digest, folding is enough
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	static int tableSize(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Local disk cache of remote mapping files. Every remote file is stored under the name
+ * derived from its URL with the same last path element, so the file type and sidecar
+ * files ('.prefilter', '.dict', '.snapshot') work as for local files. Validators of
+ * the cached copy (ETag, Last-Modified, length) are kept in the '.meta' properties
+ * file next to it. Files are downloaded to temporary files and renamed, so JVMs
+ * sharing the cache directory never see partially written copy.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyMappingCache {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxyMappingCache.class.getName());
+
+	static final String META_SUFFIX = ".meta";
+	static final String ETAG = "etag";
+	static final String LAST_MODIFIED = "last-modified";
+	static final String LENGTH = "length";
+	// Sidecar files downloaded together with the mapping when they exist
+	static final String[] SIDECAR_SUFFIXES = {
+			OraProxySourceFilter.FILE_SUFFIX, OraProxyDeflateCodec.FILE_SUFFIX, OraProxySqlTranslatorDelta.BASE_SUFFIX};
+
+	private final File directory;
+
+	/**
+	 *
+	 * @param config Oracle JDBC Proxy parameters, 'a2.mapping.cache.dir' sets the cache directory
+	 * @throws SQLException when the directory can not be created
+	 */
+	OraProxyMappingCache(final OraProxyConfig config) throws SQLException {
+		directory = new File(config.getString(OraProxyDriver.A2_MAPPING_CACHE_DIR,
+				new File(System.getProperty("java.io.tmpdir"), "a2-oracle-jdbc-proxy").getPath()));
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new SQLException(String.format("Unable to create cache directory '%s'!",
+					directory.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * Returns local copy of remote file
+	 *
+	 * @param remoteUrl  URL of remote file
+	 * @return local file, may not exist
+	 */
+	File file(final String remoteUrl) {
+		final String path = remoteUrl.replaceFirst("[?#].*$", "");
+		final String name = path.substring(path.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae);
+		}
+		final StringBuilder sb = new StringBuilder(name.length() + 17);
+		for (int i = 0; i < 8; i++) {
+			sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+		}
+		return new File(directory, sb.append('-').append(name).toString());
+	}
+
+	/**
+	 * Revalidates local copies of remote file and of its sidecar files. Every sidecar is
+	 * revalidated on its own, independently of the file and of other sidecars, so sidecar
+	 * changed or removed without the file is not left stale, and sidecar which can not be
+	 * revalidated does not prevent revalidation of the others. When the file itself can not
+	 * be revalidated, the cached copy is used
+	 *
+	 * @param remoteUrl  URL of remote file
+	 * @param fetcher    revalidates local copy of the file or sidecar with the suffix
+	 * @return 'file' URL of the local copy
+	 * @throws SQLException when the file is not available and there is no local copy
+	 */
+	URL fetch(final String remoteUrl, final Fetcher fetcher) throws SQLException {
+		final File file = file(remoteUrl);
+		try {
+			fetcher.fetch("", file);
+		} catch (IOException ioe) {
+			if (meta(file) == null) {
+				throw new SQLException(String.format("Unable to read from '%s'!", remoteUrl), ioe);
+			}
+			LOGGER.log(Level.WARNING, "Unable to revalidate ''{0}'', cached copy ''{1}'' is used: {2}",
+					new Object[] {remoteUrl, file.getAbsolutePath(), ioe.getMessage()});
+		}
+		if (meta(file) == null) {
+			throw new SQLException(String.format("File '%s' not found!", remoteUrl));
+		}
+		for (final String suffix : SIDECAR_SUFFIXES) {
+			final File sidecar = new File(file.getPath() + suffix);
+			try {
+				fetcher.fetch(suffix, sidecar);
+			} catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, "Unable to revalidate ''{0}{1}'', cached copy ''{2}'' is used: {3}",
+						new Object[] {remoteUrl, suffix, sidecar.getAbsolutePath(), ioe.getMessage()});
+			}
+		}
+		try {
+			return file.toURI().toURL();
+		} catch (MalformedURLException mfe) {
+			throw new SQLException(mfe);
+		}
+	}
+
+	/**
+	 * Returns validators of the cached copy
+	 *
+	 * @param file local copy
+	 * @return validators, or null when there is no valid copy
+	 */
+	Properties meta(final File file) {
+		final File metaFile = new File(file.getPath() + META_SUFFIX);
+		if (!file.isFile() || !metaFile.isFile()) {
+			return null;
+		}
+		final Properties meta = new Properties();
+		try (InputStream is = new FileInputStream(metaFile)) {
+			meta.load(is);
+		} catch (IOException ioe) {
+			return null;
+		}
+		final String length = meta.getProperty(LENGTH);
+		if (length == null || !length.equals(Long.toString(file.length()))) {
+			return null;
+		}
+		return meta;
+	}
+
+	/**
+	 * Creates temporary file for download in the cache directory
+	 *
+	 * @param file local copy
+	 * @return temporary file
+	 * @throws IOException
+	 */
+	File temp(final File file) throws IOException {
+		return File.createTempFile(file.getName(), ".tmp", directory);
+	}
+
+	/**
+	 * Replaces local copy with downloaded file and stores its validators
+	 *
+	 * @param temp  downloaded file, deleted on failure
+	 * @param file  local copy
+	 * @param meta  validators
+	 * @throws IOException
+	 */
+	void commit(final File temp, final File file, final Properties meta) throws IOException {
+		final File metaFile = new File(file.getPath() + META_SUFFIX);
+		final File metaTemp = temp(metaFile);
+		try {
+			meta.setProperty(LENGTH, Long.toString(temp.length()));
+			try (OutputStream os = new FileOutputStream(metaTemp)) {
+				meta.store(os, null);
+			}
+			// Meta is removed first, so copy without meta is never taken for valid
+			Files.deleteIfExists(metaFile.toPath());
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(metaTemp.toPath(), metaFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+			metaTemp.delete();
+		}
+	}
+
+	/**
+	 * Removes local copy and its validators
+	 *
+	 * @param file local copy
+	 * @throws IOException
+	 */
+	void remove(final File file) throws IOException {
+		Files.deleteIfExists(new File(file.getPath() + META_SUFFIX).toPath());
+		Files.deleteIfExists(file.toPath());
+	}
+
+	/**
+	 * Revalidates local copy of remote file or sidecar, downloads it when it is changed
+	 * and removes the local copy when it does not exist
+	 */
+	@FunctionalInterface
+	interface Fetcher {
+		/**
+		 *
+		 * @param suffix  empty for the file, or suffix of the sidecar
+		 * @param file    local copy
+		 * @throws IOException
+		 */
+		void fetch(String suffix, File file) throws IOException;
+	}
+
+}
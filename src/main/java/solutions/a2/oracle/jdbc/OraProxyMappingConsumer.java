@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Receiver of SQL mapping entries produced by mapping file readers
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+interface OraProxyMappingConsumer {
+	public void accept(final String sqlId, final String sqlStatement) throws IOException;
+	/**
+	 * Receives optional length and String.hashCode() of the source SQL statement,
+	 * called before {@link #accept(String, String)} for the same entry
+	 * 
+	 * @param sqlId         SQL_ID of source SQL statement
+	 * @param sourceLength  length of source SQL statement
+	 * @param sourceHash    String.hashCode() of source SQL statement
+	 * @throws IOException
+	 */
+	public default void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) throws IOException {
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * Expands 'file' mapping URL pointing to a directory or to a glob pattern in the
+ * last path element, for example 'file:///opt/mapping/*.yaml', into the list of
+ * mapping files sorted by name. When the same key is in several files, translation
+ * from the last file wins. Files named '&lt;name&gt;.&lt;index&gt;-of-&lt;count&gt;.&lt;extension&gt;',
+ * written by 'OraProxyFileUtils -s &lt;count&gt;', are shards of one mapping partitioned
+ * by the high bits of 64-bit key, and lookup goes directly to the shard of the key.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyMappingFiles {
+
+	private static final String GLOB_CHARS = "*?[{";
+	private static final Pattern SHARD_NAME = Pattern.compile("^(.+)\\.(\\d+)-of-(\\d+)(\\.[^.]+)$");
+	static final int MAX_SHARDS = 4096;
+
+	/**
+	 * Opens translator over one mapping file
+	 */
+	interface Opener {
+		OraProxyTranslatorIntf open(final URL mappingFileUrl) throws SQLException;
+	}
+
+	private OraProxyMappingFiles() {
+	}
+
+	/**
+	 * Returns mapping files for URL
+	 *
+	 * @param mappingFileUrl  URL of file, directory or glob pattern
+	 * @param fileType        'yaml', 'chronicle' or 'bin', selects files in directory by extension
+	 * @return mapping files sorted by name, or list with mappingFileUrl when it is a single file
+	 * @throws SQLException when directory or glob pattern has no files
+	 */
+	static List<URL> list(final URL mappingFileUrl, final String fileType) throws SQLException {
+		return list(mappingFileUrl, fileType, true);
+	}
+
+	/**
+	 * Returns mapping files for URL
+	 *
+	 * @param mappingFileUrl  URL of file, directory or glob pattern
+	 * @param fileType        'yaml', 'chronicle', 'bin' or 'delta', selects files in directory by extension
+	 * @param required        when true directory or glob pattern must have files
+	 * @return mapping files sorted by name, or list with mappingFileUrl when it is a single file
+	 * @throws SQLException when required and directory or glob pattern has no files
+	 */
+	static List<URL> list(final URL mappingFileUrl, final String fileType, final boolean required) throws SQLException {
+		if (!"file".equals(mappingFileUrl.getProtocol())) {
+			return Collections.singletonList(mappingFileUrl);
+		}
+		final File file = new File(mappingFileUrl.getFile());
+		final File directory;
+		final PathMatcher matcher;
+		if (isGlob(file.getName())) {
+			directory = file.getAbsoluteFile().getParentFile();
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + file.getName());
+		} else if (file.isDirectory()) {
+			directory = file;
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + extensions(fileType));
+		} else {
+			return Collections.singletonList(mappingFileUrl);
+		}
+		final File[] files = directory.listFiles();
+		final List<URL> urls = new ArrayList<>();
+		if (files != null) {
+			Arrays.sort(files);
+			for (final File candidate : files) {
+				if (candidate.isFile() && matcher.matches(Paths.get(candidate.getName()))) {
+					try {
+						urls.add(candidate.toURI().toURL());
+					} catch (MalformedURLException mfe) {
+						throw new SQLException(mfe);
+					}
+				}
+			}
+		}
+		if (urls.isEmpty() && required) {
+			throw new SQLException(String.format("No mapping files found for '%s'!", mappingFileUrl));
+		}
+		return urls;
+	}
+
+	/**
+	 * Opens translators over mapping files, one task per file, and returns
+	 * composite translator when there is more than one file. When any file can not
+	 * be opened, files are not opened any more, and translators already opened are
+	 * closed after running tasks complete
+	 *
+	 * @param urls         mapping files
+	 * @param parallelism  number of files opened at the same time
+	 * @param opener       opens translator over one file
+	 * @return translator
+	 * @throws SQLException
+	 */
+	static OraProxyTranslatorIntf open(final List<URL> urls, final int parallelism,
+			final Opener opener) throws SQLException {
+		if (urls.size() == 1) {
+			return opener.open(urls.get(0));
+		}
+		final OraProxyTranslatorIntf[] translators = new OraProxyTranslatorIntf[urls.size()];
+		final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(parallelism, urls.size())));
+		final Queue<OraProxyTranslatorIntf> opened = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean failed = new AtomicBoolean();
+		try {
+			final List<Future<OraProxyTranslatorIntf>> tasks = new ArrayList<>(urls.size());
+			for (final URL url : urls) {
+				tasks.add(pool.submit(() -> {
+					if (failed.get()) {
+						return null;
+					}
+					final OraProxyTranslatorIntf translator = opener.open(url);
+					opened.add(translator);
+					return translator;
+				}));
+			}
+			for (int i = 0; i < translators.length; i++) {
+				translators[i] = get(tasks.get(i), urls.get(i));
+			}
+		} catch (SQLException | RuntimeException e) {
+			failed.set(true);
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			for (final OraProxyTranslatorIntf translator : opened) {
+				try {
+					translator.close();
+				} catch (RuntimeException re) {
+					e.addSuppressed(re);
+				}
+			}
+			throw e;
+		} finally {
+			pool.shutdownNow();
+		}
+		final OraProxyTranslatorIntf[] shards = shards(urls, translators);
+		if (shards != null) {
+			return new OraProxySqlTranslatorSharded(shards);
+		}
+		return new OraProxySqlTranslatorComposite(translators);
+	}
+
+	/**
+	 * Returns translators ordered by shard index when the files are the complete
+	 * set of shards of one mapping, otherwise null
+	 */
+	private static OraProxyTranslatorIntf[] shards(final List<URL> urls, final OraProxyTranslatorIntf[] translators) {
+		final Shard first = Shard.parse(new File(urls.get(0).getFile()).getName());
+		if (first == null || first.count != urls.size()) {
+			return null;
+		}
+		final OraProxyTranslatorIntf[] shards = new OraProxyTranslatorIntf[first.count];
+		for (int i = 0; i < urls.size(); i++) {
+			final Shard shard = Shard.parse(new File(urls.get(i).getFile()).getName());
+			if (shard == null || shard.count != first.count || !shard.name.equals(first.name) ||
+					!shard.extension.equals(first.extension) || shards[shard.index] != null) {
+				return null;
+			}
+			shards[shard.index] = translators[i];
+		}
+		return shards;
+	}
+
+	/**
+	 * Returns shard of the key, selected by its high bits
+	 *
+	 * @param key    64-bit SQL_ID value, or salted force matching signature
+	 * @param count  number of shards, power of two
+	 * @return shard index
+	 */
+	static int shard(final long key, final int count) {
+		return count == 1 ? 0 : (int) (key >>> (64 - Integer.numberOfTrailingZeros(count)));
+	}
+
+	/**
+	 * Shard of mapping file, parsed from file name '&lt;name&gt;.&lt;index&gt;-of-&lt;count&gt;.&lt;extension&gt;'
+	 */
+	static final class Shard {
+		final String name;
+		final int index;
+		final int count;
+		final String extension;
+
+		private Shard(final String name, final int index, final int count, final String extension) {
+			this.name = name;
+			this.index = index;
+			this.count = count;
+			this.extension = extension;
+		}
+
+		/**
+		 * Returns shard for file name, or null when the name is not a name of shard
+		 */
+		static Shard parse(final String fileName) {
+			final Matcher matcher = SHARD_NAME.matcher(fileName);
+			if (!matcher.matches() || matcher.group(2).length() > 4 || matcher.group(3).length() > 4) {
+				return null;
+			}
+			final int index = Integer.parseInt(matcher.group(2));
+			final int count = Integer.parseInt(matcher.group(3));
+			if (count < 2 || count > MAX_SHARDS || Integer.bitCount(count) != 1 || index >= count) {
+				return null;
+			}
+			return new Shard(matcher.group(1), index, count, matcher.group(4));
+		}
+
+		/**
+		 * Returns file name of shard
+		 *
+		 * @param name       file name without extension
+		 * @param index      shard index
+		 * @param count      number of shards
+		 * @param extension  extension with '.'
+		 * @return file name
+		 */
+		static String fileName(final String name, final int index, final int count, final String extension) {
+			return String.format("%s.%0" + Integer.toString(count).length() + "d-of-%d%s",
+					name, index, count, extension);
+		}
+	}
+
+	/**
+	 * Waits for the task and rethrows its failure as SQLException
+	 */
+	static <T> T get(final Future<T> task, final URL url) throws SQLException {
+		try {
+			return task.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof SQLException) {
+				throw (SQLException) ee.getCause();
+			}
+			throw new SQLException(String.format("Unable to read from '%s'!", url), ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(String.format("Interrupted while reading from '%s'!", url), ie);
+		}
+	}
+
+	private static boolean isGlob(final String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (GLOB_CHARS.indexOf(name.charAt(i)) > -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String extensions(final String fileType) {
+		if ("chronicle".equals(fileType)) {
+			return "*.cmap";
+		} else if ("bin".equals(fileType)) {
+			return "*.bin";
+		} else if ("delta".equals(fileType)) {
+			return "*" + OraProxySqlTranslatorDelta.FILE_SUFFIX;
+		} else {
+			return "*.{yaml,yml}";
+		}
+	}
+
+}
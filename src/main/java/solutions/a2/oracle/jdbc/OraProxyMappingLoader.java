@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 
+ * Loader of YAML mapping into in-heap stores keyed by 64-bit value: parses SQL_ID
+ * and force matching signature keys, skips invalid keys, and collects optional
+ * source information for {@link OraProxySourceFilter}
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+abstract class OraProxyMappingLoader implements OraProxyMappingConsumer {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxyMappingLoader.class.getName());
+
+	private final OraProxySourceFilter.Builder sources = new OraProxySourceFilter.Builder();
+	private String sourceInfoSqlId;
+
+	/**
+	 * Stores translation for the SQL_ID
+	 * 
+	 * @param sqlId         64-bit SQL_ID value
+	 * @param sqlStatement  translated SQL statement
+	 */
+	abstract void put(final long sqlId, final String sqlStatement);
+
+	/**
+	 * Stores translation for the force matching signature
+	 * 
+	 * @param signature     force matching signature
+	 * @param sqlStatement  translated SQL statement with system generated binds
+	 */
+	abstract void putSignature(final long signature, final String sqlStatement);
+
+	/**
+	 * Reads all entries of YAML mapping
+	 * 
+	 * @param mappingFileUrl URL of YAML mapping
+	 * @throws SQLException
+	 */
+	void load(final URL mappingFileUrl) throws SQLException {
+		load(mappingFileUrl, 1);
+	}
+
+	/**
+	 * Reads all entries of YAML mapping. Local file is memory mapped and parsed by
+	 * parallelism threads, other URLs are read sequentially. When URL points to a
+	 * directory or glob pattern, files are parsed in parallel, one task per file, at most
+	 * twice parallelism files ahead of the stored ones, and entries are stored in order
+	 * of file names, so the last file wins
+	 * 
+	 * @param mappingFileUrl URL of YAML mapping, directory or glob pattern
+	 * @param parallelism    number of threads parsing local files
+	 * @throws SQLException
+	 */
+	void load(final URL mappingFileUrl, final int parallelism) throws SQLException {
+		final List<URL> files = OraProxyMappingFiles.list(mappingFileUrl, "yaml");
+		if (files.size() == 1) {
+			try {
+				read(files.get(0), parallelism, this);
+			} catch (IOException ioe) {
+				throw new SQLException(String.format("Unable to read from '%s'!", files.get(0)), ioe);
+			}
+			return;
+		}
+		final int threads = Math.max(1, Math.min(parallelism, files.size()));
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			// At most window files are parsed and not yet replayed, the next file is
+			// submitted when one is replayed and its entries are released, so decoded
+			// entries on heap are bounded by window files, not by the whole mapping
+			final int window = Math.min(files.size(), threads * 2);
+			final List<Future<OraProxyYamlReader.Entries>> tasks = new ArrayList<>(files.size());
+			for (int i = 0; i < files.size(); i++) {
+				tasks.add(i < window ? parse(pool, files.get(i)) : null);
+			}
+			for (int i = 0; i < files.size(); i++) {
+				try {
+					OraProxyMappingFiles.get(tasks.get(i), files.get(i)).replay(this);
+				} catch (IOException ioe) {
+					throw new SQLException(String.format("Unable to read from '%s'!", files.get(i)), ioe);
+				}
+				tasks.set(i, null);
+				if (i + window < files.size()) {
+					tasks.set(i + window, parse(pool, files.get(i + window)));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Future<OraProxyYamlReader.Entries> parse(final ForkJoinPool pool, final URL file) {
+		return pool.submit(() -> {
+			final OraProxyYamlReader.Entries entries = new OraProxyYamlReader.Entries();
+			read(file, 1, entries);
+			return entries;
+		});
+	}
+
+	private static void read(final URL mappingFileUrl, final int parallelism,
+			final OraProxyMappingConsumer consumer) throws IOException {
+		if ("file".equals(mappingFileUrl.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(
+					new File(mappingFileUrl.getFile()).toPath(), StandardOpenOption.READ)) {
+				if (channel.size() <= Integer.MAX_VALUE) {
+					// Platform charset, the same as InputStreamReader below
+					OraProxyYamlReader.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+							Charset.defaultCharset(), parallelism, consumer);
+					return;
+				}
+				LOGGER.log(Level.INFO, "File ''{0}'' is larger than 2 GiB and is read by single thread.",
+						mappingFileUrl);
+			}
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(mappingFileUrl.openStream()))) {
+			OraProxyUtils.readSimpleYaml(reader, consumer);
+		}
+	}
+
+	@Override
+	public void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) {
+		if (!sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+			try {
+				sources.add(OraProxyUtils.sqlIdToLong(sqlId), sourceLength, sourceHash);
+				sourceInfoSqlId = sqlId;
+			} catch (IllegalArgumentException iae) {
+				// Reported in accept()
+			}
+		}
+	}
+
+	@Override
+	public void accept(final String sqlId, final String sqlStatement) {
+		try {
+			if (sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+				putSignature(Long.parseUnsignedLong(
+						sqlId.substring(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX.length())), sqlStatement);
+			} else {
+				put(OraProxyUtils.sqlIdToLong(sqlId), sqlStatement);
+				if (!sqlId.equals(sourceInfoSqlId)) {
+					sources.addMissing();
+				}
+			}
+		} catch (IllegalArgumentException iae) {
+			LOGGER.log(Level.WARNING, "Skipping mapping entry: {0}", iae.getMessage());
+		}
+	}
+
+	/**
+	 * Returns collected source information
+	 * 
+	 * @return source information of loaded entries
+	 */
+	OraProxySourceFilter.Builder sources() {
+		return sources;
+	}
+
+	/**
+	 * Returns filter over source information, or null if it is not set for all entries
+	 * 
+	 * @param mappingFileUrl URL of YAML mapping, for logging
+	 * @return source filter or null
+	 */
+	OraProxySourceFilter sourceFilter(final URL mappingFileUrl) {
+		final OraProxySourceFilter sourceFilter = sources.build();
+		if (sourceFilter == null && sources.size() > 0) {
+			LOGGER.log(Level.INFO,
+					"Source information is not set for all entries in ''{0}'', prefilter is not used.", mappingFileUrl);
+		}
+		return sourceFilter;
+	}
+
+}
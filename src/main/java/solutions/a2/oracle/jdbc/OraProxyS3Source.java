@@ -0,0 +1,391 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ *
+ * Mapping file stored in Amazon S3 or S3 compatible object storage (MinIO, Ceph),
+ * addressed by URL 's3://bucket/key'. The object is downloaded with parallel ranged
+ * GET requests into {@link OraProxyMappingCache}, and on next starts the cached copy
+ * is revalidated with one conditional HEAD request. When the object storage is not
+ * available, the cached copy is used. Requests are signed with AWS Signature Version 4
+ * when credentials are set, otherwise they are anonymous.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyS3Source {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxyS3Source.class.getName());
+
+	static final String URL_PREFIX = "s3://";
+	private static final long PART_SIZE = 8L << 20;
+	private static final int CONNECT_TIMEOUT_MS = 10_000;
+	private static final int READ_TIMEOUT_MS = 60_000;
+	private static final String EMPTY_PAYLOAD_HASH =
+			"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	private final String endpoint;
+	private final boolean pathStyle;
+	private final String region;
+	private final String accessKey;
+	private final String secretKey;
+	private final String sessionToken;
+	private final int parallelism;
+	private final OraProxyMappingCache cache;
+
+	/**
+	 *
+	 * @param config       Oracle JDBC Proxy parameters
+	 * @param parallelism  number of parallel ranged GET requests
+	 * @throws SQLException
+	 */
+	OraProxyS3Source(final OraProxyConfig config, final int parallelism) throws SQLException {
+		region = config.getString(OraProxyDriver.A2_S3_REGION,
+				System.getenv("AWS_REGION") == null ? "us-east-1" : System.getenv("AWS_REGION"));
+		final String customEndpoint = config.getString(OraProxyDriver.A2_S3_ENDPOINT, null);
+		if (customEndpoint == null) {
+			endpoint = "https://s3." + region + ".amazonaws.com";
+			pathStyle = false;
+		} else {
+			endpoint = customEndpoint.endsWith("/")
+					? customEndpoint.substring(0, customEndpoint.length() - 1)
+					: customEndpoint;
+			pathStyle = true;
+		}
+		accessKey = config.getString(OraProxyDriver.A2_S3_ACCESS_KEY, System.getenv("AWS_ACCESS_KEY_ID"));
+		secretKey = config.getString(OraProxyDriver.A2_S3_SECRET_KEY, System.getenv("AWS_SECRET_ACCESS_KEY"));
+		// Session token is used only with credentials from environment
+		sessionToken = config.getString(OraProxyDriver.A2_S3_ACCESS_KEY, null) == null
+				? System.getenv("AWS_SESSION_TOKEN")
+				: null;
+		this.parallelism = Math.max(1, parallelism);
+		cache = new OraProxyMappingCache(config);
+	}
+
+	/**
+	 * Returns URL of the up to date local copy of the object
+	 *
+	 * @param s3Url  's3://bucket/key'
+	 * @return 'file' URL of the local copy
+	 * @throws SQLException when the object is not available and there is no local copy
+	 */
+	URL fetch(final String s3Url) throws SQLException {
+		if (!s3Url.startsWith(URL_PREFIX) || s3Url.indexOf('/', URL_PREFIX.length()) < 0) {
+			throw new SQLException(String.format("Malformed S3 URL '%s', expected 's3://bucket/key'!", s3Url));
+		}
+		final int keyPos = s3Url.indexOf('/', URL_PREFIX.length());
+		final String bucket = s3Url.substring(URL_PREFIX.length(), keyPos);
+		final String key = s3Url.substring(keyPos + 1);
+		return cache.fetch(s3Url, (suffix, file) -> fetch(bucket, key + suffix, file));
+	}
+
+	/**
+	 * Revalidates local copy of the object and downloads the object when it is changed
+	 *
+	 * @throws IOException
+	 */
+	private void fetch(final String bucket, final String key, final File file) throws IOException {
+		final Properties cached = cache.meta(file);
+		final String cachedETag = cached == null ? null : cached.getProperty(OraProxyMappingCache.ETAG);
+		final Map<String, String> headers = new TreeMap<>();
+		if (cachedETag != null) {
+			headers.put("if-none-match", cachedETag);
+		}
+		final HttpURLConnection head = open("HEAD", bucket, key, headers);
+		final String eTag;
+		final long length;
+		try {
+			final int status = head.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return;
+			} else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+				cache.remove(file);
+				return;
+			} else if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException(String.format("HEAD %s/%s returned HTTP %d!", bucket, key, status));
+			}
+			eTag = head.getHeaderField("ETag");
+			length = head.getHeaderFieldLong("Content-Length", -1);
+		} finally {
+			head.disconnect();
+		}
+		if (eTag != null && eTag.equals(cachedETag)) {
+			return;
+		}
+		if (length < 0) {
+			throw new IOException(String.format("HEAD %s/%s returned no Content-Length!", bucket, key));
+		}
+		final long started = System.currentTimeMillis();
+		final File temp = cache.temp(file);
+		try {
+			download(bucket, key, eTag, length, temp);
+			final Properties meta = new Properties();
+			if (eTag != null) {
+				meta.setProperty(OraProxyMappingCache.ETAG, eTag);
+			}
+			cache.commit(temp, file, meta);
+		} finally {
+			temp.delete();
+		}
+		LOGGER.log(Level.INFO, "{0} bytes of ''s3://{1}/{2}'' downloaded to ''{3}'' in {4} ms.",
+				new Object[] {length, bucket, key, file.getAbsolutePath(), System.currentTimeMillis() - started});
+	}
+
+	/**
+	 * Downloads the object by parts of PART_SIZE, every part is written at its
+	 * position of the file. Parts are requested with 'If-Match' of ETag, so the
+	 * object changed during download is not mixed from two versions.
+	 */
+	private void download(final String bucket, final String key, final String eTag,
+			final long length, final File temp) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+			raf.setLength(length);
+			final FileChannel channel = raf.getChannel();
+			final int parts = (int) ((length + PART_SIZE - 1) / PART_SIZE);
+			if (parts <= 1 || parallelism == 1) {
+				for (int part = 0; part < parts; part++) {
+					downloadPart(bucket, key, eTag, part * PART_SIZE, Math.min(length, (part + 1) * PART_SIZE), channel);
+				}
+				return;
+			}
+			final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, parts));
+			try {
+				final List<Future<Void>> tasks = new ArrayList<>(parts);
+				for (int part = 0; part < parts; part++) {
+					final long start = part * PART_SIZE;
+					final long end = Math.min(length, start + PART_SIZE);
+					tasks.add(pool.submit(() -> {
+						downloadPart(bucket, key, eTag, start, end, channel);
+						return null;
+					}));
+				}
+				for (final Future<Void> task : tasks) {
+					try {
+						task.get();
+					} catch (ExecutionException ee) {
+						if (ee.getCause() instanceof IOException) {
+							throw (IOException) ee.getCause();
+						}
+						throw new IOException(ee.getCause());
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new IOException(ie);
+					}
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	private void downloadPart(final String bucket, final String key, final String eTag,
+			final long start, final long end, final FileChannel channel) throws IOException {
+		final Map<String, String> headers = new TreeMap<>();
+		headers.put("range", "bytes=" + start + "-" + (end - 1));
+		if (eTag != null) {
+			headers.put("if-match", eTag);
+		}
+		final HttpURLConnection get = open("GET", bucket, key, headers);
+		try {
+			final int status = get.getResponseCode();
+			if (status != HttpURLConnection.HTTP_PARTIAL && !(status == HttpURLConnection.HTTP_OK && start == 0)) {
+				throw new IOException(String.format("GET %s/%s bytes %d-%d returned HTTP %d!",
+						bucket, key, start, end - 1, status));
+			}
+			final byte[] buffer = new byte[0x10000];
+			long position = start;
+			try (InputStream is = get.getInputStream()) {
+				int count;
+				while (position < end && (count = is.read(buffer, 0, (int) Math.min(buffer.length, end - position))) > -1) {
+					final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, count);
+					while (bb.hasRemaining()) {
+						position += channel.write(bb, position);
+					}
+				}
+			}
+			if (position != end) {
+				throw new IOException(String.format("GET %s/%s bytes %d-%d returned %d bytes!",
+						bucket, key, start, end - 1, position - start));
+			}
+		} finally {
+			get.disconnect();
+		}
+	}
+
+	private HttpURLConnection open(final String method, final String bucket, final String key,
+			final Map<String, String> headers) throws IOException {
+		final String path = pathStyle
+				? "/" + uriEncode(bucket) + "/" + uriEncode(key)
+				: "/" + uriEncode(key);
+		final URL url;
+		if (pathStyle) {
+			url = new URL(endpoint + path);
+		} else {
+			final URL base = new URL(endpoint);
+			url = new URL(base.getProtocol(), bucket + "." + base.getHost(), base.getPort(), path);
+		}
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		connection.setReadTimeout(READ_TIMEOUT_MS);
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		if (accessKey != null && secretKey != null) {
+			final String amzDate = amzDate(new Date());
+			final Map<String, String> signed = new TreeMap<>(headers);
+			signed.put("host", url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort());
+			signed.put("x-amz-content-sha256", EMPTY_PAYLOAD_HASH);
+			signed.put("x-amz-date", amzDate);
+			if (sessionToken != null) {
+				signed.put("x-amz-security-token", sessionToken);
+			}
+			final String authorization;
+			try {
+				authorization = authorization(method, path, signed, amzDate, region, accessKey, secretKey);
+			} catch (GeneralSecurityException gse) {
+				throw new IOException(gse);
+			}
+			for (final Map.Entry<String, String> header : signed.entrySet()) {
+				if (!"host".equals(header.getKey())) {
+					connection.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+			connection.setRequestProperty("Authorization", authorization);
+		} else {
+			for (final Map.Entry<String, String> header : headers.entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Returns value of Authorization header for AWS Signature Version 4 with unsigned
+	 * empty payload and without query string
+	 *
+	 * @param method     HTTP method
+	 * @param path       URI encoded path
+	 * @param headers    signed headers with lower case names, sorted
+	 * @param amzDate    value of x-amz-date header
+	 * @param region     region
+	 * @param accessKey  access key
+	 * @param secretKey  secret key
+	 * @return value of Authorization header
+	 * @throws GeneralSecurityException
+	 */
+	static String authorization(final String method, final String path, final Map<String, String> headers,
+			final String amzDate, final String region, final String accessKey, final String secretKey)
+					throws GeneralSecurityException {
+		final StringBuilder canonical = new StringBuilder(256)
+				.append(method).append('\n')
+				.append(path).append('\n')
+				.append('\n');
+		final StringBuilder signedHeaders = new StringBuilder(64);
+		for (final Map.Entry<String, String> header : headers.entrySet()) {
+			canonical.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(header.getKey());
+		}
+		canonical
+			.append('\n')
+			.append(signedHeaders).append('\n')
+			.append(headers.containsKey("x-amz-content-sha256")
+					? headers.get("x-amz-content-sha256")
+					: EMPTY_PAYLOAD_HASH);
+		final String date = amzDate.substring(0, 8);
+		final String scope = date + "/" + region + "/s3/aws4_request";
+		final String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" +
+				hex(MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+		byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+		signingKey = hmac(signingKey, region);
+		signingKey = hmac(signingKey, "s3");
+		signingKey = hmac(signingKey, "aws4_request");
+		return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope +
+				",SignedHeaders=" + signedHeaders +
+				",Signature=" + hex(hmac(signingKey, stringToSign));
+	}
+
+	private static byte[] hmac(final byte[] key, final String data) throws GeneralSecurityException {
+		final Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String hex(final byte[] bytes) {
+		final char[] chars = new char[bytes.length << 1];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i << 1] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			chars[(i << 1) + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(chars);
+	}
+
+	private static String amzDate(final Date date) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	/**
+	 * URI encoding of S3 object key, '/' is not encoded
+	 */
+	private static String uriEncode(final String value) {
+		final StringBuilder sb = new StringBuilder(value.length() + 16);
+		for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			final char c = (char) (b & 0xFF);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+					c == '-' || c == '_' || c == '.' || c == '~' || c == '/') {
+				sb.append(c);
+			} else {
+				sb.append('%')
+					.append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)))
+					.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+		}
+		return sb.toString();
+	}
+
+}
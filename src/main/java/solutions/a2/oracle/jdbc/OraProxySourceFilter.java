@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 
+ * Filter over the length and String.hashCode() of source SQL statements which have
+ * translation. A statement which length and hash code pair is not in the filter cannot
+ * have translation, so it is rejected before SQL_ID computation. Both values are O(1)
+ * for String: length is a field and hash code is cached in the String instance.
+ * The filter can be used only when source information is known for every entry of mapping.
+ * For Chronicle Map file source information is stored in a file with the same name and
+ * '.prefilter' suffix.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxySourceFilter {
+
+	static final String FILE_SUFFIX = ".prefilter";
+	private static final int MAGIC = 0x41325346;
+	private static final int VERSION = 1;
+
+	private final OraProxyBloomFilter filter;
+	private final int minLength;
+	private final int maxLength;
+
+	private OraProxySourceFilter(final Builder builder) {
+		filter = new OraProxyBloomFilter(builder.count);
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		for (int i = 0; i < builder.count; i++) {
+			final int length = builder.lengths[i];
+			filter.add(key(length, builder.hashes[i]));
+			min = Math.min(min, length);
+			max = Math.max(max, length);
+		}
+		minLength = min;
+		maxLength = max;
+	}
+
+	/**
+	 * Returns false when the statement definitely has no translation
+	 * 
+	 * @param source source SQL statement
+	 * @return false when the statement has no translation
+	 */
+	boolean mightContain(final String source) {
+		final int length = source.length();
+		return length >= minLength && length <= maxLength &&
+				filter.mightContain(key(length, source.hashCode()));
+	}
+
+	private static long key(final int length, final int hashCode) {
+		return ((long) length << 32) | (hashCode & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Reads source information from file
+	 * 
+	 * @param file source information file
+	 * @return builder with source information
+	 * @throws IOException
+	 */
+	static Builder read(final File file) throws IOException {
+		return read(file, 0);
+	}
+
+	/**
+	 * Reads source information from file at the offset
+	 * 
+	 * @param file    file with source information
+	 * @param offset  offset of source information in file
+	 * @return builder with source information
+	 * @throws IOException
+	 */
+	static Builder read(final File file, final long offset) throws IOException {
+		try (FileInputStream fis = new FileInputStream(file)) {
+			fis.getChannel().position(offset);
+			final Builder builder = read(new DataInputStream(new BufferedInputStream(fis)));
+			if (builder == null) {
+				throw new IOException("Invalid format of source information file '" + file.getAbsolutePath() + "'!");
+			}
+			return builder;
+		}
+	}
+
+	/**
+	 * Reads source information from stream
+	 * 
+	 * @param dis stream positioned at source information
+	 * @return builder with source information, or null if the stream has another format
+	 * @throws IOException
+	 */
+	static Builder read(final DataInputStream dis) throws IOException {
+		if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+			return null;
+		}
+		final int count = dis.readInt();
+		final Builder builder = new Builder(count);
+		for (int i = 0; i < count; i++) {
+			builder.add(dis.readLong(), dis.readInt(), dis.readInt());
+		}
+		return builder;
+	}
+
+	/**
+	 * 
+	 * Collects source information of mapping entries
+	 * 
+	 */
+	static final class Builder {
+		private long[] sqlIds;
+		private int[] lengths;
+		private int[] hashes;
+		private int count;
+		private int missing;
+
+		Builder() {
+			this(1024);
+		}
+
+		private Builder(final int capacity) {
+			sqlIds = new long[Math.max(16, capacity)];
+			lengths = new int[sqlIds.length];
+			hashes = new int[sqlIds.length];
+		}
+
+		void add(final long sqlId, final int length, final int hashCode) {
+			if (count == sqlIds.length) {
+				final int capacity = count << 1;
+				final long[] newSqlIds = new long[capacity];
+				final int[] newLengths = new int[capacity];
+				final int[] newHashes = new int[capacity];
+				System.arraycopy(sqlIds, 0, newSqlIds, 0, count);
+				System.arraycopy(lengths, 0, newLengths, 0, count);
+				System.arraycopy(hashes, 0, newHashes, 0, count);
+				sqlIds = newSqlIds;
+				lengths = newLengths;
+				hashes = newHashes;
+			}
+			sqlIds[count] = sqlId;
+			lengths[count] = length;
+			hashes[count] = hashCode;
+			count++;
+		}
+
+		/**
+		 * Adds source information of another builder, for example of another shard
+		 * 
+		 * @param other source information to add
+		 */
+		void addAll(final Builder other) {
+			for (int i = 0; i < other.count; i++) {
+				add(other.sqlIds[i], other.lengths[i], other.hashes[i]);
+			}
+			missing += other.missing;
+		}
+
+		/**
+		 * Registers mapping entry without source information
+		 */
+		void addMissing() {
+			missing++;
+		}
+
+		/**
+		 * Returns true when source information is known for every mapping entry
+		 * 
+		 * @return true when filter can be built
+		 */
+		boolean complete() {
+			return missing == 0 && count > 0;
+		}
+
+		int size() {
+			return count;
+		}
+
+		long sqlId(final int index) {
+			return sqlIds[index];
+		}
+
+		int length(final int index) {
+			return lengths[index];
+		}
+
+		int hashCode(final int index) {
+			return hashes[index];
+		}
+
+		OraProxySourceFilter build() {
+			return complete() ? new OraProxySourceFilter(this) : null;
+		}
+
+		void write(final File file) throws IOException {
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+				write(dos);
+			}
+		}
+
+		void write(final DataOutputStream dos) throws IOException {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				dos.writeLong(sqlIds[i]);
+				dos.writeInt(lengths[i]);
+				dos.writeInt(hashes[i]);
+			}
+		}
+	}
+
+}
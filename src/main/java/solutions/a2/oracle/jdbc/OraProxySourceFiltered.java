@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * 
+ * Translator which checks source SQL statement against its own {@link OraProxySourceFilter}.
+ * Wrapper over shards of one mapping builds one filter over source information of all
+ * shards, checks the statement against it once and then looks up the selected shard
+ * without the check of shard filter.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+interface OraProxySourceFiltered {
+	/**
+	 * Returns source information of all entries, read again from the mapping or its
+	 * '.prefilter' file, so it is not kept on heap by translator
+	 * 
+	 * @return source information, or null when the translator has no source filter
+	 * @throws IOException
+	 */
+	public OraProxySourceFilter.Builder sources() throws IOException;
+	/**
+	 * Returns translation stored for SQL_ID without the check of source filter
+	 * 
+	 * @param sqlId 64-bit SQL_ID value
+	 * @return translation or null if not found
+	 * @throws SQLException
+	 */
+	public String translateUnfiltered(final long sqlId) throws SQLException;
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * Per-thread SQL_ID/HASH_VALUE computation engine.
+ * Oracle SQL_ID is the lower 64 bits of MD5 digest of the null terminated UTF-8
+ * statement text, where each of the last two 32-bit words is taken in little-endian
+ * order, and the result is encoded with 13 characters of Oracle base-32 alphabet.
+ * The engine works directly on digest bytes, reuses the digest, the fixed size encode
+ * buffer and the output characters, so only the resulting String is allocated for each
+ * call. Any CharSequence (String, StringBuilder, CharBuffer) is accepted as input.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxySqlIdEngine {
+
+	static final int SQL_ID_LENGTH = 13;
+	private static final char[] ORA_SQL_ID_ALPHABET = "0123456789abcdfghjkmnpqrstuvwxyz".toCharArray();
+	private static final byte NULL_CHAR_BYTE = 0x00;
+	private static final int MD5_LENGTH = 16;
+	private static final int CHUNK_SIZE = 0x2000;
+
+	private static final byte[] ALPHABET_INDEX = new byte['z' + 1];
+	static {
+		for (int i = 0; i < ALPHABET_INDEX.length; i++) {
+			ALPHABET_INDEX[i] = -1;
+		}
+		for (int i = 0; i < ORA_SQL_ID_ALPHABET.length; i++) {
+			ALPHABET_INDEX[ORA_SQL_ID_ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private static final ThreadLocal<OraProxySqlIdEngine> ENGINE = new ThreadLocal<>();
+
+	private final MessageDigest md;
+	private final byte[] md5 = new byte[MD5_LENGTH];
+	private final char[] sqlId = new char[SQL_ID_LENGTH];
+	private final byte[] buffer = new byte[CHUNK_SIZE];
+
+	private OraProxySqlIdEngine() throws NoSuchAlgorithmException {
+		md = MessageDigest.getInstance("MD5");
+	}
+
+	/**
+	 * Returns engine instance bound to the current thread
+	 *
+	 * @return engine instance
+	 * @throws NoSuchAlgorithmException
+	 */
+	static OraProxySqlIdEngine get() throws NoSuchAlgorithmException {
+		OraProxySqlIdEngine engine = ENGINE.get();
+		if (engine == null) {
+			engine = new OraProxySqlIdEngine();
+			ENGINE.set(engine);
+		}
+		return engine;
+	}
+
+	/**
+	 * Computes lower 64 bits of MD5 digest of the null terminated UTF-8 representation
+	 * of SQL statement in SQL_ID order: reversed Q3 as high 32 bits and reversed Q4 as
+	 * low 32 bits. The low 32 bits are the Oracle HASH_VALUE.
+	 * Characters are encoded to UTF-8 in chunks of fixed size straight into the digest,
+	 * so statements of any size are hashed without a full-size temporary buffer.
+	 *
+	 * @param sqlText SQL statement text
+	 * @return 64-bit SQL_ID value
+	 * @throws DigestException
+	 */
+	long sqlId(final CharSequence sqlText) throws DigestException {
+		updateUtf8(sqlText);
+		md.update(NULL_CHAR_BYTE);
+		md.digest(md5, 0, MD5_LENGTH);
+		return ((long) littleEndianInt(md5, 8) << 32) | (littleEndianInt(md5, 12) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Computes lower 64 bits of MD5 digest of UTF-8 representation of the text
+	 * without null terminator in SQL_ID order. Applied to the normalized SQL text
+	 * this gives Oracle exact or force matching signature.
+	 *
+	 * @param normalizedText normalized SQL statement text
+	 * @return 64-bit signature value
+	 * @throws DigestException
+	 */
+	long signature(final CharSequence normalizedText) throws DigestException {
+		updateUtf8(normalizedText);
+		md.digest(md5, 0, MD5_LENGTH);
+		return ((long) littleEndianInt(md5, 8) << 32) | (littleEndianInt(md5, 12) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Encodes 64-bit SQL_ID value using per-thread character buffer
+	 *
+	 * @param value 64-bit SQL_ID value
+	 * @return 13 character Oracle SQL_ID
+	 */
+	String sqlIdText(final long value) {
+		return sqlIdText(value, sqlId);
+	}
+
+	/**
+	 * Encodes 64-bit SQL_ID value using Oracle SQL_ID alphabet:
+	 * first character from the upper 4 bits and remaining 12 characters from 5-bit groups
+	 *
+	 * @param value 64-bit SQL_ID value
+	 * @param chars buffer for at least 13 characters
+	 * @return 13 character Oracle SQL_ID
+	 */
+	static String sqlIdText(final long value, final char[] chars) {
+		chars[0] = ORA_SQL_ID_ALPHABET[(int) (value >>> 60)];
+		for (int i = 1; i < SQL_ID_LENGTH; i++) {
+			chars[i] = ORA_SQL_ID_ALPHABET[(int) (value >>> (60 - 5 * i)) & 0x1F];
+		}
+		return new String(chars, 0, SQL_ID_LENGTH);
+	}
+
+	/**
+	 * Decodes 13 character Oracle SQL_ID to 64-bit value
+	 *
+	 * @param sqlId 13 character Oracle SQL_ID
+	 * @return 64-bit SQL_ID value
+	 * @throws IllegalArgumentException if sqlId is not a valid Oracle SQL_ID
+	 */
+	static long sqlIdValue(final CharSequence sqlId) {
+		if (sqlId.length() != SQL_ID_LENGTH) {
+			throw new IllegalArgumentException(
+					String.format("SQL_ID '%s' must be %d characters long!", sqlId, SQL_ID_LENGTH));
+		}
+		long value = 0;
+		for (int i = 0; i < SQL_ID_LENGTH; i++) {
+			final char c = sqlId.charAt(i);
+			final int digit = c < ALPHABET_INDEX.length ? ALPHABET_INDEX[c] : -1;
+			if (digit < 0 || (i == 0 && digit > 0xF)) {
+				throw new IllegalArgumentException(
+						String.format("Invalid character '%c' in SQL_ID '%s'!", c, sqlId));
+			}
+			value = (value << (i == 0 ? 4 : 5)) | digit;
+		}
+		return value;
+	}
+
+	private static int littleEndianInt(final byte[] b, final int offset) {
+		return (b[offset] & 0xFF) |
+				((b[offset + 1] & 0xFF) << 8) |
+				((b[offset + 2] & 0xFF) << 16) |
+				((b[offset + 3] & 0xFF) << 24);
+	}
+
+	/**
+	 * Encodes characters to UTF-8 exactly as String.getBytes("UTF-8") does,
+	 * i.e. unpaired surrogates are replaced with '?', and passes encoded bytes
+	 * to the digest chunk by chunk
+	 *
+	 * @param text   source
+	 */
+	private void updateUtf8(final CharSequence text) {
+		final int length = text.length();
+		final byte[] bytes = buffer;
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			if (pos > CHUNK_SIZE - 4) {
+				md.update(bytes, 0, pos);
+				pos = 0;
+			}
+			final char c = text.charAt(i);
+			if (c < 0x80) {
+				bytes[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[pos++] = (byte) (0xC0 | (c >> 6));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+					final int cp = Character.toCodePoint(c, text.charAt(++i));
+					bytes[pos++] = (byte) (0xF0 | (cp >> 18));
+					bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					bytes[pos++] = (byte) (0x80 | (cp & 0x3F));
+				} else {
+					bytes[pos++] = '?';
+				}
+			} else {
+				bytes[pos++] = (byte) (0xE0 | (c >> 12));
+				bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		if (pos > 0) {
+			md.update(bytes, 0, pos);
+		}
+	}
+
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.security.DigestException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * Per-thread single-pass SQL text normalizer used to compute Oracle exact matching
+ * and force matching signatures (V$SQL.EXACT_MATCHING_SIGNATURE and V$SQL.FORCE_MATCHING_SIGNATURE).
+ * Normalization collapses runs of white space into single space, removes leading and
+ * trailing white space, and converts to upper case everything outside of literals,
+ * quoted identifiers and comments. For force matching each string and numeric literal is
+ * replaced with system generated bind :"SYS_B_n", unless the statement already contains
+ * bind variables, in which case, as in Oracle, no literal substitution is done.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxySqlNormalizer {
+
+	private static final String SYS_BIND_PREFIX = ":\"SYS_B_";
+	private static final int INITIAL_CAPACITY = 0x400;
+	// Do not keep per-thread buffers larger than this
+	private static final int MAX_RETAINED_CAPACITY = 0x10000;
+	private static final int LITERAL_FIELDS = 4;
+
+	private static final ThreadLocal<OraProxySqlNormalizer> NORMALIZER = new ThreadLocal<>();
+
+	private final OraProxySqlIdEngine engine;
+	private StringBuilder exact = new StringBuilder(INITIAL_CAPACITY);
+	private StringBuilder force = new StringBuilder(INITIAL_CAPACITY);
+	// For each literal: start and end in source, start and end in normalized text
+	private int[] literals = new int[LITERAL_FIELDS * 16];
+	private int literalCount;
+	private boolean binds;
+
+	private OraProxySqlNormalizer() throws NoSuchAlgorithmException {
+		engine = OraProxySqlIdEngine.get();
+	}
+
+	/**
+	 * Returns normalizer instance bound to the current thread
+	 *
+	 * @return normalizer instance
+	 * @throws NoSuchAlgorithmException
+	 */
+	static OraProxySqlNormalizer get() throws NoSuchAlgorithmException {
+		OraProxySqlNormalizer normalizer = NORMALIZER.get();
+		if (normalizer == null) {
+			normalizer = new OraProxySqlNormalizer();
+			NORMALIZER.set(normalizer);
+		}
+		return normalizer;
+	}
+
+	/**
+	 * Computes Oracle exact matching signature
+	 *
+	 * @param sqlText SQL statement text
+	 * @return 64-bit exact matching signature
+	 * @throws DigestException
+	 */
+	long exactMatchingSignature(final CharSequence sqlText) throws DigestException {
+		return engine.signature(normalize(sqlText, false));
+	}
+
+	/**
+	 * Computes Oracle force matching signature. After the call literal positions
+	 * of the statement are available for {@link #bindLiterals(CharSequence, String)}
+	 *
+	 * @param sqlText SQL statement text
+	 * @return 64-bit force matching signature
+	 * @throws DigestException
+	 */
+	long forceMatchingSignature(final CharSequence sqlText) throws DigestException {
+		return engine.signature(normalize(sqlText, true));
+	}
+
+	/**
+	 * Returns number of literals found in the last normalized statement
+	 *
+	 * @return number of literals
+	 */
+	int literalCount() {
+		return literalCount;
+	}
+
+	/**
+	 * Returns true if the last normalized statement contains bind variables
+	 *
+	 * @return true if bind variables are present
+	 */
+	boolean hasBinds() {
+		return binds;
+	}
+
+	/**
+	 * Substitutes system generated binds :"SYS_B_n" in translation with the literals
+	 * of the last statement passed to {@link #forceMatchingSignature(CharSequence)}
+	 *
+	 * @param sqlText      source SQL statement, the same as passed for signature computation
+	 * @param translation  translation found using force matching signature
+	 * @return translation with literal values of source SQL statement
+	 */
+	String bindLiterals(final CharSequence sqlText, final String translation) {
+		int pos = translation.indexOf(SYS_BIND_PREFIX);
+		if (pos < 0 || binds) {
+			return translation;
+		}
+		final StringBuilder sb = new StringBuilder(translation.length() + sqlText.length());
+		int copied = 0;
+		while (pos > -1) {
+			int end = pos + SYS_BIND_PREFIX.length();
+			int index = 0;
+			boolean digits = false;
+			while (end < translation.length() && Character.isDigit(translation.charAt(end))) {
+				index = index * 10 + (translation.charAt(end++) - '0');
+				digits = true;
+			}
+			if (digits && end < translation.length() && translation.charAt(end) == '"' && index < literalCount) {
+				final int literal = index * LITERAL_FIELDS;
+				sb
+					.append(translation, copied, pos)
+					.append(sqlText, literals[literal], literals[literal + 1]);
+				copied = end + 1;
+			}
+			pos = translation.indexOf(SYS_BIND_PREFIX, end);
+		}
+		return sb
+				.append(translation, copied, translation.length())
+				.toString();
+	}
+
+	/**
+	 * Normalizes SQL text
+	 *
+	 * @param sqlText  SQL statement text
+	 * @param forceMatching when true literals are replaced with system generated binds
+	 * @return normalized text, valid until the next call
+	 */
+	CharSequence normalize(final CharSequence sqlText, final boolean forceMatching) {
+		if (exact.capacity() > MAX_RETAINED_CAPACITY) {
+			exact = new StringBuilder(INITIAL_CAPACITY);
+		}
+		exact.setLength(0);
+		literalCount = 0;
+		binds = false;
+		final StringBuilder sb = exact;
+		final int length = sqlText.length();
+		boolean pendingSpace = false;
+		int i = 0;
+		while (i < length) {
+			final char c = sqlText.charAt(i);
+			final char next = i + 1 < length ? sqlText.charAt(i + 1) : 0;
+			if (isWhiteSpace(c)) {
+				pendingSpace = sb.length() > 0;
+				i++;
+				continue;
+			}
+			if (pendingSpace) {
+				sb.append(' ');
+				pendingSpace = false;
+			}
+			if (c == '-' && next == '-') {
+				// Single line comment, the line end is white space
+				final int start = i;
+				while (i < length && sqlText.charAt(i) != '\n') {
+					i++;
+				}
+				sb.append(sqlText, start, i);
+			} else if (c == '/' && next == '*') {
+				final int start = i;
+				i += 2;
+				while (i < length && !(sqlText.charAt(i) == '*' && i + 1 < length && sqlText.charAt(i + 1) == '/')) {
+					i++;
+				}
+				i = Math.min(i + 2, length);
+				sb.append(sqlText, start, i);
+			} else if (c == '\'') {
+				i = literal(sqlText, i, i, sb);
+			} else if ((c == 'q' || c == 'Q') && next == '\'') {
+				i = literal(sqlText, i, i + 1, sb);
+			} else if ((c == 'n' || c == 'N') && next == '\'') {
+				i = literal(sqlText, i, i + 1, sb);
+			} else if ((c == 'n' || c == 'N') && (next == 'q' || next == 'Q') &&
+					i + 2 < length && sqlText.charAt(i + 2) == '\'') {
+				i = literal(sqlText, i, i + 2, sb);
+			} else if (c == '"') {
+				i = quoted(sqlText, i, sb);
+			} else if (c == ':' && (isIdentifierPart(next) || next == '"')) {
+				binds = true;
+				sb.append(c);
+				i++;
+				if (next == '"') {
+					i = quoted(sqlText, i, sb);
+				} else {
+					i = identifier(sqlText, i, sb);
+				}
+			} else if (c == '?') {
+				// JDBC parameter marker
+				binds = true;
+				sb.append(c);
+				i++;
+			} else if (isDigit(c) || (c == '.' && isDigit(next))) {
+				i = number(sqlText, i, sb);
+			} else if (isIdentifierPart(c)) {
+				i = identifier(sqlText, i, sb);
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		if (!forceMatching || literalCount == 0 || binds) {
+			return sb;
+		}
+		if (force.capacity() > MAX_RETAINED_CAPACITY) {
+			force = new StringBuilder(INITIAL_CAPACITY);
+		}
+		force.setLength(0);
+		int copied = 0;
+		for (int literal = 0; literal < literalCount; literal++) {
+			final int index = literal * LITERAL_FIELDS;
+			force
+				.append(sb, copied, literals[index + 2])
+				.append(SYS_BIND_PREFIX)
+				.append(literal)
+				.append('"');
+			copied = literals[index + 3];
+		}
+		return force.append(sb, copied, sb.length());
+	}
+
+	/**
+	 * Copies string literal, including N/Q prefix and q-quote delimiters, and registers it
+	 *
+	 * @return position after the literal
+	 */
+	private int literal(final CharSequence sqlText, final int start, final int quotePos, final StringBuilder sb) {
+		final int length = sqlText.length();
+		int i = quotePos + 1;
+		final char prefix = sqlText.charAt(quotePos - (quotePos > start ? 1 : 0));
+		if (quotePos > start && (prefix == 'q' || prefix == 'Q')) {
+			// q'<delimiter>text<delimiter>'
+			if (i < length) {
+				final char open = sqlText.charAt(i);
+				final char close;
+				switch (open) {
+				case '[': close = ']'; break;
+				case '{': close = '}'; break;
+				case '<': close = '>'; break;
+				case '(': close = ')'; break;
+				default: close = open;
+				}
+				i++;
+				while (i < length && !(sqlText.charAt(i) == close && i + 1 < length && sqlText.charAt(i + 1) == '\'')) {
+					i++;
+				}
+				i = Math.min(i + 2, length);
+			}
+		} else {
+			while (i < length) {
+				if (sqlText.charAt(i) == '\'') {
+					if (i + 1 < length && sqlText.charAt(i + 1) == '\'') {
+						i += 2;
+					} else {
+						i++;
+						break;
+					}
+				} else {
+					i++;
+				}
+			}
+		}
+		addLiteral(start, i, sb.length(), sb.length() + (i - start));
+		sb.append(sqlText, start, i);
+		return i;
+	}
+
+	/**
+	 * Copies numeric literal (integer, decimal, exponent and binary float/double suffix) and registers it
+	 *
+	 * @return position after the literal
+	 */
+	private int number(final CharSequence sqlText, final int start, final StringBuilder sb) {
+		final int length = sqlText.length();
+		int i = start;
+		while (i < length && isDigit(sqlText.charAt(i))) {
+			i++;
+		}
+		if (i < length && sqlText.charAt(i) == '.' && !(i + 1 < length && sqlText.charAt(i + 1) == '.')) {
+			// Do not consume range operator '..' of PL/SQL loops
+			i++;
+			while (i < length && isDigit(sqlText.charAt(i))) {
+				i++;
+			}
+		}
+		if (i < length && (sqlText.charAt(i) == 'e' || sqlText.charAt(i) == 'E')) {
+			int exp = i + 1;
+			if (exp < length && (sqlText.charAt(exp) == '+' || sqlText.charAt(exp) == '-')) {
+				exp++;
+			}
+			if (exp < length && isDigit(sqlText.charAt(exp))) {
+				i = exp;
+				while (i < length && isDigit(sqlText.charAt(i))) {
+					i++;
+				}
+			}
+		}
+		if (i < length) {
+			final char suffix = sqlText.charAt(i);
+			if ((suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D') &&
+					!(i + 1 < length && isIdentifierPart(sqlText.charAt(i + 1)))) {
+				i++;
+			}
+		}
+		addLiteral(start, i, sb.length(), sb.length() + (i - start));
+		for (int pos = start; pos < i; pos++) {
+			sb.append(Character.toUpperCase(sqlText.charAt(pos)));
+		}
+		return i;
+	}
+
+	private static int quoted(final CharSequence sqlText, final int start, final StringBuilder sb) {
+		final int length = sqlText.length();
+		int i = start + 1;
+		while (i < length && sqlText.charAt(i) != '"') {
+			i++;
+		}
+		i = Math.min(i + 1, length);
+		sb.append(sqlText, start, i);
+		return i;
+	}
+
+	private static int identifier(final CharSequence sqlText, final int start, final StringBuilder sb) {
+		final int length = sqlText.length();
+		int i = start;
+		char c;
+		while (i < length && isIdentifierPart(c = sqlText.charAt(i))) {
+			sb.append(Character.toUpperCase(c));
+			i++;
+		}
+		return i;
+	}
+
+	private void addLiteral(final int sourceStart, final int sourceEnd, final int normalizedStart, final int normalizedEnd) {
+		final int index = literalCount * LITERAL_FIELDS;
+		if (index + LITERAL_FIELDS > literals.length) {
+			final int[] expanded = new int[literals.length << 1];
+			System.arraycopy(literals, 0, expanded, 0, literals.length);
+			literals = expanded;
+		}
+		literals[index] = sourceStart;
+		literals[index + 1] = sourceEnd;
+		literals[index + 2] = normalizedStart;
+		literals[index + 3] = normalizedEnd;
+		literalCount++;
+	}
+
+	private static boolean isWhiteSpace(final char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierPart(final char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || isDigit(c) ||
+				c == '_' || c == '$' || c == '#' || (c > 0x7F && Character.isLetterOrDigit(c));
+	}
+
+}
@@ -13,40 +13,412 @@
 
 package solutions.a2.oracle.jdbc;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestException;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * 
- * SQL translation engine
+ * SQL translation engine. Translator over the mapping files and caches of translation
+ * results are held by one immutable object, which is replaced with a single volatile write
+ * when the mapping is reloaded, so translations never block and never see partly loaded
+ * mapping or caches of the previous mapping. Delta files are applied over translator
+ * of the mapping with {@link OraProxySqlTranslatorDelta} without reload of the mapping.
  * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
  * 
  */
 public class OraProxySqlTranslator {
 
-	private static OraProxySqlTranslator instance;
-	private final OraProxyTranslatorIntf translator;
+	private final static Logger LOGGER = Logger.getLogger(OraProxySqlTranslator.class.getName());
 
-	private OraProxySqlTranslator(final boolean yamlStore, final String mappingFileUrl) throws SQLException {
+	private static volatile OraProxySqlTranslator instance;
+	private final OraProxyConfig config;
+	private final String mappingFileUrl;
+	private final String fileType;
+	private final String yamlStoreType;
+	private final boolean yamlStore;
+	private final boolean yamlSnapshot;
+	private final int loadParallelism;
+	private final boolean forceMatching;
+	private final int identityCacheSize;
+	private final long textCacheBytes;
+	private final long hotMaxBytes;
+	private final URL remoteUrl;
+	private final OraProxyS3Source s3Source;
+	private final OraProxyHttpSource httpSource;
+	private final URL deltaUrl;
+	private final long closeDelay;
+	private volatile Mapping mapping;
+	// Size and modification time of mapping files, guarded by this
+	private String stamp;
+	// Stamps of mapping and delta files at the previous check, guarded by this
+	private String polled;
+	// Translator of the mapping without deltas, guarded by this
+	private OraProxyTranslatorIntf base;
+	// Translator with applied delta files and their stamps in order, guarded by this
+	private OraProxySqlTranslatorDelta delta;
+	private List<String> deltaStamps = Collections.emptyList();
+	// Opened Chronicle Map files by URL, guarded by this
+	private Map<String, OraProxySqlTranslatorChronicle> chronicles = Collections.emptyMap();
+	// CRC32 of YAML files of the mapping, delta files made for others are skipped, guarded by this
+	private Set<String> bases = Collections.emptySet();
+	// Watches mapping files and closes replaced mappings, guarded by this
+	private ScheduledExecutorService executor;
+
+	OraProxySqlTranslator(final Properties props) throws SQLException {
+		config = new OraProxyConfig(props);
+		mappingFileUrl = config.getString(OraProxyDriver.A2_MAPPING_FILE_URL, null);
+		if (mappingFileUrl == null) {
+			throw new SQLException("The '" + OraProxyDriver.A2_MAPPING_FILE_URL + "' parameter must be set!");
+		}
+		fileType = config.getChoice(OraProxyDriver.A2_MAPPING_FILE_TYPE, "yaml", "yaml", "chronicle", "bin");
+		yamlStore = "yaml".equals(fileType);
+		yamlStoreType =
+				config.getChoice(OraProxyDriver.A2_MAPPING_YAML_STORE, "map", "map", "compact", "compressed", "lazy");
+		loadParallelism = config.getInt(OraProxyDriver.A2_MAPPING_LOAD_PARALLELISM,
+				Runtime.getRuntime().availableProcessors());
+		yamlSnapshot = config.getBoolean(OraProxyDriver.A2_MAPPING_YAML_SNAPSHOT, false);
+		forceMatching = config.getBoolean(OraProxyDriver.A2_MAPPING_FORCE_MATCHING, false);
+		identityCacheSize = config.getInt(OraProxyDriver.A2_CACHE_IDENTITY_SIZE, 0);
+		textCacheBytes = config.getLong(OraProxyDriver.A2_CACHE_TEXT_MAX_BYTES, 0);
+		hotMaxBytes = config.getLong(OraProxyDriver.A2_MAPPING_HOT_MAX_BYTES, 0);
 		if (mappingFileUrl.startsWith("s3:")) {
-			//TODO
-			//TODO
-			//TODO
-			throw new SQLException("S3 support not implemented yet!");
+			// Object is cached on local disk and read as local file
+			s3Source = new OraProxyS3Source(config, loadParallelism);
+			httpSource = null;
+			remoteUrl = null;
 		} else {
-			final URL url;
+			s3Source = null;
 			try {
-				url = new URL(mappingFileUrl);
+				remoteUrl = new URL(mappingFileUrl);
 			} catch (MalformedURLException mfe) {
 				throw new SQLException(
 						String.format("Malformed URL '%s'", mappingFileUrl), mfe);
 			}
-			if (yamlStore) {
-				translator = new OraProxySqlTranslatorMap(url);
+			if ("http".equals(remoteUrl.getProtocol()) || "https".equals(remoteUrl.getProtocol())) {
+				// File is cached on local disk and revalidated with conditional GET
+				httpSource = new OraProxyHttpSource(config);
+			} else {
+				httpSource = null;
+			}
+		}
+		final String deltaFileUrl = config.getString(OraProxyDriver.A2_MAPPING_DELTA_URL, null);
+		try {
+			deltaUrl = deltaFileUrl == null ? null : new URL(deltaFileUrl);
+		} catch (MalformedURLException mfe) {
+			throw new SQLException(
+					String.format("Malformed URL '%s'", deltaFileUrl), mfe);
+		}
+		closeDelay = config.getLong(OraProxyDriver.A2_MAPPING_CLOSE_DELAY_MS, 60_000);
+		reload();
+		final long reloadInterval = config.getLong(OraProxyDriver.A2_MAPPING_RELOAD_INTERVAL_MS, 0);
+		if (reloadInterval > 0) {
+			executor().scheduleWithFixedDelay(() -> {
+				try {
+					reload(true);
+				} catch (SQLException | RuntimeException e) {
+					// Exception would cancel next checks
+					LOGGER.log(Level.WARNING, "Unable to reload mapping ''{0}'', previous mapping is used: {1}",
+							new Object[] {mappingFileUrl, e.getMessage()});
+				}
+			}, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Loads the mapping again when size or modification time of any mapping file or of
+	 * its '.prefilter', '.dict' and '.base' files, or the set of files of directory or glob pattern
+	 * are changed. The background check loads changed files only when they are not
+	 * changed since its previous check. Remote file is revalidated first. The new
+	 * mapping is loaded while the previous one serves translations, and then replaces
+	 * it together with all caches. When the new mapping
+	 * can not be loaded, the previous one is kept and the same files are not loaded again.
+	 * Local files of 'chronicle' and 'bin' types are memory mapped, so they must be
+	 * replaced by rename, not overwritten. Chronicle Map file is checked by size and
+	 * identity of the file instead of modification time, and the map file which is
+	 * not replaced is not opened again when only its '.prefilter' or '.dict' file is
+	 * changed. The previous mapping is closed after 'a2.mapping.close.delay.ms'.
+	 * When only delta files are added, they are applied over the current mapping, when
+	 * applied delta file is changed or removed, all delta files are applied again.
+	 * Delta files made by 'yaml2delta' for another mapping are not applied, so applied
+	 * delta files depend only on the files, not on the history of reloads.
+	 * 
+	 * @return true when the mapping is reloaded or delta files are applied
+	 * @throws SQLException
+	 */
+	public boolean reload() throws SQLException {
+		return reload(false);
+	}
+
+	/**
+	 * 
+	 * @param stable when true, changed files are loaded only when they are not changed
+	 *               since the previous check, so files which are still written or copied
+	 *               in place are not loaded
+	 */
+	synchronized boolean reload(final boolean stable) throws SQLException {
+		final URL url;
+		if (s3Source != null) {
+			url = s3Source.fetch(mappingFileUrl);
+		} else if (httpSource != null) {
+			url = httpSource.fetch(remoteUrl);
+		} else {
+			url = remoteUrl;
+		}
+		final List<URL> urls = OraProxyMappingFiles.list(url, fileType);
+		final String current = stamp(urls, "chronicle".equals(fileType));
+		final List<URL> deltas = deltaUrl == null
+				? Collections.<URL>emptyList()
+				: OraProxyMappingFiles.list(deltaUrl, "delta", false);
+		final String previous = polled;
+		polled = current + stamp(deltas);
+		if (stable && !polled.equals(previous)) {
+			return false;
+		}
+		if (current.equals(stamp)) {
+			if (!applyDeltas(deltas)) {
+				return false;
+			}
+			publish();
+			return true;
+		}
+		final boolean initial = stamp == null;
+		stamp = current;
+		final long started = System.currentTimeMillis();
+		final OraProxyTranslatorIntf store;
+		if (yamlStore && !yamlSnapshot && !"lazy".equals(yamlStoreType)) {
+			// Entries of all files of directory or glob pattern are merged into one store
+			if ("map".equals(yamlStoreType)) {
+				store = new OraProxySqlTranslatorMap(url, loadParallelism);
+			} else {
+				store = new OraProxySqlTranslatorCompact(url, "compressed".equals(yamlStoreType), loadParallelism);
+			}
+		} else if ("chronicle".equals(fileType)) {
+			// Map file which is not replaced is not opened again, only its changed
+			// '.dict' and '.prefilter' files are read again
+			final Map<String, OraProxySqlTranslatorChronicle> mapped = chronicles;
+			final Map<String, OraProxySqlTranslatorChronicle> opened = new ConcurrentHashMap<>();
+			store = OraProxyMappingFiles.open(urls, loadParallelism, fileUrl -> {
+				final OraProxySqlTranslatorChronicle reused = mapped.get(fileUrl.toString());
+				final OraProxySqlTranslatorChronicle translator;
+				if (reused != null && reused.isCurrent()) {
+					reused.refresh();
+					translator = reused.retain();
+				} else {
+					translator = new OraProxySqlTranslatorChronicle(fileUrl, config);
+				}
+				opened.put(fileUrl.toString(), translator);
+				return translator;
+			});
+			chronicles = opened;
+			// Chronicle Map may extend the file on open
+			stamp = stamp(urls, true);
+			polled = stamp + stamp(deltas);
+		} else {
+			final int fileParallelism = urls.size() > 1 ? 1 : loadParallelism;
+			store = OraProxyMappingFiles.open(urls, loadParallelism,
+					fileUrl -> open(fileUrl, config, fileType, yamlStoreType, yamlSnapshot, fileParallelism));
+		}
+		final OraProxyTranslatorIntf replaced = base;
+		base = hotMaxBytes > 0 ? new OraProxySqlTranslatorTiered(store, hotMaxBytes) : store;
+		bases = deltaUrl == null ? Collections.<String>emptySet() : bases(urls, yamlStore);
+		delta = null;
+		deltaStamps = Collections.emptyList();
+		applyDeltas(deltas);
+		publish();
+		if (replaced != null) {
+			close(replaced);
+		}
+		if (!initial) {
+			LOGGER.log(Level.INFO, "Mapping ''{0}'' reloaded in {1} ms.",
+					new Object[] {mappingFileUrl, System.currentTimeMillis() - started});
+		}
+		return true;
+	}
+
+	/**
+	 * Applies delta files which are not applied yet over the mapping, delta files
+	 * made for another mapping are skipped
+	 * 
+	 * @param files all delta files in order
+	 * @return true when the set of applied delta files is changed
+	 */
+	private boolean applyDeltas(final List<URL> files) {
+		final List<URL> deltas = new ArrayList<>(files.size());
+		final List<String> stamps = new ArrayList<>(files.size());
+		final List<URL> skipped = new ArrayList<>();
+		for (final URL deltaFile : files) {
+			final String deltaBase = OraProxySqlTranslatorDelta.base(deltaFile);
+			if (deltaBase == null || bases.contains(deltaBase)) {
+				deltas.add(deltaFile);
+				stamps.add(stamp(Collections.singletonList(deltaFile)));
 			} else {
-				translator = new OraProxySqlTranslatorChronicle(url);
+				skipped.add(deltaFile);
+			}
+		}
+		int applied = deltaStamps.size();
+		if (stamps.size() < applied || !stamps.subList(0, applied).equals(deltaStamps)) {
+			// Applied delta file is changed or removed
+			delta = null;
+			applied = 0;
+		} else if (stamps.size() == applied) {
+			return false;
+		}
+		for (final URL deltaFile : skipped) {
+			LOGGER.log(Level.INFO, "Delta file ''{0}'' is made for another mapping and is not applied.", deltaFile);
+		}
+		deltaStamps = stamps;
+		if (applied < deltas.size()) {
+			delta = (delta == null ? new OraProxySqlTranslatorDelta(base) : delta)
+					.apply(deltas.subList(applied, deltas.size()));
+		}
+		return true;
+	}
+
+	/**
+	 * Publishes translator with new caches, hot tier is a part of the mapping
+	 * and is kept when only delta files are applied
+	 */
+	private void publish() {
+		mapping = new Mapping(
+				delta == null ? base : delta,
+				identityCacheSize > 0 ? new OraProxyIdentityCache(identityCacheSize) : null,
+				textCacheBytes > 0 ? new OraProxyTranslationCache(textCacheBytes) : null);
+	}
+
+	/**
+	 * Closes replaced mapping after 'a2.mapping.close.delay.ms', translations which read
+	 * it before the publication of the new mapping complete during the delay
+	 */
+	private void close(final OraProxyTranslatorIntf replaced) {
+		executor().schedule(() -> {
+			try {
+				replaced.close();
+			} catch (RuntimeException re) {
+				LOGGER.log(Level.WARNING, "Unable to close previous mapping ''{0}'': {1}",
+						new Object[] {mappingFileUrl, re.getMessage()});
 			}
+		}, closeDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized ScheduledExecutorService executor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "OraProxyMappingWatcher");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	private static String stamp(final List<URL> urls) {
+		return stamp(urls, false);
+	}
+
+	/**
+	 * Returns CRC32 of YAML files the mapping is made of: CRC32 of YAML mapping file
+	 * and CRC32 from the '.base' file written next to the file converted from YAML
+	 */
+	private static Set<String> bases(final List<URL> urls, final boolean yaml) {
+		final Set<String> bases = new HashSet<>();
+		for (final URL url : urls) {
+			if (!"file".equals(url.getProtocol())) {
+				continue;
+			}
+			final File file = new File(url.getFile());
+			final File baseFile = new File(url.getFile() + OraProxySqlTranslatorDelta.BASE_SUFFIX);
+			try {
+				if (yaml) {
+					bases.add(OraProxySqlTranslatorDelta.base(OraProxyUtils.crc32(file)));
+				}
+				if (baseFile.exists()) {
+					bases.add(new String(Files.readAllBytes(baseFile.toPath()), StandardCharsets.US_ASCII).trim());
+				}
+			} catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, "Unable to read CRC32 of mapping file ''{0}'': {1}",
+						new Object[] {file.getAbsolutePath(), ioe.getMessage()});
+			}
+		}
+		return bases;
+	}
+
+	/**
+	 * Returns size and modification time of files and of their sidecar files. Chronicle Map
+	 * changes modification time of its file with lookups, so size and identity of the file,
+	 * which is changed by rename of another file over it, are used instead
+	 */
+	private static String stamp(final List<URL> urls, final boolean chronicle) {
+		final StringBuilder sb = new StringBuilder(urls.size() * 64);
+		for (final URL url : urls) {
+			sb.append(url);
+			if ("file".equals(url.getProtocol())) {
+				final File file = new File(url.getFile());
+				if (chronicle) {
+					sb
+						.append(' ')
+						.append(file.length())
+						.append(' ')
+						.append(OraProxySqlTranslatorChronicle.fileKey(file));
+				} else {
+					stamp(sb, file);
+				}
+				for (final String suffix : OraProxyMappingCache.SIDECAR_SUFFIXES) {
+					stamp(sb, new File(url.getFile() + suffix));
+				}
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void stamp(final StringBuilder sb, final File file) {
+		sb
+			.append(' ')
+			.append(file.length())
+			.append(' ')
+			.append(file.lastModified());
+	}
+
+	/**
+	 * Opens translator over one mapping file
+	 */
+	private static OraProxyTranslatorIntf open(final URL url, final OraProxyConfig config, final String fileType,
+			final String yamlStoreType, final boolean yamlSnapshot, final int loadParallelism) throws SQLException {
+		if ("bin".equals(fileType)) {
+			return new OraProxySqlTranslatorBin(url);
+		}
+		if (yamlSnapshot && "file".equals(url.getProtocol())) {
+			final OraProxyTranslatorIntf snapshot = OraProxyYamlSnapshot.translator(new File(url.getFile()), loadParallelism);
+			if (snapshot != null) {
+				return snapshot;
+			}
+		}
+		if ("lazy".equals(yamlStoreType)) {
+			return new OraProxySqlTranslatorLazy(url, config);
+		} else if ("map".equals(yamlStoreType)) {
+			return new OraProxySqlTranslatorMap(url, loadParallelism);
+		} else {
+			return new OraProxySqlTranslatorCompact(url, "compressed".equals(yamlStoreType), loadParallelism);
 		}
 	}
 
@@ -65,9 +437,25 @@ public class OraProxySqlTranslator {
 	 * @throws SQLException 
 	 */
 	public static OraProxySqlTranslator getInstance(final boolean yamlStore, final String fileUrl) throws SQLException {
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, fileUrl);
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_TYPE, yamlStore ? "yaml" : "chronicle");
+		return getInstance(props);
+	}
+
+	/**
+	 * Returns SQL Translation instance
+	 * 
+	 * @param props Oracle JDBC Proxy parameters, see constants in {@link OraProxyDriver}
+	 * @return OraProxySqlTranslator instance
+	 * @throws SQLException 
+	 */
+	public static OraProxySqlTranslator getInstance(final Properties props) throws SQLException {
 		if (instance == null) {
 			synchronized (OraProxySqlTranslator.class) {
-				instance = new OraProxySqlTranslator(yamlStore, fileUrl);
+				if (instance == null) {
+					instance = new OraProxySqlTranslator(props);
+				}
 			}
 		}
 		return instance;
@@ -81,7 +469,84 @@ public class OraProxySqlTranslator {
 	 * @throws SQLException 
 	 */
 	public String translate(final String source) throws SQLException {
-		return translator.translate(source);
+		// The same mapping for the whole call
+		final Mapping mapping = this.mapping;
+		final OraProxyIdentityCache identityCache = mapping.identityCache;
+		if (identityCache == null) {
+			return translateCached(mapping, source);
+		}
+		String translated = identityCache.get(source);
+		if (translated == null) {
+			translated = translateCached(mapping, source);
+			identityCache.put(source, translated);
+		}
+		return translated;
+	}
+
+	/**
+	 * Returns the number of translations served from the text-keyed cache since the
+	 * mapping is loaded
+	 * 
+	 * @return number of cache hits, 0 if cache is not used
+	 */
+	public long getCacheHits() {
+		final OraProxyTranslationCache textCache = mapping.textCache;
+		return textCache == null ? 0 : textCache.hits();
+	}
+
+	/**
+	 * Returns the number of translations not found in the text-keyed cache since the
+	 * mapping is loaded
+	 * 
+	 * @return number of cache misses, 0 if cache is not used
+	 */
+	public long getCacheMisses() {
+		final OraProxyTranslationCache textCache = mapping.textCache;
+		return textCache == null ? 0 : textCache.misses();
+	}
+
+	private String translateCached(final Mapping mapping, final String source) throws SQLException {
+		final OraProxyTranslationCache textCache = mapping.textCache;
+		if (textCache == null) {
+			return translateUncached(mapping.translator, source);
+		}
+		String translated = textCache.get(source);
+		if (translated == null) {
+			translated = translateUncached(mapping.translator, source);
+			textCache.put(source, translated);
+		}
+		return translated;
+	}
+
+	private String translateUncached(final OraProxyTranslatorIntf translator, final String source) throws SQLException {
+		final String translated = translator.translate(source);
+		if (forceMatching && translated == source) {
+			try {
+				final OraProxySqlNormalizer normalizer = OraProxySqlNormalizer.get();
+				final String forced = translator.translateSignature(normalizer.forceMatchingSignature(source));
+				return forced == null ? source : normalizer.bindLiterals(source, forced);
+			} catch (NoSuchAlgorithmException | DigestException e) {
+				throw new SQLException(String.format(
+						"Unable to init crypto while calculating FORCE_MATCHING_SIGNATURE for '%s'.", source), e);
+			}
+		}
+		return translated;
+	}
+
+	/**
+	 * Translator and caches of its results, replaced together on reload
+	 */
+	private static final class Mapping {
+		private final OraProxyTranslatorIntf translator;
+		private final OraProxyIdentityCache identityCache;
+		private final OraProxyTranslationCache textCache;
+
+		Mapping(final OraProxyTranslatorIntf translator, final OraProxyIdentityCache identityCache,
+				final OraProxyTranslationCache textCache) {
+			this.translator = translator;
+			this.identityCache = identityCache;
+			this.textCache = textCache;
+		}
 	}
 
 }
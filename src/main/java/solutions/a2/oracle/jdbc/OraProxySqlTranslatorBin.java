@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.sql.SQLException;
+
+/**
+ * SQL Mapping/tranlsation implementation using memory mapped immutable binary file
+ * with minimal perfect hash index, see {@link OraProxyBinMapping}
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class OraProxySqlTranslatorBin implements OraProxyTranslatorIntf, OraProxySourceFiltered {
+
+	private final OraProxyBinMapping sqlMap;
+	private final OraProxySourceFilter sourceFilter;
+	// File and offset of source information when sourceFilter is set
+	private final File sourceInfoFile;
+	private final long sourceInfoOffset;
+
+	OraProxySqlTranslatorBin(final URL mappingFileUrl) throws SQLException {
+		if ("file".equals(mappingFileUrl.getProtocol())) {
+			final File mappingFile = new File(mappingFileUrl.getFile());
+			try {
+				sqlMap = OraProxyBinMapping.open(mappingFile);
+			} catch (IOException ioe) {
+				throw new SQLException(
+						String.format("Unable to open binary mapping file '%s'!", mappingFileUrl.getFile()),
+						ioe);
+			}
+			final File sourceInfoFile = new File(mappingFileUrl.getFile() + OraProxySourceFilter.FILE_SUFFIX);
+			if (sourceInfoFile.exists()) {
+				try {
+					sourceFilter = OraProxySourceFilter.read(sourceInfoFile).build();
+				} catch (IOException ioe) {
+					throw new SQLException(
+							String.format("Unable to read source information from file '%s'!", sourceInfoFile.getAbsolutePath()),
+							ioe);
+				}
+			} else {
+				sourceFilter = null;
+			}
+			this.sourceInfoFile = sourceFilter == null ? null : sourceInfoFile;
+			sourceInfoOffset = 0;
+		} else {
+			throw new SQLException("Only 'file' URL is currently supported for binary mapping!");
+		}
+	}
+
+	/**
+	 * 
+	 * @param sqlMap        opened binary mapping
+	 * @param sourceFilter      filter over source information, or null
+	 * @param sourceInfoFile    file with source information of sourceFilter
+	 * @param sourceInfoOffset  offset of source information in sourceInfoFile
+	 */
+	OraProxySqlTranslatorBin(final OraProxyBinMapping sqlMap, final OraProxySourceFilter sourceFilter,
+			final File sourceInfoFile, final long sourceInfoOffset) {
+		this.sqlMap = sqlMap;
+		this.sourceFilter = sourceFilter;
+		this.sourceInfoFile = sourceFilter == null ? null : sourceInfoFile;
+		this.sourceInfoOffset = sourceInfoOffset;
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 * 
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException 
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return source;
+		}
+		final String translated = sqlMap.get(OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return null;
+		}
+		return sqlMap.get(sqlId);
+	}
+
+	@Override
+	public String translateUnfiltered(final long sqlId) throws SQLException {
+		return sqlMap.get(sqlId);
+	}
+
+	@Override
+	public OraProxySourceFilter.Builder sources() throws IOException {
+		return sourceInfoFile == null ? null : OraProxySourceFilter.read(sourceInfoFile, sourceInfoOffset);
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		return sourceFilter == null || sourceFilter.mightContain(source);
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		return sqlMap.get(OraProxyUtils.SIGNATURE_SALT ^ signature);
+	}
+
+}
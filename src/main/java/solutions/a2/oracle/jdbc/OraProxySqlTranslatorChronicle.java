@@ -16,37 +16,265 @@ package solutions.a2.oracle.jdbc;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.core.values.LongValue;
+import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+import net.openhft.chronicle.values.Values;
 
 /**
- * SQL Mapping/tranlsation implementation using <a href="https://chronicle.software/">Chronicle Map</a>
+ * SQL Mapping/tranlsation implementation using <a href="https://chronicle.software/">Chronicle Map</a>.
+ * Map is keyed by 13 character SQL_ID text, or by 64-bit SQL_ID value as {@link LongValue} when
+ * created by 'OraProxyFileUtils -m yaml2cmap -l'. Layout is taken from the header of the map file.
  *
  * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
  * 
  */
-public class OraProxySqlTranslatorChronicle implements OraProxyTranslatorIntf {
+public class OraProxySqlTranslatorChronicle implements OraProxyTranslatorIntf, OraProxySourceFiltered {
 
-	private final ChronicleMap<String, String> sqlMap;
+	private final static Logger LOGGER = Logger.getLogger(OraProxySqlTranslatorChronicle.class.getName());
+	private static final long KEY_FILTER_CHECK_INTERVAL_MS = 1000;
+	private static final long WARMUP_CHUNK_SIZE = 1L << 30;
 
-	OraProxySqlTranslatorChronicle(final URL mappingFileUrl) throws SQLException {
+	// String or LongValue keys, String values, or byte[] values compressed with codec
+	private final ChronicleMap<Object, ?> sqlMap;
+	private final boolean longKeys;
+	private final ThreadLocal<LongValue> longKey;
+	private final File mapFile;
+	// Identity of the opened file, the file replaced by rename has another one
+	private final Object fileKey;
+	private final AtomicInteger references = new AtomicInteger(1);
+	private final int valueCacheCapacity;
+	private volatile Sidecars sidecars;
+	private volatile KeyFilter keyFilter;
+	private volatile long keyFilterNextCheck;
+	private final AtomicBoolean keyFilterCheck = new AtomicBoolean();
+
+	OraProxySqlTranslatorChronicle(final URL mappingFileUrl, final OraProxyConfig config) throws SQLException {
+		final int valueCacheSize = config.getInt(OraProxyDriver.A2_CHRONICLE_VALUE_CACHE_SIZE, 64);
+		if (valueCacheSize > 0) {
+			int capacity = 1;
+			while (capacity < valueCacheSize && capacity < (1 << 30)) {
+				capacity <<= 1;
+			}
+			valueCacheCapacity = capacity;
+		} else {
+			valueCacheCapacity = 0;
+		}
 		if ("file".equals(mappingFileUrl.getProtocol())) {
+			mapFile = new File(mappingFileUrl.getFile());
+			final File dictionaryFile = new File(mappingFileUrl.getFile() + OraProxyDeflateCodec.FILE_SUFFIX);
+			final boolean readOnly = "readonly".equals(
+					config.getChoice(OraProxyDriver.A2_CHRONICLE_OPEN_MODE, "recover", "recover", "readonly"));
+			if (readOnly && !mapFile.isFile()) {
+				throw new SQLException(
+						String.format("Chronicle Map file '%s' does not exist!", mapFile.getAbsolutePath()));
+			}
+			final long started = System.currentTimeMillis();
+			// Chronicle Map shares one open file per canonical path in the JVM, so the file
+			// replaced by rename would be opened through the file of the map still in use.
+			// The map is opened through a hard link with unique name, removed after open
+			File link = new File(mapFile.getPath() + "." + Long.toHexString(System.nanoTime()) + ".open");
+			try {
+				Files.createLink(link.toPath(), mapFile.toPath());
+			} catch (IOException | UnsupportedOperationException e) {
+				link = null;
+			}
 			try {
-				sqlMap = ChronicleMapBuilder
-							.of(String.class, String.class)
-							.createOrRecoverPersistedTo(new File(mappingFileUrl.getFile()));
+				if (dictionaryFile.exists()) {
+					sqlMap = open(ChronicleMapBuilder.of(String.class, byte[].class),
+							link == null ? mapFile : link, config, readOnly);
+				} else {
+					sqlMap = open(ChronicleMapBuilder.of(String.class, String.class),
+							link == null ? mapFile : link, config, readOnly);
+				}
+				// Missing file is created by open in 'recover' mode
+				fileKey = fileKey(link == null ? mapFile : link);
 			} catch (IOException ioe) {
 				throw new SQLException(
 						String.format("Unable to instantiate Chronicle Map from file '%s'!", mappingFileUrl.getFile()),
 						ioe);
+			} finally {
+				if (link != null && !link.delete()) {
+					link.deleteOnExit();
+				}
 			}
+			longKeys = LongValue.class.isAssignableFrom(sqlMap.keyClass());
+			longKey = longKeys ? ThreadLocal.withInitial(() -> Values.newHeapInstance(LongValue.class)) : null;
+			LOGGER.log(Level.INFO, "Chronicle Map file ''{0}'' with {1} entries opened in {2} mode in {3} ms.",
+					new Object[] {mapFile.getAbsolutePath(), sqlMap.size(), readOnly ? "readonly" : "recover",
+							System.currentTimeMillis() - started});
+			if (config.getBoolean(OraProxyDriver.A2_CHRONICLE_WARMUP, false)) {
+				warmUp();
+			}
+			try {
+				sidecars = readSidecars();
+			} catch (SQLException sqle) {
+				sqlMap.close();
+				throw sqle;
+			}
+			keyFilter = buildKeyFilter();
+			keyFilterNextCheck = System.currentTimeMillis() + KEY_FILTER_CHECK_INTERVAL_MS;
 		} else {
-			throw new SQLException("Only 'file' URL is currently supported for Chronicle Map!");
+			throw new SQLException("Only 'file', 'http', 'https' and 's3' URL are supported for Chronicle Map!");
 		}
 	}
 
+	/**
+	 * Opens Chronicle Map file. In 'readonly' mode the file is opened without recovery
+	 * pass over all segments, which is safe while the file is not written, and the map
+	 * is never modified by translator. Entries and average sizes are used only when the
+	 * file is created or its header is recovered, the existing file keeps values set at creation
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> ChronicleMap<Object, V> open(final ChronicleMapBuilder<String, V> builder,
+			final File mapFile, final OraProxyConfig config, final boolean readOnly) throws SQLException, IOException {
+		final long entries = config.getLong(OraProxyDriver.A2_CHRONICLE_ENTRIES, 0);
+		if (entries > 0) {
+			builder.entries(entries);
+		}
+		final long averageKeySize = config.getLong(OraProxyDriver.A2_CHRONICLE_AVERAGE_KEY_SIZE, 0);
+		if (averageKeySize > 0) {
+			builder.averageKeySize(averageKeySize);
+		}
+		final long averageValueSize = config.getLong(OraProxyDriver.A2_CHRONICLE_AVERAGE_VALUE_SIZE, 0);
+		if (averageValueSize > 0) {
+			builder.averageValueSize(averageValueSize);
+		}
+		// Existing file is opened with key and value classes from its header
+		final ChronicleMap<?, V> map = readOnly
+				? builder.createPersistedTo(mapFile)
+				: builder.createOrRecoverPersistedTo(mapFile);
+		return (ChronicleMap<Object, V>) map;
+	}
+
+	/**
+	 * Returns identity of the file, which is kept by rename and hard links and is different
+	 * for the file replaced by rename: the inode where available, or the creation time.
+	 * Modification time can not be used, because Chronicle Map changes it with lookups
+	 * 
+	 * @param file Chronicle Map file
+	 * @return identity of the file or null if the file can not be read
+	 */
+	static Object fileKey(final File file) {
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return attributes.fileKey() == null ? attributes.creationTime() : attributes.fileKey();
+		} catch (IOException ioe) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true while the map file is the file opened by translator, i.e. it is not
+	 * replaced by rename, the opened map is then reused instead of opening the same file again
+	 * 
+	 * @return true when the map file is not replaced
+	 */
+	boolean isCurrent() {
+		return fileKey != null && fileKey.equals(fileKey(mapFile));
+	}
+
+	/**
+	 * Adds reference to the translator shared by mappings before and after reload,
+	 * the map is closed by the close of the last reference
+	 * 
+	 * @return this translator
+	 */
+	OraProxySqlTranslatorChronicle retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Reads '.dict' and '.prefilter' files again when their size or modification time
+	 * is changed, the map itself is not opened again
+	 * 
+	 * @throws SQLException when the files can not be read, the previous ones are used
+	 */
+	void refresh() throws SQLException {
+		if (!sidecars.stamp.equals(sidecarStamp())) {
+			sidecars = readSidecars();
+			LOGGER.log(Level.INFO, "Dictionary and source information of Chronicle Map file ''{0}'' reloaded.",
+					mapFile.getAbsolutePath());
+		}
+	}
+
+	private String sidecarStamp() {
+		final File dictionaryFile = new File(mapFile.getPath() + OraProxyDeflateCodec.FILE_SUFFIX);
+		final File sourceInfoFile = new File(mapFile.getPath() + OraProxySourceFilter.FILE_SUFFIX);
+		return dictionaryFile.length() + " " + dictionaryFile.lastModified() + " " +
+				sourceInfoFile.length() + " " + sourceInfoFile.lastModified();
+	}
+
+	private Sidecars readSidecars() throws SQLException {
+		final String stamp = sidecarStamp();
+		final File dictionaryFile = new File(mapFile.getPath() + OraProxyDeflateCodec.FILE_SUFFIX);
+		final OraProxyDeflateCodec codec;
+		if (dictionaryFile.exists()) {
+			try {
+				codec = OraProxyDeflateCodec.read(dictionaryFile);
+			} catch (IOException ioe) {
+				throw new SQLException(
+						String.format("Unable to read dictionary from file '%s'!", dictionaryFile.getAbsolutePath()),
+						ioe);
+			}
+		} else {
+			codec = null;
+		}
+		if ((codec != null) != byte[].class.equals(sqlMap.valueClass())) {
+			throw new SQLException(
+					String.format("Dictionary file '%s' does not match values of Chronicle Map file '%s'!",
+							dictionaryFile.getAbsolutePath(), mapFile.getAbsolutePath()));
+		}
+		final File sourceInfoFile = new File(mapFile.getPath() + OraProxySourceFilter.FILE_SUFFIX);
+		final OraProxySourceFilter sourceFilter;
+		if (sourceInfoFile.exists()) {
+			try {
+				sourceFilter = OraProxySourceFilter.read(sourceInfoFile).build();
+			} catch (IOException ioe) {
+				throw new SQLException(
+						String.format("Unable to read source information from file '%s'!", sourceInfoFile.getAbsolutePath()),
+						ioe);
+			}
+		} else {
+			sourceFilter = null;
+		}
+		return new Sidecars(stamp, codec, sourceFilter,
+				valueCacheCapacity > 0 ? new ValueEntry[valueCacheCapacity] : null);
+	}
+
+	/**
+	 * Reads all pages of the map file into the page cache, so the first lookups do not
+	 * wait for disk. Pages are shared with the mapping of Chronicle Map.
+	 */
+	private void warmUp() {
+		final long started = System.currentTimeMillis();
+		try (FileChannel channel = FileChannel.open(mapFile.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += WARMUP_CHUNK_SIZE) {
+				channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WARMUP_CHUNK_SIZE, size - position)).load();
+			}
+			LOGGER.log(Level.INFO, "{0} bytes of Chronicle Map file ''{1}'' loaded in {2} ms.",
+					new Object[] {size, mapFile.getAbsolutePath(), System.currentTimeMillis() - started});
+		} catch (IOException ioe) {
+			LOGGER.log(Level.WARNING, "Unable to warm up Chronicle Map file ''{0}'': {1}",
+					new Object[] {mapFile.getAbsolutePath(), ioe.getMessage()});
+		}
+	}
 
 	/**
 	 * translate
@@ -58,8 +286,256 @@ public class OraProxySqlTranslatorChronicle implements OraProxyTranslatorIntf {
 	 */
 	@Override
 	public String translate(final String source) throws SQLException {
-		final String sqlId = OraProxyUtils.sql_id(source);
-		return sqlMap.getOrDefault(sqlId, source);
+		final Sidecars sidecars = this.sidecars;
+		if (sidecars.sourceFilter != null && !sidecars.sourceFilter.mightContain(source)) {
+			return source;
+		}
+		final long sqlIdValue = OraProxyUtils.sqlIdAsLong(source);
+		if (!keyFilter().mightContain(sqlIdValue)) {
+			return source;
+		}
+		final String translated = get(sidecars, sqlIdValue, key(sqlIdValue));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		final Sidecars sidecars = this.sidecars;
+		if (sidecars.sourceFilter != null && !sidecars.sourceFilter.mightContain(source)) {
+			return null;
+		}
+		if (!keyFilter().mightContain(sqlId)) {
+			return null;
+		}
+		return get(sidecars, sqlId, key(sqlId));
+	}
+
+	@Override
+	public String translateUnfiltered(final long sqlId) throws SQLException {
+		if (!keyFilter().mightContain(sqlId)) {
+			return null;
+		}
+		return get(sidecars, sqlId, key(sqlId));
+	}
+
+	@Override
+	public OraProxySourceFilter.Builder sources() throws IOException {
+		return sidecars.sourceFilter == null
+				? null
+				: OraProxySourceFilter.read(new File(mapFile.getPath() + OraProxySourceFilter.FILE_SUFFIX));
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		final OraProxySourceFilter sourceFilter = sidecars.sourceFilter;
+		return sourceFilter == null || sourceFilter.mightContain(source);
+	}
+
+	@Override
+	public void close() {
+		if (references.decrementAndGet() == 0) {
+			sqlMap.close();
+			LOGGER.log(Level.INFO, "Chronicle Map file ''{0}'' closed.", mapFile.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		if (!keyFilter().mightContainSignature(signature)) {
+			return null;
+		}
+		if (longKeys) {
+			final LongValue key = longKey.get();
+			key.setValue(OraProxyUtils.SIGNATURE_SALT ^ signature);
+			return get(sidecars, ~signature, key);
+		} else {
+			return get(sidecars, ~signature, OraProxyUtils.forceMatchingKey(signature));
+		}
+	}
+
+	/**
+	 * Returns Chronicle Map key for SQL_ID, with long keys the same LongValue
+	 * instance of the thread is reused for every lookup
+	 */
+	private Object key(final long sqlId) {
+		if (longKeys) {
+			final LongValue key = longKey.get();
+			key.setValue(sqlId);
+			return key;
+		} else {
+			return OraProxyUtils.sqlIdToString(sqlId);
+		}
+	}
+
+	/**
+	 * Returns value for the key. Recently returned values are kept on heap together
+	 * with size and hash of their serialized form, and while the off-heap entry has
+	 * the same size and hash, the cached String instance is returned without decoding
+	 * and allocation of a new String. Chronicle Map 3.x has no entry versions, so the
+	 * hash of the serialized value is used to detect the change of entry.
+	 * 
+	 * @param sidecars  codec and on-heap cache of values decoded with it
+	 * @param cacheKey  64-bit key of the on-heap cache
+	 * @param key       Chronicle Map key
+	 * @return value or null if key is not found
+	 */
+	private String get(final Sidecars sidecars, final long cacheKey, final Object key) {
+		final ValueEntry[] valueCache = sidecars.valueCache;
+		if (valueCache == null) {
+			return decode(sidecars.codec, sqlMap.get(key));
+		}
+		final int index = OraProxyLongMap.index(cacheKey, valueCache.length - 1);
+		final ValueEntry cached = valueCache[index];
+		try (ExternalMapQueryContext<Object, ?, ?> context = sqlMap.queryContext(key)) {
+			final MapEntry<Object, ?> entry = context.entry();
+			if (entry == null) {
+				return null;
+			}
+			final Data<?> value = entry.value();
+			final long size = value.size();
+			final long hash = value.hash(LongHashFunction.xx_r39());
+			if (cached != null && cached.key == cacheKey && cached.size == size && cached.hash == hash) {
+				return cached.value;
+			}
+			final String decoded = decode(sidecars.codec, value.getUsing(null));
+			valueCache[index] = new ValueEntry(cacheKey, size, hash, decoded);
+			return decoded;
+		}
+	}
+
+	private static String decode(final OraProxyDeflateCodec codec, final Object value) {
+		if (value == null || codec == null) {
+			return (String) value;
+		} else {
+			return codec.decompress((byte[]) value);
+		}
+	}
+
+	/**
+	 * Returns in-heap filter over map keys. The filter is rebuilt when size of the map file
+	 * or number of entries in the map are changed, modification time is not checked, because
+	 * it is changed by lookups. Changes are checked not more often than once per
+	 * KEY_FILTER_CHECK_INTERVAL_MS by one of translating threads, and the filter is rebuilt
+	 * by a background thread, while the current filter answers lookups.
+	 * Between checks misses are answered without touching the mapped file.
+	 * 
+	 * @return filter over map keys
+	 */
+	private KeyFilter keyFilter() {
+		final KeyFilter current = keyFilter;
+		if (System.currentTimeMillis() < keyFilterNextCheck || !keyFilterCheck.compareAndSet(false, true)) {
+			return current;
+		}
+		if (!current.isStale()) {
+			keyFilterNextCheck = System.currentTimeMillis() + KEY_FILTER_CHECK_INTERVAL_MS;
+			keyFilterCheck.set(false);
+			return current;
+		}
+		final Thread builder = new Thread(() -> {
+			try {
+				keyFilter = buildKeyFilter();
+				LOGGER.log(Level.INFO, "Key filter for Chronicle Map file ''{0}'' rebuilt after change.",
+						mapFile.getAbsolutePath());
+			} catch (RuntimeException re) {
+				LOGGER.log(Level.WARNING, "Unable to rebuild key filter for Chronicle Map file ''{0}'': {1}",
+						new Object[] {mapFile.getAbsolutePath(), re.getMessage()});
+			} finally {
+				keyFilterNextCheck = System.currentTimeMillis() + KEY_FILTER_CHECK_INTERVAL_MS;
+				keyFilterCheck.set(false);
+			}
+		}, "OraProxyKeyFilter");
+		builder.setDaemon(true);
+		builder.start();
+		return current;
+	}
+
+	private KeyFilter buildKeyFilter() {
+		// File size is taken before reading keys, so entries added during
+		// the scan force one more rebuild at next check
+		final long fileLength = mapFile.length();
+		final long entries = sqlMap.longSize();
+		final OraProxyBloomFilter keys = new OraProxyBloomFilter((int) Math.min(entries, Integer.MAX_VALUE));
+		final int[] invalid = new int[1];
+		sqlMap.forEachEntry(entry -> {
+			if (longKeys) {
+				keys.add(((LongValue) entry.key().get()).getValue());
+				return;
+			}
+			final String key = (String) entry.key().get();
+			try {
+				if (key.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX)) {
+					keys.add(OraProxyUtils.SIGNATURE_SALT ^ Long.parseUnsignedLong(
+							key.substring(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX.length())));
+				} else {
+					keys.add(OraProxyUtils.sqlIdToLong(key));
+				}
+			} catch (IllegalArgumentException iae) {
+				invalid[0]++;
+			}
+		});
+		if (invalid[0] > 0) {
+			LOGGER.log(Level.WARNING, "{0} invalid key(s) in Chronicle Map file ''{1}'' are never looked up.",
+					new Object[] {invalid[0], mapFile.getAbsolutePath()});
+		}
+		return new KeyFilter(keys, fileLength, entries);
+	}
+
+	/**
+	 * State derived from '.dict' and '.prefilter' files, replaced together when they are changed
+	 */
+	private static final class Sidecars {
+		private final String stamp;
+		private final OraProxyDeflateCodec codec;
+		private final OraProxySourceFilter sourceFilter;
+		// Values decoded with the codec
+		private final ValueEntry[] valueCache;
+
+		Sidecars(final String stamp, final OraProxyDeflateCodec codec,
+				final OraProxySourceFilter sourceFilter, final ValueEntry[] valueCache) {
+			this.stamp = stamp;
+			this.codec = codec;
+			this.sourceFilter = sourceFilter;
+			this.valueCache = valueCache;
+		}
+	}
+
+	private static final class ValueEntry {
+		private final long key;
+		private final long size;
+		private final long hash;
+		private final String value;
+
+		ValueEntry(final long key, final long size, final long hash, final String value) {
+			this.key = key;
+			this.size = size;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	private final class KeyFilter {
+		private final OraProxyBloomFilter keys;
+		private final long fileLength;
+		private final long entries;
+
+		KeyFilter(final OraProxyBloomFilter keys, final long fileLength, final long entries) {
+			this.keys = keys;
+			this.fileLength = fileLength;
+			this.entries = entries;
+		}
+
+		boolean mightContain(final long sqlId) {
+			return keys.mightContain(sqlId);
+		}
+
+		boolean mightContainSignature(final long signature) {
+			return keys.mightContain(OraProxyUtils.SIGNATURE_SALT ^ signature);
+		}
+
+		boolean isStale() {
+			return mapFile.length() != fileLength ||
+					sqlMap.longSize() != entries;
+		}
 	}
 
 }
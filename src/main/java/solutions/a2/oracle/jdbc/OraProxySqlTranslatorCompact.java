@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.SQLException;
+import java.util.zip.Deflater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQL Mapping/tranlsation implementation using compact in-heap store: open addressing
+ * index keyed by 64-bit SQL_ID value and one shared byte array of encoded or compressed
+ * translations
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class OraProxySqlTranslatorCompact implements OraProxyTranslatorIntf {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxySqlTranslatorCompact.class.getName());
+	private final OraProxyCompactStore sqlStore;
+	private final OraProxyCompactStore signatureStore;
+	private final OraProxySourceFilter sourceFilter;
+
+	OraProxySqlTranslatorCompact(final URL mappingFileUrl, final boolean compressed,
+			final int parallelism) throws SQLException {
+		final OraProxyDeflateCodec codec;
+		if (compressed) {
+			codec = readCodec(mappingFileUrl);
+		} else {
+			codec = null;
+		}
+		sqlStore = new OraProxyCompactStore(
+				"file".equals(mappingFileUrl.getProtocol()) && !compressed
+					? new File(mappingFileUrl.getFile()).length()
+					: 0,
+				codec);
+		signatureStore = new OraProxyCompactStore(0, codec);
+		final OraProxyMappingLoader loader = new OraProxyMappingLoader() {
+			@Override
+			void put(final long sqlId, final String sqlStatement) {
+				sqlStore.put(sqlId, sqlStatement);
+			}
+
+			@Override
+			void putSignature(final long signature, final String sqlStatement) {
+				signatureStore.put(signature, sqlStatement);
+			}
+		};
+		try {
+			loader.load(mappingFileUrl, parallelism);
+		} catch (IllegalStateException ise) {
+			throw new SQLException(
+					String.format("Unable to load '%s' into compact store!", mappingFileUrl.toString()), ise);
+		}
+		sqlStore.trim();
+		signatureStore.trim();
+		sourceFilter = loader.sourceFilter(mappingFileUrl);
+		LOGGER.log(Level.FINE, "{0} entries from ''{1}'' loaded into {2} bytes.",
+				new Object[] {sqlStore.size() + signatureStore.size(), mappingFileUrl,
+						sqlStore.sizeInBytes() + signatureStore.sizeInBytes()});
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 * 
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException 
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return source;
+		}
+		final String translated = sqlStore.get(OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return null;
+		}
+		return sqlStore.get(sqlId);
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		return sourceFilter == null || sourceFilter.mightContain(source);
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		return signatureStore.get(signature);
+	}
+
+	/**
+	 * Reads dictionary trained by OraProxyFileUtils from the file next to mapping,
+	 * without it entries are compressed without preset dictionary
+	 * 
+	 * @param mappingFileUrl URL of YAML mapping
+	 * @return codec
+	 * @throws SQLException
+	 */
+	private static OraProxyDeflateCodec readCodec(final URL mappingFileUrl) throws SQLException {
+		final URL dictionaryUrl;
+		try {
+			dictionaryUrl = new URL(mappingFileUrl.toString() + OraProxyDeflateCodec.FILE_SUFFIX);
+		} catch (MalformedURLException mfe) {
+			throw new SQLException(mfe);
+		}
+		try (InputStream is = dictionaryUrl.openStream()) {
+			final ByteArrayOutputStream dictionary = new ByteArrayOutputStream(OraProxyDeflateCodec.MAX_DICTIONARY_SIZE);
+			final byte[] buffer = new byte[0x2000];
+			int count;
+			while ((count = is.read(buffer)) > -1) {
+				dictionary.write(buffer, 0, count);
+			}
+			// Entries are compressed during startup
+			return new OraProxyDeflateCodec(dictionary.toByteArray(), Deflater.BEST_SPEED);
+		} catch (IOException ioe) {
+			LOGGER.log(Level.INFO,
+					"Dictionary ''{0}'' is not available, entries are compressed without dictionary.", dictionaryUrl);
+			return new OraProxyDeflateCodec(new byte[0], Deflater.BEST_SPEED);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * SQL Mapping/tranlsation implementation over several mapping files of a directory
+ * or glob pattern. Files are looked up from the last to the first in order of names,
+ * so translation from the last file wins. SQL_ID is computed once for all files.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+public class OraProxySqlTranslatorComposite implements OraProxyTranslatorIntf {
+
+	private final OraProxyTranslatorIntf[] translators;
+
+	/**
+	 *
+	 * @param translators translators over mapping files in order of names
+	 */
+	OraProxySqlTranslatorComposite(final OraProxyTranslatorIntf[] translators) {
+		this.translators = translators;
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 *
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (!mightTranslate(source)) {
+			return source;
+		}
+		final String translated = translateSqlId(source, OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		for (int i = translators.length - 1; i >= 0; i--) {
+			final String translated = translators[i].translateSqlId(source, sqlId);
+			if (translated != null) {
+				return translated;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		for (final OraProxyTranslatorIntf translator : translators) {
+			if (translator.mightTranslate(source)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() {
+		for (final OraProxyTranslatorIntf translator : translators) {
+			translator.close();
+		}
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		for (int i = translators.length - 1; i >= 0; i--) {
+			final String translated = translators[i].translateSignature(signature);
+			if (translated != null) {
+				return translated;
+			}
+		}
+		return null;
+	}
+
+}
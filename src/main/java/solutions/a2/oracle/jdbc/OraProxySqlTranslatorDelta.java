@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQL Mapping/tranlsation implementation which applies delta files over the translator
+ * of the mapping. Delta file has the format of YAML mapping: entry inserts or replaces
+ * translation of the key, and entry with value '~' deletes the key. Changes of all
+ * applied delta files are kept in on-heap table keyed by 64-bit SQL_ID, which is never
+ * modified after publication. Next delta files are applied to its copy, which shares
+ * translations of unchanged entries, so the mapping itself is not reloaded and heap
+ * depends on the size of deltas, not the size of mapping. Source information of inserted
+ * and replaced entries is kept as source filter of every delta file, so statements
+ * rejected by the filters of the mapping and of all deltas are not hashed.
+ * Delta file written by 'OraProxyFileUtils -m yaml2delta' starts with the comment
+ * '# base crc32: &lt;CRC32&gt;' of the YAML file it was made for, and is applied only over
+ * this mapping. File converted from YAML by 'OraProxyFileUtils' has the '.base' file with
+ * CRC32 of its source YAML file next to it.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+public class OraProxySqlTranslatorDelta implements OraProxyTranslatorIntf {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxySqlTranslatorDelta.class.getName());
+
+	static final String FILE_SUFFIX = ".delta";
+	static final String BASE_SUFFIX = ".base";
+	static final String BASE_HEADER = "# base crc32: ";
+	// Marker of deleted key, compared by identity
+	private static final String DELETED = new String(OraProxyUtils.DELETED);
+
+	private final OraProxyTranslatorIntf base;
+	private final OraProxyLongMap<String> changes;
+	// Source filters of delta files, null when some translation has no source information
+	private final OraProxySourceFilter[] sourceFilters;
+
+	/**
+	 *
+	 * @param base translator of the mapping
+	 */
+	OraProxySqlTranslatorDelta(final OraProxyTranslatorIntf base) {
+		this(base, new OraProxyLongMap<>(), new OraProxySourceFilter[0]);
+	}
+
+	private OraProxySqlTranslatorDelta(final OraProxyTranslatorIntf base,
+			final OraProxyLongMap<String> changes, final OraProxySourceFilter[] sourceFilters) {
+		this.base = base;
+		this.changes = changes;
+		this.sourceFilters = sourceFilters;
+	}
+
+	/**
+	 * Returns translator with delta files applied in order over changes of this translator,
+	 * this translator is not modified. Delta file which can not be read is skipped as a
+	 * whole and reported to log
+	 *
+	 * @param deltas delta files
+	 * @return new translator over the same mapping
+	 */
+	OraProxySqlTranslatorDelta apply(final List<URL> deltas) {
+		final OraProxyLongMap<String> applied = new OraProxyLongMap<>(changes);
+		List<OraProxySourceFilter> appliedFilters = sourceFilters == null
+				? null
+				: new ArrayList<>(Arrays.asList(sourceFilters));
+		for (final URL delta : deltas) {
+			final OraProxyLongMap<String> fileChanges = new OraProxyLongMap<>();
+			// Deleted entries have no source information and do not need it
+			final OraProxySourceFilter.Builder fileSources = new OraProxySourceFilter.Builder();
+			final boolean[] missing = {false};
+			final OraProxyMappingLoader loader = new OraProxyMappingLoader() {
+				private boolean info;
+				private long infoSqlId;
+				private int infoLength;
+				private int infoHash;
+
+				@Override
+				public void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) {
+					try {
+						info = !sqlId.startsWith(OraProxyUtils.FORCE_MATCHING_KEY_PREFIX);
+						infoSqlId = info ? OraProxyUtils.sqlIdToLong(sqlId) : 0;
+					} catch (IllegalArgumentException iae) {
+						info = false;
+					}
+					infoLength = sourceLength;
+					infoHash = sourceHash;
+				}
+
+				@Override
+				void put(final long sqlId, final String sqlStatement) {
+					if (OraProxyUtils.DELETED.equals(sqlStatement)) {
+						fileChanges.put(sqlId, DELETED);
+						return;
+					}
+					fileChanges.put(sqlId, sqlStatement);
+					if (info && infoSqlId == sqlId) {
+						fileSources.add(sqlId, infoLength, infoHash);
+					} else {
+						missing[0] = true;
+					}
+				}
+
+				@Override
+				void putSignature(final long signature, final String sqlStatement) {
+					fileChanges.put(OraProxyUtils.SIGNATURE_SALT ^ signature,
+							OraProxyUtils.DELETED.equals(sqlStatement) ? DELETED : sqlStatement);
+				}
+			};
+			try {
+				loader.load(delta);
+			} catch (SQLException sqle) {
+				LOGGER.log(Level.WARNING, "Delta file ''{0}'' is skipped: {1}",
+						new Object[] {delta, sqle.getCause() == null ? sqle.getMessage() : sqle.getCause().getMessage()});
+				continue;
+			}
+			applied.putAll(fileChanges);
+			if (missing[0]) {
+				if (appliedFilters != null) {
+					LOGGER.log(Level.INFO,
+							"Source information is not set for all entries in ''{0}'', prefilter is not used.", delta);
+				}
+				appliedFilters = null;
+			} else if (appliedFilters != null && fileSources.size() > 0) {
+				appliedFilters.add(fileSources.build());
+			}
+			LOGGER.log(Level.INFO, "{0} changes of delta file ''{1}'' applied.",
+					new Object[] {fileChanges.size(), delta});
+		}
+		return new OraProxySqlTranslatorDelta(base, applied, appliedFilters == null
+				? null
+				: appliedFilters.toArray(new OraProxySourceFilter[appliedFilters.size()]));
+	}
+
+	/**
+	 * Returns CRC32 of YAML mapping file the delta file was made for from its first line
+	 * 
+	 * @param delta delta file
+	 * @return CRC32 as hex string, or null when the delta file is not bound to mapping
+	 */
+	static String base(final URL delta) {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(delta.openStream(), StandardCharsets.US_ASCII))) {
+			final String line = reader.readLine();
+			return line != null && line.startsWith(BASE_HEADER)
+					? line.substring(BASE_HEADER.length()).trim()
+					: null;
+		} catch (IOException ioe) {
+			// Delta file which can not be read is skipped by apply
+			return null;
+		}
+	}
+
+	/**
+	 * Returns CRC32 value written to delta file header and to '.base' file
+	 */
+	static String base(final long crc32) {
+		return String.format("%08x", crc32);
+	}
+
+	/**
+	 * Returns number of changed and deleted keys
+	 */
+	int size() {
+		return changes.size();
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 *
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (!mightTranslate(source)) {
+			return source;
+		}
+		final String translated = translateSqlId(source, OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		final String changed = changes.get(sqlId);
+		if (changed != null) {
+			return changed == DELETED ? null : changed;
+		}
+		return base.translateSqlId(source, sqlId);
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		if (sourceFilters == null || base.mightTranslate(source)) {
+			return true;
+		}
+		for (final OraProxySourceFilter sourceFilter : sourceFilters) {
+			if (sourceFilter.mightContain(source)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mapping is shared with translators of next delta files, so it is not closed
+	 */
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		final String changed = changes.get(OraProxyUtils.SIGNATURE_SALT ^ signature);
+		if (changed != null) {
+			return changed == DELETED ? null : changed;
+		}
+		return base.translateSignature(signature);
+	}
+
+}
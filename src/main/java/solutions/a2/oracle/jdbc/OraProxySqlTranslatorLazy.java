@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQL Mapping/tranlsation implementation which memory maps YAML file and at startup
+ * only records SQL_ID, offset and length of every value with one scan over bytes.
+ * Value is decoded from UTF-8 on lookup, decoded values are kept in optional bounded
+ * cache, so startup time and heap depend on the working set, not the file size.
+ * Cache is keyed by location of value, so SQL_IDs sharing value with YAML alias share
+ * one cached String.
+ * The file is read with the same rules as {@link OraProxyUtils#readSimpleYaml}.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class OraProxySqlTranslatorLazy implements OraProxyTranslatorIntf, OraProxySourceFiltered {
+
+	private final MappedByteBuffer yaml;
+	private final Index sqlIndex;
+	private final Index signatureIndex;
+	private final OraProxySourceFilter sourceFilter;
+	private final CacheEntry[] cache;
+	private final int cacheMask;
+
+	OraProxySqlTranslatorLazy(final URL mappingFileUrl, final OraProxyConfig config) throws SQLException {
+		if (!"file".equals(mappingFileUrl.getProtocol())) {
+			throw new SQLException("Only 'file' URL is currently supported for lazy YAML store!");
+		}
+		final File file = new File(mappingFileUrl.getFile());
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new SQLException(String.format(
+						"File '%s' is larger than 2 GiB, use 'bin' or 'chronicle' file type!", file.getAbsolutePath()));
+			}
+			yaml = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException ioe) {
+			throw new SQLException(String.format("Unable to read from '%s'!", mappingFileUrl.toString()), ioe);
+		}
+		sqlIndex = new Index();
+		signatureIndex = new Index();
+		final Scanner loader = new Scanner(true);
+		try {
+			OraProxyYamlReader.scan(yaml, 0, yaml.limit(), loader, loader);
+		} catch (IOException ioe) {
+			throw new SQLException(String.format("Unable to read from '%s'!", mappingFileUrl.toString()), ioe);
+		}
+		sourceFilter = loader.sourceFilter(mappingFileUrl);
+		final int cacheSize = config.getInt(OraProxyDriver.A2_MAPPING_LAZY_CACHE_SIZE, 1024);
+		if (cacheSize > 0) {
+			int capacity = 1;
+			while (capacity < cacheSize && capacity < (1 << 30)) {
+				capacity <<= 1;
+			}
+			cache = new CacheEntry[capacity];
+			cacheMask = capacity - 1;
+		} else {
+			cache = null;
+			cacheMask = 0;
+		}
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 * 
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException 
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return source;
+		}
+		final String translated = get(sqlIndex, OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return null;
+		}
+		return get(sqlIndex, sqlId);
+	}
+
+	@Override
+	public String translateUnfiltered(final long sqlId) throws SQLException {
+		return get(sqlIndex, sqlId);
+	}
+
+	@Override
+	public OraProxySourceFilter.Builder sources() throws IOException {
+		if (sourceFilter == null) {
+			return null;
+		}
+		// Source information is collected by one more scan, entries are not stored
+		final Scanner scanner = new Scanner(false);
+		OraProxyYamlReader.scan(yaml, 0, yaml.limit(), scanner, scanner);
+		return scanner.sources();
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		return sourceFilter == null || sourceFilter.mightContain(source);
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		return get(signatureIndex, signature);
+	}
+
+	private String get(final Index index, final long key) {
+		final long location = index.get(key);
+		if (location == 0) {
+			return null;
+		}
+		if (cache == null) {
+			return decode(location);
+		}
+		final int slot = OraProxyLongMap.index(location, cacheMask);
+		final CacheEntry cached = cache[slot];
+		if (cached != null && cached.location == location) {
+			return cached.value;
+		}
+		final String decoded = decode(location);
+		cache[slot] = new CacheEntry(location, decoded);
+		return decoded;
+	}
+
+	private String decode(final long location) {
+		return OraProxyYamlReader.decode(yaml, (int) (location >>> 32), (int) location, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Records location of value instead of the value itself, key validation,
+	 * source information and warnings are handled by OraProxyMappingLoader
+	 */
+	private final class Scanner extends OraProxyMappingLoader implements OraProxyYamlReader.ValueHandler {
+		private final Map<String, Long> anchors = new HashMap<>();
+		private final boolean index;
+		private long location;
+
+		Scanner(final boolean index) {
+			this.index = index;
+		}
+
+		@Override
+		public void value(final String key, final String anchor, final int offset, final int length) {
+			location = ((long) offset << 32) | (length & 0xFFFFFFFFL);
+			if (anchor != null) {
+				anchors.put(anchor, location);
+			}
+			accept(key, "");
+		}
+
+		@Override
+		public void alias(final String key, final String anchor) throws IOException {
+			final Long anchorLocation = anchors.get(anchor);
+			if (anchorLocation == null) {
+				throw new IOException("Unknown alias '" + OraProxyUtils.ALIAS + anchor + "' for " + key + " in YAML file!");
+			}
+			location = anchorLocation;
+			accept(key, "");
+		}
+
+		@Override
+		void put(final long sqlId, final String sqlStatement) {
+			if (index) {
+				sqlIndex.put(sqlId, location);
+			}
+		}
+
+		@Override
+		void putSignature(final long signature, final String sqlStatement) {
+			if (index) {
+				signatureIndex.put(signature, location);
+			}
+		}
+	}
+
+	private static final class CacheEntry {
+		private final long location;
+		private final String value;
+
+		CacheEntry(final long location, final String value) {
+			this.location = location;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Open addressing map of 64-bit key to offset and length of value,
+	 * 0 marks empty slot, as value never starts at the beginning of file
+	 */
+	private static final class Index {
+		private long[] keys = new long[16];
+		private long[] locations = new long[16];
+		private int mask = 15;
+		private int size;
+
+		long get(final long key) {
+			int index = OraProxyLongMap.index(key, mask);
+			long location;
+			while ((location = locations[index]) != 0) {
+				if (keys[index] == key) {
+					return location;
+				}
+				index = (index + 1) & mask;
+			}
+			return 0;
+		}
+
+		void put(final long key, final long location) {
+			int index = OraProxyLongMap.index(key, mask);
+			while (locations[index] != 0) {
+				if (keys[index] == key) {
+					locations[index] = location;
+					return;
+				}
+				index = (index + 1) & mask;
+			}
+			keys[index] = key;
+			locations[index] = location;
+			if (++size > (mask + 1) >> 1) {
+				final long[] oldKeys = keys;
+				final long[] oldLocations = locations;
+				keys = new long[oldKeys.length << 1];
+				locations = new long[oldKeys.length << 1];
+				mask = keys.length - 1;
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldLocations[i] != 0) {
+						int newIndex = OraProxyLongMap.index(oldKeys[i], mask);
+						while (locations[newIndex] != 0) {
+							newIndex = (newIndex + 1) & mask;
+						}
+						keys[newIndex] = oldKeys[i];
+						locations[newIndex] = oldLocations[i];
+					}
+				}
+			}
+		}
+	}
+
+}
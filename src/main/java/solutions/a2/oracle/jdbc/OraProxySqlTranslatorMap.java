@@ -13,34 +13,49 @@
 
 package solutions.a2.oracle.jdbc;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * SQL Mapping/tranlsation implementation using java.util.concurrent.ConcurrentHashMap
+ * SQL Mapping/tranlsation implementation using in-heap hash map keyed by 64-bit SQL_ID value.
+ * Equal translations are interned during load, so SQL_IDs with the same translation share
+ * one String instance, which also reaches statement cache of Oracle JDBC driver.
  *
  * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
  * 
  */
 public class OraProxySqlTranslatorMap implements OraProxyTranslatorIntf {
 
-	private final Map<String, String> sqlMap;
+	private final OraProxyLongMap<String> sqlMap;
+	private final OraProxyLongMap<String> signatureMap;
+	private final OraProxySourceFilter sourceFilter;
 
-	OraProxySqlTranslatorMap(final URL mappingFileUrl) throws SQLException {
-		sqlMap = new ConcurrentHashMap<>();
-		try {
-			OraProxyUtils.readSimpleYaml(
-				new BufferedReader(new InputStreamReader(mappingFileUrl.openStream())), sqlMap);
-		} catch (IOException ioe) {
-			throw new SQLException(String.format("Unable to read from '%s'!", mappingFileUrl.toString()), ioe);
-		}
-	}
+	OraProxySqlTranslatorMap(final URL mappingFileUrl, final int parallelism) throws SQLException {
+		sqlMap = new OraProxyLongMap<>();
+		signatureMap = new OraProxyLongMap<>();
+		// Released after load
+		final Map<String, String> interned = new HashMap<>();
+		final OraProxyMappingLoader loader = new OraProxyMappingLoader() {
+			@Override
+			void put(final long sqlId, final String sqlStatement) {
+				sqlMap.put(sqlId, intern(sqlStatement));
+			}
 
+			@Override
+			void putSignature(final long signature, final String sqlStatement) {
+				signatureMap.put(signature, intern(sqlStatement));
+			}
+
+			private String intern(final String sqlStatement) {
+				final String existing = interned.putIfAbsent(sqlStatement, sqlStatement);
+				return existing == null ? sqlStatement : existing;
+			}
+		};
+		loader.load(mappingFileUrl, parallelism);
+		sourceFilter = loader.sourceFilter(mappingFileUrl);
+	}
 
 	/**
 	 * translate
@@ -52,8 +67,29 @@ public class OraProxySqlTranslatorMap implements OraProxyTranslatorIntf {
 	 */
 	@Override
 	public String translate(final String source) throws SQLException {
-		final String sqlId = OraProxyUtils.sql_id(source);
-		return sqlMap.getOrDefault(sqlId, source);
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return source;
+		}
+		final String translated = sqlMap.get(OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		if (sourceFilter != null && !sourceFilter.mightContain(source)) {
+			return null;
+		}
+		return sqlMap.get(sqlId);
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		return sourceFilter == null || sourceFilter.mightContain(source);
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		return signatureMap.get(signature);
 	}
 
 }
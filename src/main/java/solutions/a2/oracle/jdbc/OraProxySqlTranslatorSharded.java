@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQL Mapping/tranlsation implementation over shards of one mapping written by
+ * 'OraProxyFileUtils -s &lt;count&gt;'. Every key is stored only in the shard selected
+ * by its high bits, so lookup goes to one shard. When every shard has source filter, one
+ * filter over source information of all shards is built at open, the statement is checked
+ * against it once, and the selected shard is looked up without the check of its own filter.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+public class OraProxySqlTranslatorSharded implements OraProxyTranslatorIntf {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxySqlTranslatorSharded.class.getName());
+
+	private final OraProxyTranslatorIntf[] shards;
+	// Filter over all shards, or null when shard filters are checked
+	private final OraProxySourceFilter sourceFilter;
+
+	/**
+	 *
+	 * @param shards translators over shards in order of shard index
+	 */
+	OraProxySqlTranslatorSharded(final OraProxyTranslatorIntf[] shards) {
+		this.shards = shards;
+		this.sourceFilter = sourceFilter(shards);
+	}
+
+	/**
+	 * Returns filter over source information of all shards, or null when any shard
+	 * has no source filter
+	 */
+	private static OraProxySourceFilter sourceFilter(final OraProxyTranslatorIntf[] shards) {
+		final OraProxySourceFilter.Builder sources = new OraProxySourceFilter.Builder();
+		for (final OraProxyTranslatorIntf shard : shards) {
+			if (!(shard instanceof OraProxySourceFiltered)) {
+				return null;
+			}
+			final OraProxySourceFilter.Builder shardSources;
+			try {
+				shardSources = ((OraProxySourceFiltered) shard).sources();
+			} catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, "Unable to read source information of shard, filters of shards are used: {0}",
+						ioe.getMessage());
+				return null;
+			}
+			if (shardSources == null) {
+				return null;
+			}
+			sources.addAll(shardSources);
+		}
+		return sources.build();
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 *
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		if (!mightTranslate(source)) {
+			return source;
+		}
+		final String translated = translateSqlId(source, OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		final OraProxyTranslatorIntf shard = shards[OraProxyMappingFiles.shard(sqlId, shards.length)];
+		if (sourceFilter != null) {
+			// Source is checked by mightTranslate against filter over all shards
+			return ((OraProxySourceFiltered) shard).translateUnfiltered(sqlId);
+		}
+		return shard.translateSqlId(source, sqlId);
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		if (sourceFilter != null) {
+			return sourceFilter.mightContain(source);
+		}
+		// Shard is selected by SQL_ID, so every shard is checked
+		for (final OraProxyTranslatorIntf shard : shards) {
+			if (shard.mightTranslate(source)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() {
+		for (final OraProxyTranslatorIntf shard : shards) {
+			shard.close();
+		}
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		return shards[OraProxyMappingFiles.shard(OraProxyUtils.SIGNATURE_SALT ^ signature, shards.length)]
+				.translateSignature(signature);
+	}
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQL Mapping/tranlsation implementation with two tiers: small on-heap hot tier keyed by
+ * 64-bit SQL_ID over the cold off-heap or file backed translator. Frequency of every key
+ * is counted by count-min sketch with periodic halving, so it reflects both frequency and
+ * recency. Translation found in the cold tier is promoted when its key is used at least
+ * PROMOTE_FREQUENCY times, and when the memory budget is exhausted it replaces hot entries
+ * with lower frequency, which are demoted back to the cold tier only. As in W-TinyLFU,
+ * victims are selected from a small random sample of hot entries, not by a scan of all.
+ * Hot tier is immutable open addressing table replaced on every change, so hot lookup
+ * is lock-free read of heap arrays. Changes are rare, because the hot set of application
+ * is usually small and stable.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+public class OraProxySqlTranslatorTiered implements OraProxyTranslatorIntf {
+
+	private static final int PROMOTE_FREQUENCY = 4;
+	// Object headers, references and table slots
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int VICTIM_SAMPLES = 8;
+
+	private final OraProxyTranslatorIntf cold;
+	private final long maxWeight;
+	private final OraProxyFrequencySketch sketch;
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile Tier hot = new Tier(new long[0], new String[0], 0, 0);
+
+	/**
+	 *
+	 * @param cold       translator over off-heap or file backed store
+	 * @param maxWeight  memory budget of the hot tier in bytes
+	 */
+	OraProxySqlTranslatorTiered(final OraProxyTranslatorIntf cold, final long maxWeight) {
+		this.cold = cold;
+		this.maxWeight = maxWeight;
+		// Sizing for an average entry of 1KB, sketch also counts keys never promoted
+		sketch = new OraProxyFrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxWeight >> 8)));
+	}
+
+	/**
+	 * translate
+	 *   Translates SQL Query
+	 *
+	 * @param source
+	 * @return translated SQL string using predefined mapping
+	 * @throws SQLException
+	 */
+	@Override
+	public String translate(final String source) throws SQLException {
+		// Statement rejected by source filter is neither hashed nor counted by sketch
+		if (!cold.mightTranslate(source)) {
+			return source;
+		}
+		final String translated = translateSqlId(source, OraProxyUtils.sqlIdAsLong(source));
+		return translated == null ? source : translated;
+	}
+
+	@Override
+	public String translateSqlId(final String source, final long sqlId) throws SQLException {
+		sketch.increment(Long.hashCode(sqlId));
+		final String translated = hot.get(sqlId);
+		if (translated != null) {
+			return translated;
+		}
+		return promote(sqlId, cold.translateSqlId(source, sqlId));
+	}
+
+	@Override
+	public boolean mightTranslate(final String source) {
+		// Hot tier holds only translations promoted from the cold tier
+		return cold.mightTranslate(source);
+	}
+
+	@Override
+	public void close() {
+		cold.close();
+	}
+
+	@Override
+	public String translateSignature(final long signature) throws SQLException {
+		final long key = OraProxyUtils.SIGNATURE_SALT ^ signature;
+		sketch.increment(Long.hashCode(key));
+		final String translated = hot.get(key);
+		if (translated != null) {
+			return translated;
+		}
+		return promote(key, cold.translateSignature(signature));
+	}
+
+	/**
+	 * Returns number of translations in the hot tier
+	 */
+	int hotSize() {
+		return hot.size;
+	}
+
+	/**
+	 * Promotes translation found in the cold tier to the hot tier when its key is used
+	 * frequently enough. When the budget is exhausted, hot entries with lower frequency
+	 * are demoted, if they can not free enough space the translation is not promoted.
+	 *
+	 * @param key         64-bit SQL_ID or salted signature
+	 * @param translated  translation from the cold tier, or null
+	 * @return translated
+	 */
+	private String promote(final long key, final String translated) {
+		if (translated == null) {
+			return null;
+		}
+		final int frequency = sketch.frequency(Long.hashCode(key));
+		final long weight = ENTRY_OVERHEAD + (translated.length() << 1);
+		// Another thread promoting at the same time is not waited for
+		if (frequency < PROMOTE_FREQUENCY || weight > maxWeight || !lock.tryLock()) {
+			return translated;
+		}
+		try {
+			final Tier current = hot;
+			if (current.get(key) != null) {
+				return translated;
+			}
+			final long[] keys = current.keys;
+			final String[] values = current.values;
+			final boolean[] demoted = new boolean[keys.length];
+			long total = current.weight + weight;
+			while (total > maxWeight) {
+				final int victim = victim(current, demoted);
+				if (victim < 0 || sketch.frequency(Long.hashCode(keys[victim])) >= frequency) {
+					return translated;
+				}
+				demoted[victim] = true;
+				total -= ENTRY_OVERHEAD + (values[victim].length() << 1);
+			}
+			final int size = current.size + 1;
+			final long[] newKeys = new long[OraProxyLongMap.tableSize(size)];
+			final String[] newValues = new String[newKeys.length];
+			int newSize = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (values[i] != null && !demoted[i]) {
+					put(newKeys, newValues, keys[i], values[i]);
+					newSize++;
+				}
+			}
+			put(newKeys, newValues, key, translated);
+			hot = new Tier(newKeys, newValues, newSize + 1, total);
+			return translated;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns slot of the least frequently used entry not yet demoted, or -1. Small hot
+	 * tier is scanned, otherwise the victim is the least frequently used of VICTIM_SAMPLES
+	 * random entries, so the cost does not depend on the size of the hot tier
+	 */
+	private int victim(final Tier tier, final boolean[] demoted) {
+		final boolean scan = tier.size <= VICTIM_SAMPLES;
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		int victim = -1;
+		int victimFrequency = Integer.MAX_VALUE;
+		for (int i = 0; i < (scan ? tier.keys.length : VICTIM_SAMPLES); i++) {
+			final int candidate = scan
+					? (tier.values[i] != null && !demoted[i] ? i : -1)
+					: occupied(tier.values, demoted, random.nextInt(tier.keys.length));
+			if (candidate < 0) {
+				continue;
+			}
+			final int candidateFrequency = sketch.frequency(Long.hashCode(tier.keys[candidate]));
+			if (candidateFrequency < victimFrequency) {
+				victim = candidate;
+				victimFrequency = candidateFrequency;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Returns the first slot starting from index with entry not yet demoted, or -1
+	 */
+	private static int occupied(final String[] values, final boolean[] demoted, final int start) {
+		final int mask = values.length - 1;
+		for (int i = 0, index = start; i < values.length; i++, index = (index + 1) & mask) {
+			if (values[index] != null && !demoted[index]) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private static void put(final long[] keys, final String[] values, final long key, final String value) {
+		final int mask = keys.length - 1;
+		int index = OraProxyLongMap.index(key, mask);
+		while (values[index] != null) {
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+	}
+
+	private static final class Tier {
+		private final long[] keys;
+		private final String[] values;
+		private final int mask;
+		private final int size;
+		private final long weight;
+
+		Tier(final long[] keys, final String[] values, final int size, final long weight) {
+			this.keys = keys;
+			this.values = values;
+			this.mask = keys.length - 1;
+			this.size = size;
+			this.weight = weight;
+		}
+
+		String get(final long key) {
+			if (size == 0) {
+				return null;
+			}
+			int index = OraProxyLongMap.index(key, mask);
+			String value;
+			while ((value = values[index]) != null) {
+				if (keys[index] == key) {
+					return value;
+				}
+				index = (index + 1) & mask;
+			}
+			return null;
+		}
+	}
+
+}
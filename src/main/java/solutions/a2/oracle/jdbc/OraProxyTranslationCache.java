@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 
+ * Bounded content-keyed cache of translation results with W-TinyLFU policy.
+ * New entries are placed into a small admission window (1% of budget), entries leaving
+ * the window compete with the least recently used entry of the main segment, and only
+ * the one more frequently used according to the count-min sketch stays. So hot statements
+ * skip both SQL_ID computation and mapping lookup, while a stream of one-off statements
+ * cannot flush the cache. The main segment is split into probation and protected (80%)
+ * parts, entries are promoted to protected on a second hit.
+ * Reads are lock-free: ConcurrentHashMap lookup and a lossy frequency counter update,
+ * recency is updated only when the policy lock is not held by another thread.
+ * The size of cache is limited by estimated memory footprint of keys and values in bytes.
+ * 
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+final class OraProxyTranslationCache {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	// Object headers, references and CHM node
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final ConcurrentHashMap<String, Node> data;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final OraProxyFrequencySketch sketch;
+	private final Node[] segments = new Node[3];
+	private final long[] weights = new long[3];
+	private final long maxWeight;
+	private final long windowMaxWeight;
+	private final long protectedMaxWeight;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * 
+	 * @param maxWeight memory budget in bytes
+	 */
+	OraProxyTranslationCache(final long maxWeight) {
+		this.maxWeight = maxWeight;
+		windowMaxWeight = Math.max(1, maxWeight / 100);
+		protectedMaxWeight = (maxWeight - windowMaxWeight) * 8 / 10;
+		// Sizing for an average entry of 1KB
+		final int expectedEntries = (int) Math.min(1 << 24, Math.max(256, maxWeight >> 10));
+		data = new ConcurrentHashMap<>(expectedEntries);
+		sketch = new OraProxyFrequencySketch(expectedEntries);
+		for (int i = 0; i < segments.length; i++) {
+			final Node sentinel = new Node(null, null, 0);
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			segments[i] = sentinel;
+		}
+	}
+
+	/**
+	 * Returns cached translation result
+	 * 
+	 * @param source source SQL statement
+	 * @return translated statement, source when there is no translation, or null if not cached
+	 */
+	String get(final String source) {
+		sketch.increment(source.hashCode());
+		final Node node = data.get(source);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (lock.tryLock()) {
+			try {
+				onAccess(node);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return node.translation == null ? source : node.translation;
+	}
+
+	/**
+	 * Adds translation result to the cache
+	 * 
+	 * @param source      source SQL statement
+	 * @param translated  translated statement or source when there is no translation
+	 */
+	void put(final String source, final String translated) {
+		final String translation = translated == source ? null : translated;
+		final long weight = ENTRY_OVERHEAD +
+				(source.length() << 1) + (translation == null ? 0 : translation.length() << 1);
+		if (weight > maxWeight - windowMaxWeight) {
+			// Does not fit into the main segment, entry larger than the window
+			// passes through it to the probation and its admission
+			return;
+		}
+		lock.lock();
+		try {
+			if (data.containsKey(source)) {
+				return;
+			}
+			final Node node = new Node(source, translation, weight);
+			data.put(source, node);
+			link(WINDOW, node);
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long hits() {
+		return hits.sum();
+	}
+
+	long misses() {
+		return misses.sum();
+	}
+
+	long weightedSize() {
+		lock.lock();
+		try {
+			return weights[WINDOW] + weights[PROBATION] + weights[PROTECTED];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void onAccess(final Node node) {
+		if (node.segment < 0) {
+			// Already evicted
+			return;
+		}
+		if (node.segment == PROBATION) {
+			unlink(node);
+			link(PROTECTED, node);
+			while (weights[PROTECTED] > protectedMaxWeight) {
+				final Node demoted = segments[PROTECTED].next;
+				unlink(demoted);
+				link(PROBATION, demoted);
+			}
+		} else {
+			final int segment = node.segment;
+			unlink(node);
+			link(segment, node);
+		}
+	}
+
+	private void evict() {
+		// Entries leaving the window become admission candidates at probation MRU position
+		int candidates = 0;
+		while (weights[WINDOW] > windowMaxWeight) {
+			final Node node = segments[WINDOW].next;
+			unlink(node);
+			link(PROBATION, node);
+			candidates++;
+		}
+		while (weights[WINDOW] + weights[PROBATION] + weights[PROTECTED] > maxWeight) {
+			final Node probation = segments[PROBATION];
+			final Node victim = probation.next;
+			final Node candidate = probation.prev;
+			if (victim == probation) {
+				// Probation is empty
+				remove(segments[PROTECTED].next);
+			} else if (candidates == 0 || victim == candidate) {
+				remove(victim);
+			} else {
+				candidates--;
+				if (sketch.frequency(candidate.source.hashCode()) > sketch.frequency(victim.source.hashCode())) {
+					remove(victim);
+				} else {
+					remove(candidate);
+				}
+			}
+		}
+	}
+
+	private void remove(final Node node) {
+		unlink(node);
+		node.segment = -1;
+		data.remove(node.source, node);
+	}
+
+	private void link(final int segment, final Node node) {
+		final Node sentinel = segments[segment];
+		node.segment = segment;
+		node.prev = sentinel.prev;
+		node.next = sentinel;
+		sentinel.prev.next = node;
+		sentinel.prev = node;
+		weights[segment] += node.weight;
+	}
+
+	private void unlink(final Node node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+		weights[node.segment] -= node.weight;
+	}
+
+	private static final class Node {
+		private final String source;
+		// null when there is no translation
+		private final String translation;
+		private final long weight;
+		// Guarded by lock
+		private int segment;
+		private Node prev;
+		private Node next;
+
+		Node(final String source, final String translation, final long weight) {
+			this.source = source;
+			this.translation = translation;
+			this.weight = weight;
+		}
+	}
+
+}
@@ -22,5 +22,45 @@ import java.sql.SQLException;
  * 
  */
 interface OraProxyTranslatorIntf {
+	/**
+	 * Returns the translated SQL statement, or the same source instance if no translation is found
+	 * 
+	 * @param source source SQL statement
+	 * @return translated SQL statement or source
+	 * @throws SQLException
+	 */
 	public String translate(final String source) throws SQLException;
+	/**
+	 * Returns translation stored for SQL_ID of the source SQL statement, used when
+	 * SQL_ID is already computed, for example by {@link OraProxySqlTranslatorComposite}
+	 * 
+	 * @param source  source SQL statement
+	 * @param sqlId   64-bit SQL_ID value of source SQL statement
+	 * @return translation or null if not found
+	 * @throws SQLException
+	 */
+	public String translateSqlId(final String source, final long sqlId) throws SQLException;
+	/**
+	 * Returns translation stored for Oracle force matching signature
+	 * 
+	 * @param signature force matching signature
+	 * @return translation or null if not found
+	 * @throws SQLException
+	 */
+	public String translateSignature(final long signature) throws SQLException;
+	/**
+	 * Returns false when the source SQL statement can not have translation stored for
+	 * its SQL_ID, checked without SQL_ID computation, for example by source filter.
+	 * Wrappers call it before SQL_ID computation.
+	 * 
+	 * @param source source SQL statement
+	 * @return false when there is no translation for SQL_ID of source, true when it may exist
+	 */
+	public boolean mightTranslate(final String source);
+	/**
+	 * Releases resources of the translator, the translator is not used after close.
+	 * Translators over heap or memory mapped buffers have nothing to release.
+	 */
+	public default void close() {
+	}
 }
@@ -14,18 +14,22 @@
 package solutions.a2.oracle.jdbc;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.math.BigInteger;
-import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * 
@@ -38,8 +42,17 @@ public class OraProxyUtils {
 	private final static Logger LOGGER = Logger.getLogger(OraProxyUtils.class.getName());
 	private static final String PROPS_PATH = "/orajdbc-proxy-version.properties";
 	private static final int SQL_ID_END = 12;
-	private static final String ORA_SQL_ID_ALPHABET = "0123456789abcdfghjkmnpqrstuvwxyz";
-	private static final byte NULL_CHAR_BYTE = 0x00;
+	private static final long CRC_CHUNK_SIZE = 1L << 30;
+	static final String FORCE_MATCHING_KEY_PREFIX = "fms_";
+	// Force matching signatures share 64-bit key space with SQL_ID values as SIGNATURE_SALT ^ signature
+	static final long SIGNATURE_SALT = 0x9e3779b97f4a7c15L;
+	private static final String SOURCE_LENGTH = "len=";
+	private static final String SOURCE_HASH = "hash=";
+	// Value prefixes of YAML anchor and alias
+	static final char ANCHOR = '&';
+	static final char ALIAS = '*';
+	// Value of delta file entry which deletes the key
+	static final String DELETED = "~";
 
 	private static String version = "undefined";
 	private static int versionMajor = 0;
@@ -97,12 +110,48 @@ public class OraProxyUtils {
 	 * @throws IOException
 	 */
 	public static void write2Yaml(final Writer writer, final String sqlId, final String sqlStatement) throws IOException {
+		write2Yaml(writer, sqlId, sqlStatement, false, 0, 0);
+	}
+
+	/**
+	 * Writes SQL mapping information to file together with the length and
+	 * String.hashCode() of source SQL statement, which are used to reject
+	 * statements without translation before SQL_ID computation.
+	 * The information is written as comment of block scalar, i.e.
+	 *092pcht0h6c0t: |- # len=34 hash=-1513476225
+	 *  SELECT 'EXMPLE TRANSLATION'
+	 *  FROM DUAL
+	 * 
+	 * @param writer  destination
+	 * @param sqlId   13 character Oracle SQL_ID of SQL statement
+	 * @param sqlStatement SQL statement text
+	 * @param sourceLength length of source SQL statement
+	 * @param sourceHash   String.hashCode() of source SQL statement
+	 * @throws IOException
+	 */
+	public static void write2Yaml(final Writer writer, final String sqlId, final String sqlStatement,
+			final int sourceLength, final int sourceHash) throws IOException {
+		write2Yaml(writer, sqlId, sqlStatement, true, sourceLength, sourceHash);
+	}
+
+	private static void write2Yaml(final Writer writer, final String sqlId, final String sqlStatement,
+			final boolean sourceInfo, final int sourceLength, final int sourceHash) throws IOException {
 		final String[] sqlLines = sqlStatement.split("\n");
 		writer
 			.append(sqlId)
 			.append(": ");
-		if (sqlLines.length > 1) {
-			writer.append("|-\n");
+		if (sqlLines.length > 1 || sourceInfo) {
+			writer.append("|-");
+			if (sourceInfo) {
+				writer
+					.append(" # ")
+					.append(SOURCE_LENGTH)
+					.append(Integer.toString(sourceLength))
+					.append(' ')
+					.append(SOURCE_HASH)
+					.append(Integer.toString(sourceHash));
+			}
+			writer.append('\n');
 			boolean firstLine = true;
 			for (int i = 0; i < sqlLines.length; i++) {
 				if (firstLine) {
@@ -127,27 +176,54 @@ public class OraProxyUtils {
 	 * @throws IOException
 	 */
 	public static void readSimpleYaml(final BufferedReader reader, final Map<String, String> mappingData) throws IOException {
+		readSimpleYaml(reader, mappingData::put);
+	}
+
+	/**
+	 * Reads YAML mapping. Many SQL_IDs with the same translation can share one value:
+	 * value prefixed with anchor '&amp;name' is referenced by alias '*name' of following
+	 * entries, i.e.
+	 *092pcht0h6c0t: &amp;dual |-
+	 *  SELECT 'EXMPLE TRANSLATION'
+	 *  FROM DUAL
+	 *5bfqf0h8rvb7n: *dual
+	 * All entries with the same alias get the same String instance.
+	 * Lines starting with '#' outside of block scalars are comments.
+	 * 
+	 * @param reader    java.io.BufferedReader pointing to source YAML
+	 * @param consumer  receiver of SQL_ID and SQL statement pairs
+	 * @throws IOException
+	 */
+	static void readSimpleYaml(final BufferedReader reader, final OraProxyMappingConsumer consumer) throws IOException {
+		final Map<String, String> anchors = new HashMap<>();
 		String line = reader.readLine();
 		while (line != null) {
 			boolean readNextLine = true;
-			if (line.trim().length() > SQL_ID_END + 1) {
+			if (line.trim().length() > SQL_ID_END + 1 && !line.trim().startsWith("#")) {
 				final int semiColonPos = line.indexOf(':');
 				if (semiColonPos >= SQL_ID_END + 1 && semiColonPos < (line.length() - 1)) {
-					final String sqlId = line.substring(0, SQL_ID_END + 1);
-					String sqlStatement = "";
-					boolean multiLine = false;
-					int pos = semiColonPos + 1;
-					for (; pos < line.length(); pos++ ) {
-						if (line.charAt(pos) == ' ' || line.charAt(pos) == '\t') {
-							continue;
-						} else if (line.charAt(pos) == '|' && (pos + 1) <= line.length() && line.charAt(pos + 1) == '-') {
-							multiLine = true;
-							break;
-						} else {
-							break;
+					final String sqlId = line.substring(0, semiColonPos).trim();
+					int pos = skipBlanks(line, semiColonPos + 1);
+					String anchor = null;
+					if (pos < line.length() && line.charAt(pos) == ANCHOR) {
+						final int nameEnd = nameEnd(line, pos + 1);
+						anchor = line.substring(pos + 1, nameEnd);
+						pos = skipBlanks(line, nameEnd);
+						if (anchor.isEmpty() || pos == line.length()) {
+							throw new IOException("Invalid anchor for " + sqlId + " in YAML file!");
 						}
 					}
-					if (multiLine) {
+					final String sqlStatement;
+					if (anchor == null && pos < line.length() && line.charAt(pos) == ALIAS) {
+						final int nameEnd = nameEnd(line, pos + 1);
+						sqlStatement = anchors.get(line.substring(pos + 1, nameEnd));
+						if (sqlStatement == null) {
+							throw new IOException("Unknown alias '" + line.substring(pos, nameEnd) +
+									"' for " + sqlId + " in YAML file!");
+						}
+						readSourceInfo(line, nameEnd, sqlId, consumer);
+					} else if (pos + 1 < line.length() && line.charAt(pos) == '|' && line.charAt(pos + 1) == '-') {
+						readSourceInfo(line, pos + 2, sqlId, consumer);
 						final StringBuilder sb = new StringBuilder(line.length() * 16);
 						while (readNextLine) {
 							line = reader.readLine();
@@ -163,7 +239,10 @@ public class OraProxyUtils {
 					} else {
 						sqlStatement = line.substring(pos); 
 					}
-					mappingData.put(sqlId, sqlStatement);
+					if (anchor != null) {
+						anchors.put(anchor, sqlStatement);
+					}
+					consumer.accept(sqlId, sqlStatement);
 				} else {
 					throw new IOException("Invalid format for YAML file!");
 				}
@@ -174,6 +253,74 @@ public class OraProxyUtils {
 		}
 	 }
 
+	/**
+	 * Returns CRC32 of the file content, the file is read with memory mapping
+	 * 
+	 * @param file file
+	 * @return CRC32 value
+	 * @throws IOException
+	 */
+	static long crc32(final File file) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += CRC_CHUNK_SIZE) {
+				crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CRC_CHUNK_SIZE, size - position)));
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static int skipBlanks(final String line, int pos) {
+		while (pos < line.length() && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int nameEnd(final String line, int pos) {
+		while (pos < line.length() && line.charAt(pos) != ' ' && line.charAt(pos) != '\t') {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Passes source information from the comment of block scalar header to consumer
+	 * 
+	 * @param line      block scalar header
+	 * @param pos       position after '|-'
+	 * @param sqlId     key
+	 * @param consumer  receiver of source information
+	 * @throws IOException
+	 */
+	static void readSourceInfo(final String line, final int pos, final String sqlId,
+			final OraProxyMappingConsumer consumer) throws IOException {
+		final int commentPos = line.indexOf('#', pos);
+		if (commentPos > -1) {
+			final int lengthPos = line.indexOf(SOURCE_LENGTH, commentPos);
+			final int hashPos = line.indexOf(SOURCE_HASH, commentPos);
+			if (lengthPos > -1 && hashPos > -1) {
+				try {
+					consumer.sourceInfo(sqlId,
+						Integer.parseInt(intToken(line, lengthPos + SOURCE_LENGTH.length())),
+						Integer.parseInt(intToken(line, hashPos + SOURCE_HASH.length())));
+				} catch (NumberFormatException nfe) {
+					throw new IOException("Invalid source information for " + sqlId + " in YAML file!");
+				}
+			}
+		}
+	}
+
+	private static String intToken(final String line, final int start) {
+		int end = start;
+		while (end < line.length() &&
+				(Character.isDigit(line.charAt(end)) || (end == start && line.charAt(end) == '-'))) {
+			end++;
+		}
+		return line.substring(start, end);
+	}
+
 	/**
 	 * Returns Oracle sql_id of a SQL statement, the same as PL/SQL call in RDBMS 12c+
 	 * SELECT DBMS_SQL_TRANSLATOR.SQL_ID('select ''Test'' from dual') FROM DUAL;
@@ -184,50 +331,118 @@ public class OraProxyUtils {
 	 * @throws SQLException 
 	 */
 	public static String sql_id(final String sqlText) throws SQLException {
+		return sql_id((CharSequence) sqlText);
+	}
+
+	/**
+	 * Returns Oracle sql_id of a SQL statement passed as any CharSequence
+	 * (String, StringBuilder, CharBuffer). The text is encoded to UTF-8 in small
+	 * chunks straight into the digest, without a full-size temporary buffer.
+	 * 
+	 * @param sqlText SQL statement text
+	 * @return Oracle sql_id of a SQL statement 
+	 * @throws SQLException 
+	 */
+	public static String sql_id(final CharSequence sqlText) throws SQLException {
 		try {
-			// Get 32 Hex Characters
-			final String strHex32Hash = getStatementMd5Hash(sqlText);
-			// Obtain MD5 hash, split and reverse Q3 and Q4
-			// Reverse order of each of the 4 pairs of hex characters in Q3 and Q4
-			final String strHexQ3Reverse = strHex32Hash.substring(22, 24) + strHex32Hash.substring(20, 22)
-					+ strHex32Hash.substring(18, 20) + strHex32Hash.substring(16, 18);
-			final String strHexQ4Reverse = strHex32Hash.substring(30, 32) + strHex32Hash.substring(28, 30)
-					+ strHex32Hash.substring(26, 28) + strHex32Hash.substring(24, 26);
-			// assemble lower 16 with reversed q3 and q4
-			final String strHexLower16Assembly = strHexQ3Reverse + strHexQ4Reverse;
-			// convert to 64 bits of binary data
-			String strBinary16Assembly = (new BigInteger(strHexLower16Assembly, 16).toString(2));
-
-			// Left pad with zeros, if the length is less than 64
-			final StringBuilder sbBinary16mAssembly = new StringBuilder();
-			for (int toLefPad = 64 - strBinary16Assembly.length(); toLefPad > 0; toLefPad--) {
-				sbBinary16mAssembly.append('0');
-			}
-			sbBinary16mAssembly.append(strBinary16Assembly);
-			strBinary16Assembly = sbBinary16mAssembly.toString();
-
-			// Split the 64 bit string into 13 pieces
-			// First split as 4 bit and remaining as 5 bits
-			final StringBuilder sbSQLId = new StringBuilder();
-			for (int i = 0; i < 13; i++) {
-				final String strPartBindaySplit = (i == 0 ? strBinary16Assembly.substring(0, 4)
-						: (i < 12 ? strBinary16Assembly.substring((i * 5) - 1, (i * 5) + 4)
-								: strBinary16Assembly.substring((i * 5) - 1)));
-				// Index position on Alphabet
-				final int intIndexOnAlphabet = Integer.parseInt(strPartBindaySplit, 2);
-				// Stick 13 characters
-				sbSQLId.append(ORA_SQL_ID_ALPHABET.charAt(intIndexOnAlphabet));
-			}
-			return sbSQLId.toString();
-		} catch (UnsupportedEncodingException e) {
+			final OraProxySqlIdEngine engine = OraProxySqlIdEngine.get();
+			return engine.sqlIdText(engine.sqlId(sqlText));
+		} catch (NoSuchAlgorithmException | DigestException e) {
 			throw new SQLException(String.format(
-					"Unable to convert SQL text\n\t'%s'\n\t\tto UTF-8 encoding.", sqlText));
-		} catch (NoSuchAlgorithmException e) {
+					"Unable to init crypto while calculating SQL_ID for '%s'.", sqlText), e);
+		}
+	}
+
+	/**
+	 * Returns Oracle sql_id of a SQL statement as primitive 64-bit value.
+	 * This is the lower 64 bits of MD5 digest from which the 13 character
+	 * sql_id is encoded, use {@link #sqlIdToString(long)} for text representation
+	 * 
+	 * @param sqlText SQL statement text
+	 * @return Oracle sql_id of a SQL statement as 64-bit value
+	 * @throws SQLException 
+	 */
+	public static long sqlIdAsLong(final CharSequence sqlText) throws SQLException {
+		try {
+			return OraProxySqlIdEngine.get().sqlId(sqlText);
+		} catch (NoSuchAlgorithmException | DigestException e) {
 			throw new SQLException(String.format(
-					"Unable to init crypto while calculating SQL_ID for '%s'.", sqlText));
+					"Unable to init crypto while calculating SQL_ID for '%s'.", sqlText), e);
 		}
 	}
 
+	/**
+	 * Converts 64-bit sql_id value to 13 character Oracle sql_id
+	 * 
+	 * @param sqlId 64-bit sql_id value
+	 * @return 13 character Oracle sql_id
+	 */
+	public static String sqlIdToString(final long sqlId) {
+		return OraProxySqlIdEngine.sqlIdText(sqlId, new char[OraProxySqlIdEngine.SQL_ID_LENGTH]);
+	}
+
+	/**
+	 * Converts 13 character Oracle sql_id to 64-bit value
+	 * 
+	 * @param sqlId 13 character Oracle sql_id
+	 * @return 64-bit sql_id value
+	 * @throws IllegalArgumentException if sqlId is not a valid Oracle sql_id
+	 */
+	public static long sqlIdToLong(final CharSequence sqlId) {
+		return OraProxySqlIdEngine.sqlIdValue(sqlId);
+	}
+
+	/**
+	 * Returns Oracle exact matching signature of a SQL statement, the same as
+	 * V$SQL.EXACT_MATCHING_SIGNATURE or
+	 * SELECT DBMS_SQLTUNE.SQLTEXT_TO_SIGNATURE('select ''Test'' from dual', 0) FROM DUAL;
+	 * 
+	 * @param sqlText SQL statement text
+	 * @return Oracle exact matching signature of a SQL statement 
+	 * @throws SQLException
+	 */
+	public static BigInteger exact_matching_signature(final CharSequence sqlText) throws SQLException {
+		try {
+			return unsigned(OraProxySqlNormalizer.get().exactMatchingSignature(sqlText));
+		} catch (NoSuchAlgorithmException | DigestException e) {
+			throw new SQLException(String.format(
+					"Unable to init crypto while calculating EXACT_MATCHING_SIGNATURE for '%s'.", sqlText), e);
+		}
+	}
+
+	/**
+	 * Returns Oracle force matching signature of a SQL statement, the same as
+	 * V$SQL.FORCE_MATCHING_SIGNATURE or
+	 * SELECT DBMS_SQLTUNE.SQLTEXT_TO_SIGNATURE('select ''Test'' from dual', 1) FROM DUAL;
+	 * 
+	 * @param sqlText SQL statement text
+	 * @return Oracle force matching signature of a SQL statement 
+	 * @throws SQLException
+	 */
+	public static BigInteger force_matching_signature(final CharSequence sqlText) throws SQLException {
+		try {
+			return unsigned(OraProxySqlNormalizer.get().forceMatchingSignature(sqlText));
+		} catch (NoSuchAlgorithmException | DigestException e) {
+			throw new SQLException(String.format(
+					"Unable to init crypto while calculating FORCE_MATCHING_SIGNATURE for '%s'.", sqlText), e);
+		}
+	}
+
+	/**
+	 * Returns mapping file key for translation stored by force matching signature
+	 * 
+	 * @param signature force matching signature
+	 * @return mapping file key
+	 */
+	static String forceMatchingKey(final long signature) {
+		return FORCE_MATCHING_KEY_PREFIX + Long.toUnsignedString(signature);
+	}
+
+	private static BigInteger unsigned(final long value) {
+		final BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+		return value < 0 ? result.setBit(Long.SIZE - 1) : result;
+	}
+
 	/**
 	 * Returns Oracle hash_value of a SQL statement, the same as PL/SQL call in RDBMS 12c+
 	 * SELECT DBMS_SQL_TRANSLATOR.SQL_HASH('select ''Test'' from dual') FROM DUAL;
@@ -238,6 +453,18 @@ public class OraProxyUtils {
 	 * @throws SQLException
 	 */
 	public static BigInteger hash_value(final String sqlText) throws SQLException {
+		return hash_value((CharSequence) sqlText);
+	}
+
+	/**
+	 * Returns Oracle hash_value of a SQL statement passed as any CharSequence
+	 * (String, StringBuilder, CharBuffer)
+	 * 
+	 * @param sqlText SQL statement text
+	 * @return Oracle hash_value of a SQL statement 
+	 * @throws SQLException
+	 */
+	public static BigInteger hash_value(final CharSequence sqlText) throws SQLException {
 		/* Example
          *  Statement: SELECT 'Ram' ram_stmt FROM dual
          *  MD5 Hash with null terminator: 93bc072570a58c1f330166ab2d0a88d2
@@ -253,46 +480,12 @@ public class OraProxyUtils {
          *  Force Matching Signature Hex: E0C021642D0F363D  
          */
 		try {
-			// Get 32 Hex Characters
-			// Obtain MD5 hash, split and reverse Q4
-			final String strHex32Hash = getStatementMd5Hash(sqlText);
-			// Reverse order of hex characters in Q4
-			String strHexQ4Reverse = strHex32Hash.substring(30, 32) + strHex32Hash.substring(28, 30)
-				+ strHex32Hash.substring(26, 28) + strHex32Hash.substring(24, 26);
-			// convert to 4 bytes of hex to integer
-			return new BigInteger(strHexQ4Reverse, 16);
-		} catch (UnsupportedEncodingException e) {
-			throw new SQLException(String.format(
-					"Unable to convert SQL text\n\t'%s'\n\t\tto UTF-8 encoding.", sqlText));
-		} catch (NoSuchAlgorithmException e) {
+			// HASH_VALUE is the reversed Q4 of MD5 hash, i.e. the low 32 bits of SQL_ID
+			return BigInteger.valueOf(OraProxySqlIdEngine.get().sqlId(sqlText) & 0xFFFFFFFFL);
+		} catch (NoSuchAlgorithmException | DigestException e) {
 			throw new SQLException(String.format(
-					"Unable to init crypto while calculating HASH_VALUE for '%s'.", sqlText));
-		}
-	}
-
-	private static String getStatementMd5Hash(final String sqlText) throws UnsupportedEncodingException, NoSuchAlgorithmException {
-		//final byte[] bytesOfStatement = sqlText.trim().getBytes("UTF-8");
-		final byte[] bytesOfStatement = sqlText.getBytes("UTF-8");
-		// last bucket used for Null Terminator
-		final byte[] bytesOfStatementWithNull = new byte[bytesOfStatement.length + 1];
-
-		// Null terminator is lost or has no effect (Unicode \\u0000, \\U0000 or hex 0x00 or "\0") 
-		// on MD5 digest when you append to String
-		// Hence add the byte value as a last element after cloning
-		System.arraycopy(bytesOfStatement, 0, bytesOfStatementWithNull, 0, bytesOfStatement.length);
-		// add null terminator as last element
-		bytesOfStatementWithNull[bytesOfStatement.length]=NULL_CHAR_BYTE;
-
-		// get the MD5 digest
-		final MessageDigest md = MessageDigest.getInstance("MD5");
-		final byte[] bytesFromMD5Digest =  md.digest(bytesOfStatementWithNull);
-		
-		// convert the byte to hex format and generate MD5 hash
-		final StringBuilder sbMD5HashHex32 = new StringBuilder(32);
-		for (int i = 0; i < bytesFromMD5Digest.length; i++) {
-			sbMD5HashHex32.append(Integer.toString((bytesFromMD5Digest[i] & 0xff) + 0x100, 16).substring(1));
+					"Unable to init crypto while calculating HASH_VALUE for '%s'.", sqlText), e);
 		}
-		return sbMD5HashHex32.toString();
 	}
 
 
@@ -0,0 +1,472 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ *
+ * Reader of YAML mapping from memory mapped file with the same rules as
+ * {@link OraProxyUtils#readSimpleYaml}, working on bytes instead of lines. File is split
+ * at lines which are never continuation of block scalar, i.e. do not start with two
+ * spaces, and chunks are parsed in parallel. Entries are passed to consumer in file
+ * order from the calling thread, so consumer does not need to be thread safe and
+ * duplicate keys are resolved exactly as by sequential reader. Aliases are resolved
+ * during ordered replay, as the anchor can be defined in another chunk.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyYamlReader {
+
+	// Sign bit of value length marks block scalar
+	static final int BLOCK_FLAG = 0x80000000;
+	private static final int SQL_ID_END = 12;
+	private static final int MIN_CHUNK_SIZE = 0x10000;
+	// Decoded entries of chunks submitted and not replayed are on heap at the same time
+	private static final int MAX_CHUNK_SIZE = 0x1000000;
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Receiver of key and location of value in the buffer
+	 */
+	interface ValueHandler {
+		/**
+		 * @param key     key
+		 * @param anchor  name of anchor defined by the value, or null
+		 * @param offset  offset of value
+		 * @param length  length of value, with BLOCK_FLAG set for block scalar
+		 * @throws IOException
+		 */
+		void value(final String key, final String anchor, final int offset, final int length) throws IOException;
+
+		/**
+		 * @param key     key
+		 * @param anchor  name of anchor referenced by alias
+		 * @throws IOException
+		 */
+		void alias(final String key, final String anchor) throws IOException;
+	}
+
+	private OraProxyYamlReader() {
+	}
+
+	/**
+	 * Reads all entries of YAML mapping using up to parallelism threads
+	 *
+	 * @param yaml         buffer with YAML mapping
+	 * @param charset      charset of YAML mapping, must be ASCII compatible
+	 * @param parallelism  number of threads parsing chunks of buffer
+	 * @param consumer     receiver of SQL_ID and SQL statement pairs
+	 * @throws IOException
+	 */
+	static void read(final ByteBuffer yaml, final Charset charset, final int parallelism,
+			final OraProxyMappingConsumer consumer) throws IOException {
+		final int size = yaml.limit();
+		final int chunkCount = (int) Math.max(1, Math.min(
+				Math.max((long) parallelism * CHUNKS_PER_THREAD, size / MAX_CHUNK_SIZE), size / MIN_CHUNK_SIZE));
+		final List<Chunk> chunks = new ArrayList<>(chunkCount);
+		int start = 0;
+		for (int i = 1; i <= chunkCount && start < size; i++) {
+			final int end = i == chunkCount ? size : boundary(yaml, (int) ((long) size * i / chunkCount), size);
+			if (end > start) {
+				chunks.add(new Chunk(yaml, charset, start, end));
+				start = end;
+			}
+		}
+		final Map<String, String> anchors = new HashMap<>();
+		if (chunks.size() == 1 || parallelism < 2) {
+			for (final Chunk chunk : chunks) {
+				chunk.compute();
+				chunk.replay(consumer, anchors);
+			}
+			return;
+		}
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			// At most window chunks are submitted and not yet replayed, the next chunk is
+			// submitted when one is replayed and released, so decoded entries on heap are
+			// bounded by window chunks, not by the file size
+			final int window = Math.min(chunks.size(), parallelism * 2);
+			for (int i = 0; i < window; i++) {
+				pool.execute(chunks.get(i));
+			}
+			for (int i = 0; i < chunks.size(); i++) {
+				final Chunk chunk = chunks.get(i);
+				try {
+					chunk.get();
+				} catch (ExecutionException ee) {
+					for (Throwable cause = ee.getCause(); cause != null; cause = cause.getCause()) {
+						if (cause instanceof IOException) {
+							throw (IOException) cause;
+						}
+					}
+					throw new IOException(ee.getCause());
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ie);
+				}
+				chunk.replay(consumer, anchors);
+				chunks.set(i, null);
+				if (i + window < chunks.size()) {
+					pool.execute(chunks.get(i + window));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Scans entries of YAML mapping between start and end
+	 *
+	 * @param yaml     buffer with YAML mapping
+	 * @param start    position of the first line
+	 * @param end      position after the last line
+	 * @param sources  receiver of source information
+	 * @param handler  receiver of keys and locations of values
+	 * @throws IOException
+	 */
+	static void scan(final ByteBuffer yaml, final int start, final int end,
+			final OraProxyMappingConsumer sources, final ValueHandler handler) throws IOException {
+		int lineStart = start;
+		while (lineStart < end) {
+			final int lineEnd = lineEnd(yaml, lineStart, end);
+			final int nextLine = nextLine(yaml, lineEnd, end);
+			int trimStart = lineStart;
+			while (trimStart < lineEnd && (yaml.get(trimStart) & 0xFF) <= ' ') {
+				trimStart++;
+			}
+			int trimEnd = lineEnd;
+			while (trimEnd > trimStart && (yaml.get(trimEnd - 1) & 0xFF) <= ' ') {
+				trimEnd--;
+			}
+			if (trimEnd - trimStart <= SQL_ID_END + 1 || yaml.get(trimStart) == '#') {
+				// Short line or comment
+				lineStart = nextLine;
+				continue;
+			}
+			int colonPos = lineStart;
+			while (colonPos < lineEnd && yaml.get(colonPos) != ':') {
+				colonPos++;
+			}
+			if (colonPos - lineStart < SQL_ID_END + 1 || colonPos >= lineEnd - 1) {
+				throw new IOException("Invalid format for YAML file!");
+			}
+			final String key = ascii(yaml, lineStart, colonPos).trim();
+			int pos = skipBlanks(yaml, colonPos + 1, lineEnd);
+			String anchor = null;
+			if (pos < lineEnd && yaml.get(pos) == OraProxyUtils.ANCHOR) {
+				final int nameEnd = nameEnd(yaml, pos + 1, lineEnd);
+				anchor = ascii(yaml, pos + 1, nameEnd);
+				pos = skipBlanks(yaml, nameEnd, lineEnd);
+				if (anchor.isEmpty() || pos == lineEnd) {
+					throw new IOException("Invalid anchor for " + key + " in YAML file!");
+				}
+			}
+			if (anchor == null && pos < lineEnd && yaml.get(pos) == OraProxyUtils.ALIAS) {
+				final int nameEnd = nameEnd(yaml, pos + 1, lineEnd);
+				OraProxyUtils.readSourceInfo(ascii(yaml, nameEnd, lineEnd), 0, key, sources);
+				handler.alias(key, ascii(yaml, pos + 1, nameEnd));
+				lineStart = nextLine;
+			} else if (pos + 1 < lineEnd && yaml.get(pos) == '|' && yaml.get(pos + 1) == '-') {
+				// Header is short, parse source information from its text
+				OraProxyUtils.readSourceInfo(ascii(yaml, pos + 2, lineEnd), 0, key, sources);
+				final int valueStart = nextLine;
+				int blockEnd = nextLine;
+				int valueEnd = nextLine;
+				while (blockEnd + 1 < end && yaml.get(blockEnd) == ' ' && yaml.get(blockEnd + 1) == ' ') {
+					valueEnd = lineEnd(yaml, blockEnd, end);
+					blockEnd = nextLine(yaml, valueEnd, end);
+				}
+				handler.value(key, anchor, valueStart, (valueEnd - valueStart) | BLOCK_FLAG);
+				lineStart = blockEnd;
+			} else {
+				handler.value(key, anchor, pos, lineEnd - pos);
+				lineStart = nextLine;
+			}
+		}
+	}
+
+	/**
+	 * Decodes value: inline value as is, for block scalar two leading spaces are
+	 * removed from every line and every line is terminated with '\n'
+	 *
+	 * @param yaml     buffer with YAML mapping
+	 * @param offset   offset of value
+	 * @param length   length of value, with BLOCK_FLAG set for block scalar
+	 * @param charset  charset of YAML mapping
+	 * @return value
+	 */
+	static String decode(final ByteBuffer yaml, final int offset, final int length, final Charset charset) {
+		final ByteBuffer buffer = yaml.duplicate();
+		buffer.position(offset);
+		final byte[] bytes = new byte[length & ~BLOCK_FLAG];
+		buffer.get(bytes);
+		if ((length & BLOCK_FLAG) == 0) {
+			return new String(bytes, charset);
+		}
+		int out = 0;
+		int pos = 0;
+		while (pos < bytes.length) {
+			// skip indentation
+			pos += 2;
+			while (pos < bytes.length && bytes[pos] != '\n' && bytes[pos] != '\r') {
+				bytes[out++] = bytes[pos++];
+			}
+			bytes[out++] = '\n';
+			if (pos < bytes.length && bytes[pos] == '\r') {
+				pos++;
+			}
+			if (pos < bytes.length && bytes[pos] == '\n') {
+				pos++;
+			}
+		}
+		return new String(bytes, 0, out, charset);
+	}
+
+	/**
+	 * Returns start of the first line after pos which does not start with two spaces,
+	 * or size if there is no such line
+	 */
+	private static int boundary(final ByteBuffer yaml, final int pos, final int size) {
+		int lineStart = nextLine(yaml, lineEnd(yaml, pos, size), size);
+		while (lineStart + 1 < size && yaml.get(lineStart) == ' ' && yaml.get(lineStart + 1) == ' ') {
+			lineStart = nextLine(yaml, lineEnd(yaml, lineStart, size), size);
+		}
+		return lineStart + 1 < size ? lineStart : size;
+	}
+
+	private static int skipBlanks(final ByteBuffer buffer, int pos, final int end) {
+		while (pos < end && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int nameEnd(final ByteBuffer buffer, int pos, final int end) {
+		while (pos < end && buffer.get(pos) != ' ' && buffer.get(pos) != '\t') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int lineEnd(final ByteBuffer buffer, int pos, final int size) {
+		while (pos < size && buffer.get(pos) != '\n' && buffer.get(pos) != '\r') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int nextLine(final ByteBuffer buffer, int lineEnd, final int size) {
+		if (lineEnd < size && buffer.get(lineEnd) == '\r') {
+			lineEnd++;
+		}
+		if (lineEnd < size && buffer.get(lineEnd) == '\n') {
+			lineEnd++;
+		}
+		return lineEnd;
+	}
+
+	private static String ascii(final ByteBuffer buffer, final int start, final int end) {
+		final char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) (buffer.get(i) & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Entries buffered in worker thread and replayed to consumer in order. Key and value
+	 * take two elements of the list, source information and anchor defined by the value
+	 * are kept in the same list before their entry, unresolved alias takes place of value.
+	 */
+	static final class Entries implements OraProxyMappingConsumer {
+		private List<Object> entries = new ArrayList<>();
+
+		@Override
+		public void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) {
+			entries.add(new SourceInfo(sqlId, sourceLength, sourceHash));
+		}
+
+		@Override
+		public void accept(final String sqlId, final String sqlStatement) {
+			entries.add(sqlId);
+			entries.add(sqlStatement);
+		}
+
+		/**
+		 * Marks value of the next entry as value of the anchor
+		 * 
+		 * @param anchor name of anchor
+		 */
+		void anchor(final String anchor) {
+			entries.add(new Anchor(anchor));
+		}
+
+		/**
+		 * Adds entry with value of the anchor, resolved during replay
+		 * 
+		 * @param sqlId   key
+		 * @param anchor  name of anchor
+		 */
+		void alias(final String sqlId, final String anchor) {
+			entries.add(sqlId);
+			entries.add(new Anchor(anchor));
+		}
+
+		/**
+		 * Passes buffered entries to consumer and releases them
+		 * 
+		 * @param consumer receiver of entries
+		 * @throws IOException
+		 */
+		void replay(final OraProxyMappingConsumer consumer) throws IOException {
+			replay(consumer, new HashMap<>());
+		}
+
+		/**
+		 * Passes buffered entries to consumer and releases them
+		 * 
+		 * @param consumer receiver of entries
+		 * @param anchors  values of anchors defined by previous entries of the same file
+		 * @throws IOException
+		 */
+		void replay(final OraProxyMappingConsumer consumer, final Map<String, String> anchors) throws IOException {
+			final List<Object> entries = this.entries;
+			this.entries = null;
+			String anchor = null;
+			int i = 0;
+			while (i < entries.size()) {
+				final Object entry = entries.get(i);
+				if (entry instanceof SourceInfo) {
+					final SourceInfo info = (SourceInfo) entry;
+					consumer.sourceInfo(info.sqlId, info.length, info.hash);
+					i++;
+				} else if (entry instanceof Anchor) {
+					anchor = ((Anchor) entry).name;
+					i++;
+				} else {
+					final Object value = entries.get(i + 1);
+					final String sqlStatement;
+					if (value instanceof Anchor) {
+						sqlStatement = anchors.get(((Anchor) value).name);
+						if (sqlStatement == null) {
+							throw new IOException("Unknown alias '" + OraProxyUtils.ALIAS + ((Anchor) value).name +
+									"' for " + entry + " in YAML file!");
+						}
+					} else {
+						sqlStatement = (String) value;
+					}
+					if (anchor != null) {
+						anchors.put(anchor, sqlStatement);
+						anchor = null;
+					}
+					consumer.accept((String) entry, sqlStatement);
+					i += 2;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entries of one chunk, decoded in worker thread
+	 */
+	@SuppressWarnings("serial")
+	private static final class Chunk extends ForkJoinTask<Void> implements ValueHandler {
+		private final ByteBuffer yaml;
+		private final Charset charset;
+		private final int start;
+		private final int end;
+		private final Entries entries = new Entries();
+
+		Chunk(final ByteBuffer yaml, final Charset charset, final int start, final int end) {
+			this.yaml = yaml;
+			this.charset = charset;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void value(final String key, final String anchor, final int offset, final int length) {
+			if (anchor != null) {
+				entries.anchor(anchor);
+			}
+			entries.accept(key, decode(yaml, offset, length, charset));
+		}
+
+		@Override
+		public void alias(final String key, final String anchor) {
+			entries.alias(key, anchor);
+		}
+
+		void replay(final OraProxyMappingConsumer consumer, final Map<String, String> anchors) throws IOException {
+			entries.replay(consumer, anchors);
+		}
+
+		@Override
+		public Void getRawResult() {
+			return null;
+		}
+
+		@Override
+		protected void setRawResult(final Void value) {
+		}
+
+		@Override
+		protected boolean exec() {
+			try {
+				compute();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			return true;
+		}
+
+		void compute() throws IOException {
+			scan(yaml, start, end, entries, this);
+		}
+	}
+
+	private static final class SourceInfo {
+		private final String sqlId;
+		private final int length;
+		private final int hash;
+
+		SourceInfo(final String sqlId, final int length, final int hash) {
+			this.sqlId = sqlId;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+
+	private static final class Anchor {
+		private final String name;
+
+		Anchor(final String name) {
+			this.name = name;
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Binary snapshot of parsed YAML mapping, written next to the YAML file with
+ * '.snapshot' suffix. Snapshot is {@link OraProxyBinMapping} followed by optional
+ * source information and trailer (big-endian):
+ * <pre>
+ *   magic, version, YAML file size, YAML file modification time,
+ *   CRC32 of YAML file, offset of source information or 0
+ * </pre>
+ * Snapshot is used only when all three values match the YAML file, otherwise YAML is
+ * parsed and snapshot is written again. Snapshot is written to temporary file and
+ * renamed, so other JVMs starting at the same time never see partially written file.
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+final class OraProxyYamlSnapshot {
+
+	private final static Logger LOGGER = Logger.getLogger(OraProxyYamlSnapshot.class.getName());
+
+	static final String FILE_SUFFIX = ".snapshot";
+	private static final int MAGIC = 0x41325953;
+	private static final int VERSION = 1;
+	private static final int TRAILER_SIZE = 40;
+
+	private OraProxyYamlSnapshot() {
+	}
+
+	/**
+	 * Returns translator over snapshot of YAML file. When snapshot is missing or stale,
+	 * YAML file is parsed and snapshot is written
+	 *
+	 * @param yamlFile     YAML mapping file
+	 * @param parallelism  number of threads parsing YAML file
+	 * @return translator, or null when snapshot can not be written
+	 * @throws SQLException
+	 */
+	static OraProxySqlTranslatorBin translator(final File yamlFile, final int parallelism) throws SQLException {
+		final File snapshotFile = new File(yamlFile.getPath() + FILE_SUFFIX);
+		final long[] stamp;
+		try {
+			stamp = stamp(yamlFile);
+		} catch (IOException ioe) {
+			throw new SQLException(String.format("Unable to read from '%s'!", yamlFile.getAbsolutePath()), ioe);
+		}
+		try {
+			final OraProxySqlTranslatorBin translator = open(snapshotFile, stamp);
+			if (translator != null) {
+				return translator;
+			}
+		} catch (IOException ioe) {
+			LOGGER.log(Level.WARNING, "Unable to open snapshot ''{0}'', YAML file is parsed: {1}",
+					new Object[] {snapshotFile.getAbsolutePath(), ioe.getMessage()});
+		}
+		final OraProxyBinMapping.Builder mapping = new OraProxyBinMapping.Builder();
+		final OraProxyMappingLoader loader = new OraProxyMappingLoader() {
+			@Override
+			void put(final long sqlId, final String sqlStatement) {
+				mapping.add(sqlId, sqlStatement);
+			}
+
+			@Override
+			void putSignature(final long signature, final String sqlStatement) {
+				mapping.add(OraProxyUtils.SIGNATURE_SALT ^ signature, sqlStatement);
+			}
+		};
+		try {
+			loader.load(yamlFile.toURI().toURL(), parallelism);
+		} catch (IOException ioe) {
+			throw new SQLException(String.format("Unable to read from '%s'!", yamlFile.getAbsolutePath()), ioe);
+		}
+		// Stamp is taken before parsing, when the file is changed during parsing
+		// the snapshot is stale at next start and is written again
+		try {
+			write(snapshotFile, stamp, mapping, loader.sources());
+			LOGGER.log(Level.INFO, "Snapshot ''{0}'' with {1} entries written.",
+					new Object[] {snapshotFile.getAbsolutePath(), mapping.size()});
+			final OraProxySqlTranslatorBin translator = open(snapshotFile, stamp);
+			if (translator != null) {
+				return translator;
+			}
+		} catch (IOException ioe) {
+			LOGGER.log(Level.WARNING, "Unable to write snapshot ''{0}'': {1}",
+					new Object[] {snapshotFile.getAbsolutePath(), ioe.getMessage()});
+		}
+		return null;
+	}
+
+	/**
+	 * Opens snapshot when it matches the YAML file
+	 *
+	 * @param snapshotFile  snapshot file
+	 * @param stamp         size, modification time and CRC32 of YAML file
+	 * @return translator or null if snapshot is missing or stale
+	 * @throws IOException
+	 */
+	private static OraProxySqlTranslatorBin open(final File snapshotFile, final long[] stamp) throws IOException {
+		if (!snapshotFile.exists()) {
+			return null;
+		}
+		final OraProxySourceFilter sourceFilter;
+		final long sourceInfoOffset;
+		try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < TRAILER_SIZE) {
+				return null;
+			}
+			final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			while (trailer.hasRemaining()) {
+				if (channel.read(trailer, size - TRAILER_SIZE + trailer.position()) < 0) {
+					return null;
+				}
+			}
+			if (trailer.getInt(0) != MAGIC || trailer.getInt(4) != VERSION) {
+				return null;
+			}
+			if (trailer.getLong(8) != stamp[0] || trailer.getLong(16) != stamp[1] || trailer.getLong(24) != stamp[2]) {
+				LOGGER.log(Level.INFO, "Snapshot ''{0}'' is stale.", snapshotFile.getAbsolutePath());
+				return null;
+			}
+			sourceInfoOffset = trailer.getLong(32);
+			if (sourceInfoOffset > 0) {
+				channel.position(sourceInfoOffset);
+				final OraProxySourceFilter.Builder sources = OraProxySourceFilter.read(
+						new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+				if (sources == null) {
+					throw new IOException("Invalid format of source information in snapshot!");
+				}
+				sourceFilter = sources.build();
+			} else {
+				sourceFilter = null;
+			}
+		}
+		return new OraProxySqlTranslatorBin(OraProxyBinMapping.open(snapshotFile), sourceFilter,
+				snapshotFile, sourceInfoOffset);
+	}
+
+	private static void write(final File snapshotFile, final long[] stamp,
+			final OraProxyBinMapping.Builder mapping, final OraProxySourceFilter.Builder sources) throws IOException {
+		final File tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile), 0x10000))) {
+				final long length = mapping.write(out);
+				long sourceInfoOffset = 0;
+				if (sources.complete()) {
+					sourceInfoOffset = length;
+					sources.write(out);
+				}
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(stamp[0]);
+				out.writeLong(stamp[1]);
+				out.writeLong(stamp[2]);
+				out.writeLong(sourceInfoOffset);
+			}
+			Files.move(tempFile.toPath(), snapshotFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns size, modification time and CRC32 of the file
+	 */
+	private static long[] stamp(final File file) throws IOException {
+		final long lastModified = file.lastModified();
+		final long size = file.length();
+		return new long[] {size, lastModified, OraProxyUtils.crc32(file)};
+	}
+
+}
@@ -0,0 +1,395 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+
+/**
+ *
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ *
+ */
+public class ChronicleMapTest {
+
+	@Test
+	public void reload(@TempDir final File dir) throws IOException, SQLException, InterruptedException {
+		final String source = "select 1 from dual";
+		final File file = new File(dir, "mapping.cmap");
+		rename(yaml2cmap(dir, "v1", source, "select 'v1' from dual"), file);
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, file.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_TYPE, "chronicle");
+		props.setProperty(OraProxyDriver.A2_MAPPING_CLOSE_DELAY_MS, "0");
+		final OraProxySqlTranslator translator = new OraProxySqlTranslator(props);
+		assertEquals(translator.translate(source), "select 'v1' from dual", "Unexpected results");
+		// Open of the map does not look like a change of the file
+		assertFalse(translator.reload(), "Unexpected results");
+
+		// Map file is replaced by rename, the previous map is closed
+		rename(yaml2cmap(dir, "v2", source, "select 'v2' from dual"), file);
+		assertTrue(translator.reload(), "Unexpected results");
+		assertFalse(translator.reload(), "Unexpected results");
+		Thread.sleep(200);
+		assertEquals(translator.translate(source), "select 'v2' from dual", "Unexpected results");
+		assertEquals(translator.translate("select 2 from dual"), "select 2 from dual", "Unexpected results");
+	}
+
+	@Test
+	public void watch(@TempDir final File dir) throws IOException, SQLException, InterruptedException {
+		final String source = "select 1 from dual";
+		final File file = new File(dir, "mapping.cmap");
+		rename(yaml2cmap(dir, "v1", source, "select 'v1' from dual"), file);
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, file.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_TYPE, "chronicle");
+		props.setProperty(OraProxyDriver.A2_MAPPING_RELOAD_INTERVAL_MS, "50");
+		final Records records = new Records();
+		final Logger translatorLogger = Logger.getLogger(OraProxySqlTranslator.class.getName());
+		final Logger chronicleLogger = Logger.getLogger(OraProxySqlTranslatorChronicle.class.getName());
+		translatorLogger.addHandler(records);
+		chronicleLogger.addHandler(records);
+		try {
+			final OraProxySqlTranslator translator = new OraProxySqlTranslator(props);
+			// Lookups change modification time of the map file, which is not a change of the mapping
+			final long deadline = System.currentTimeMillis() + 1000;
+			for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+				assertEquals(translator.translate(source), "select 'v1' from dual", "Unexpected results");
+				if (i % 1000 == 0) {
+					assertTrue(file.setLastModified(System.currentTimeMillis() + i), "Unexpected results");
+				}
+			}
+			assertEquals(records.count("reloaded"), 0, "Unexpected results");
+			assertEquals(records.count("opened"), 1, "Unexpected results");
+
+			// Changed '.prefilter' file is read again without opening of the map file
+			final OraProxySourceFilter.Builder sources = new OraProxySourceFilter.Builder();
+			final String other = "select 2 from dual";
+			sources.add(OraProxyUtils.sqlIdAsLong(other), other.length(), other.hashCode());
+			sources.write(new File(file.getPath() + OraProxySourceFilter.FILE_SUFFIX));
+			for (int i = 0; i < 100 && !source.equals(translator.translate(source)); i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(translator.translate(source), source, "Unexpected results");
+			assertEquals(records.count("opened"), 1, "Unexpected results");
+			assertEquals(records.count("closed"), 0, "Unexpected results");
+			assertEquals(records.count(Level.WARNING), 0, "Unexpected results");
+		} finally {
+			chronicleLogger.removeHandler(records);
+			translatorLogger.removeHandler(records);
+		}
+	}
+
+	/**
+	 * Collects log records of the driver
+	 */
+	private static final class Records extends Handler {
+		private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void publish(final LogRecord record) {
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		int count(final String word) {
+			int count = 0;
+			synchronized (records) {
+				for (final LogRecord record : records) {
+					if (record.getMessage().contains(word)) {
+						count++;
+					}
+				}
+			}
+			return count;
+		}
+
+		int count(final Level level) {
+			int count = 0;
+			synchronized (records) {
+				for (final LogRecord record : records) {
+					if (record.getLevel().intValue() >= level.intValue()) {
+						count++;
+					}
+				}
+			}
+			return count;
+		}
+	}
+
+	@Test
+	public void roundTrip(@TempDir final File dir) throws IOException, SQLException {
+		final String[][] layouts = {{}, {"-l"}, {"-z"}, {"-l", "-z"}};
+		for (final String[] layout : layouts) {
+			for (final String mode : new String[] {"recover", "readonly"}) {
+				final File layoutDir = new File(dir, String.join("", layout) + mode);
+				assertTrue(layoutDir.mkdir(), "Unexpected results");
+				roundTrip(layoutDir, mode, layout);
+			}
+		}
+	}
+
+	@Test
+	public void readOnly(@TempDir final File dir) throws IOException, SQLException {
+		final String source = "select 1 from dual";
+		final File cmap = yaml2cmap(dir, "mapping", source, "select 'readonly' from dual");
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_CHRONICLE_OPEN_MODE, "readonly");
+		final long length = cmap.length();
+		final OraProxySqlTranslatorChronicle translator =
+				new OraProxySqlTranslatorChronicle(cmap.toURI().toURL(), new OraProxyConfig(props));
+		try {
+			assertEquals(translator.translate(source), "select 'readonly' from dual", "Unexpected results");
+		} finally {
+			translator.close();
+		}
+		// File is not extended by open without recovery
+		assertEquals(cmap.length(), length, "Unexpected results");
+
+		// Missing file is not created in readonly mode
+		final File missing = new File(dir, "missing.cmap");
+		assertThrows(SQLException.class,
+				() -> new OraProxySqlTranslatorChronicle(missing.toURI().toURL(), new OraProxyConfig(props)));
+		assertFalse(missing.exists(), "Unexpected results");
+	}
+
+	@Test
+	public void valueCache(@TempDir final File dir) throws IOException, SQLException, InterruptedException {
+		final String source = "select 1 from dual";
+		final File cmap = yaml2cmap(dir, "mapping", source, "select 'cached' from dual");
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_CHRONICLE_OPEN_MODE, "readonly");
+		final OraProxySqlTranslatorChronicle translator =
+				new OraProxySqlTranslatorChronicle(cmap.toURI().toURL(), new OraProxyConfig(props));
+		try {
+			// Unchanged entry is returned as the same instance without decoding
+			final String translated = translator.translate(source);
+			assertEquals(translated, "select 'cached' from dual", "Unexpected results");
+			assertSame(translator.translate(source), translated, "Unexpected results");
+
+			// Changed entry is decoded again
+			write(cmap, OraProxyUtils.sql_id(source), "select 'changed' from dual");
+			assertEquals(translator.translate(source), "select 'changed' from dual", "Unexpected results");
+		} finally {
+			translator.close();
+		}
+
+		props.setProperty(OraProxyDriver.A2_CHRONICLE_VALUE_CACHE_SIZE, "0");
+		final OraProxySqlTranslatorChronicle uncached =
+				new OraProxySqlTranslatorChronicle(cmap.toURI().toURL(), new OraProxyConfig(props));
+		try {
+			assertNotSame(uncached.translate(source), uncached.translate(source), "Unexpected results");
+		} finally {
+			uncached.close();
+		}
+	}
+
+	@Test
+	public void keyFilter(@TempDir final File dir) throws IOException, SQLException, InterruptedException {
+		final String source = "select 1 from dual";
+		final String added = "select 2 from dual";
+		final File cmap = yaml2cmap(dir, "mapping", source, "select 'first' from dual");
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_CHRONICLE_OPEN_MODE, "readonly");
+		final Records records = new Records();
+		final Logger logger = Logger.getLogger(OraProxySqlTranslatorChronicle.class.getName());
+		logger.addHandler(records);
+		final OraProxySqlTranslatorChronicle translator =
+				new OraProxySqlTranslatorChronicle(cmap.toURI().toURL(), new OraProxyConfig(props));
+		try {
+			assertEquals(translator.translate(source), "select 'first' from dual", "Unexpected results");
+			// No false negatives for keys of the map, missing key is answered by the filter
+			assertEquals(translator.translate(added), added, "Unexpected results");
+			assertNull(translator.translateSqlId(added, OraProxyUtils.sqlIdAsLong(added)), "Unexpected results");
+
+			// Modification time is changed by lookups, and is not a change of the map
+			assertTrue(cmap.setLastModified(cmap.lastModified() + 2000), "Unexpected results");
+			Thread.sleep(1100);
+			assertEquals(translator.translate(source), "select 'first' from dual", "Unexpected results");
+			Thread.sleep(200);
+			assertEquals(records.count("rebuilt"), 0, "Unexpected results");
+
+			// New entry changes the number of entries, the filter is rebuilt in background
+			// and the previous filter answers lookups until then
+			write(cmap, OraProxyUtils.sql_id(added), "select 'second' from dual");
+			for (int i = 0; i < 100 && added.equals(translator.translate(added)); i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(translator.translate(added), "select 'second' from dual", "Unexpected results");
+			assertEquals(records.count("rebuilt"), 1, "Unexpected results");
+			assertEquals(records.count(Level.WARNING), 0, "Unexpected results");
+		} finally {
+			translator.close();
+			logger.removeHandler(records);
+		}
+	}
+
+	/**
+	 * Changes entries of Chronicle Map file from another JVM, as the file is shared between processes.
+	 * Java does not allow the second file lock on the same file in one JVM.
+	 * 
+	 * @param cmap           Chronicle Map file with String values
+	 * @param keysAndValues  pairs of key and value
+	 */
+	private static void write(final File cmap, final String... keysAndValues) throws IOException, InterruptedException {
+		final List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (final String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("--add-opens") || arg.startsWith("--add-exports")) {
+				command.add(arg);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MapWriter.class.getName());
+		command.add(cmap.getAbsolutePath());
+		for (final String arg : keysAndValues) {
+			command.add(arg);
+		}
+		final Process process = new ProcessBuilder(command).inheritIO().start();
+		assertEquals(process.waitFor(), 0, "Unexpected results");
+	}
+
+	static final class MapWriter {
+		public static void main(final String[] args) throws IOException {
+			try (ChronicleMap<String, String> map =
+					ChronicleMapBuilder.of(String.class, String.class).createPersistedTo(new File(args[0]))) {
+				for (int i = 1; i + 1 < args.length; i += 2) {
+					map.put(args[i], args[i + 1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * yaml2cmap, translation with Chronicle Map translator and cmap2yaml
+	 */
+	private static void roundTrip(final File dir, final String mode, final String... layout)
+			throws IOException, SQLException {
+		final int entries = 100;
+		final long signature = 0x8000_0000_0000_1234L;
+		final File yaml = new File(dir, "mapping.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(yaml), StandardCharsets.US_ASCII)) {
+			for (int i = 0; i < entries; i++) {
+				final String source = "select " + i + " from dual";
+				OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select " + i + " from t",
+						source.length(), source.hashCode());
+			}
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.forceMatchingKey(signature), "select :\"SYS_B_0\" from t");
+		}
+		final Map<String, String> expected = new HashMap<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(yaml))) {
+			OraProxyUtils.readSimpleYaml(reader, expected);
+		}
+		final String[] argv = new String[layout.length + 2];
+		argv[0] = "-f";
+		argv[1] = yaml.getPath();
+		System.arraycopy(layout, 0, argv, 2, layout.length);
+		OraProxyFileUtils.main(argv);
+		assertTrue(yaml.delete(), "Unexpected results");
+
+		final File cmap = new File(dir, "mapping.cmap");
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_CHRONICLE_OPEN_MODE, mode);
+		final OraProxySqlTranslatorChronicle translator =
+				new OraProxySqlTranslatorChronicle(cmap.toURI().toURL(), new OraProxyConfig(props));
+		try {
+			for (int i = 0; i < entries; i++) {
+				assertEquals(translator.translate("select " + i + " from dual"),
+						expected.get(OraProxyUtils.sql_id("select " + i + " from dual")), "Unexpected results");
+			}
+			assertEquals(translator.translate("select 1 from t"), "select 1 from t", "Unexpected results");
+			assertEquals(translator.translateSignature(signature), "select :\"SYS_B_0\" from t", "Unexpected results");
+			assertNull(translator.translateSignature(signature + 1), "Unexpected results");
+		} finally {
+			translator.close();
+		}
+
+		OraProxyFileUtils.main(new String[] {"-m", "cmap2yaml", "-f", cmap.getPath()});
+		final Map<String, String> converted = new HashMap<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(yaml))) {
+			OraProxyUtils.readSimpleYaml(reader, converted);
+		}
+		assertEquals(converted, expected, "Unexpected results");
+	}
+
+	static File yaml2cmap(final File dir, final String name, final String source, final String translation,
+			final String... options) throws IOException, SQLException {
+		final File yaml = new File(dir, name + ".yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(yaml), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), translation);
+		}
+		final String[] argv = new String[options.length + 2];
+		argv[0] = "-f";
+		argv[1] = yaml.getPath();
+		System.arraycopy(options, 0, argv, 2, options.length);
+		OraProxyFileUtils.main(argv);
+		return new File(dir, name + ".cmap");
+	}
+
+	static void rename(final File cmap, final File file) throws IOException {
+		for (final String suffix : OraProxyMappingCache.SIDECAR_SUFFIXES) {
+			final File sidecar = new File(cmap.getPath() + suffix);
+			if (sidecar.exists()) {
+				Files.move(sidecar.toPath(), new File(file.getPath() + suffix).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				Files.deleteIfExists(new File(file.getPath() + suffix).toPath());
+			}
+		}
+		Files.move(cmap.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,856 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *  
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class MappingStoreTest {
+
+	@Test
+	public void compact() {
+		final OraProxyCompactStore store = new OraProxyCompactStore(0);
+		final int entries = 10000;
+		for (int i = 0; i < entries; i++) {
+			store.put(i * 0x9e3779b97f4a7c15L,
+					(i & 1) == 0 ? "select " + i + " from dual" : "select 'žč " + i + "' from dual");
+		}
+		store.put(0, "select 'Latin-1 é' from dual");
+		store.trim();
+		assertEquals(store.size(), entries, "Unexpected results");
+		assertEquals(store.get(0), "select 'Latin-1 é' from dual", "Unexpected results");
+		assertEquals(store.get(2 * 0x9e3779b97f4a7c15L), "select 2 from dual", "Unexpected results");
+		assertEquals(store.get(9999 * 0x9e3779b97f4a7c15L), "select 'žč 9999' from dual", "Unexpected results");
+		assertNull(store.get(entries * 0x9e3779b97f4a7c15L), "Unexpected results");
+	}
+
+	@Test
+	public void bin(@TempDir final File dir) throws IOException {
+		final OraProxyBinMapping.Builder builder = new OraProxyBinMapping.Builder();
+		final int entries = 10000;
+		for (int i = 0; i < entries; i++) {
+			builder.add(i * 0x9e3779b97f4a7c15L, "select '" + i + " žč' from dual");
+		}
+		builder.add(0, "select 0 from dual");
+		builder.hot(5 * 0x9e3779b97f4a7c15L);
+		final File file = new File(dir, "mapping.bin");
+		builder.write(file);
+		final OraProxyBinMapping mapping = OraProxyBinMapping.open(file);
+		assertEquals(mapping.size(), entries, "Unexpected results");
+		assertEquals(mapping.get(0), "select 0 from dual", "Unexpected results");
+		for (int i = 1; i < entries; i++) {
+			assertEquals(mapping.get(i * 0x9e3779b97f4a7c15L), "select '" + i + " žč' from dual", "Unexpected results");
+		}
+		assertNull(mapping.get(entries * 0x9e3779b97f4a7c15L), "Unexpected results");
+	}
+
+	@Test
+	public void binEmptyValues(@TempDir final File dir) throws IOException {
+		final OraProxyBinMapping.Builder builder = new OraProxyBinMapping.Builder();
+		builder.add(1, "");
+		builder.add(2, "");
+		final File file = new File(dir, "empty.bin");
+		builder.write(file);
+		final OraProxyBinMapping mapping = OraProxyBinMapping.open(file);
+		assertEquals(mapping.get(1), "", "Unexpected results");
+		assertEquals(mapping.get(2), "", "Unexpected results");
+		assertNull(mapping.get(3), "Unexpected results");
+	}
+
+	@Test
+	public void compressed() {
+		final List<byte[]> samples = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			samples.add(statement(i).getBytes(StandardCharsets.UTF_8));
+		}
+		final OraProxyDeflateCodec codec = OraProxyDeflateCodec.train(samples, OraProxyDeflateCodec.MAX_DICTIONARY_SIZE);
+		assertTrue(codec.dictionary().length > 0, "Unexpected results");
+		final byte[] compressed = codec.compress(statement(1001));
+		assertTrue(compressed.length * 4 < statement(1001).length(), "Unexpected results");
+		assertEquals(codec.decompress(compressed), statement(1001), "Unexpected results");
+
+		final OraProxyCompactStore store = new OraProxyCompactStore(0, codec);
+		store.put(1, statement(1));
+		store.put(2, "");
+		assertEquals(store.get(1), statement(1), "Unexpected results");
+		assertEquals(store.get(2), "", "Unexpected results");
+	}
+
+	private static String statement(final int i) {
+		return "SELECT /*+ INDEX(O ORDERS_PK) */ O.ORDER_ID, O.CUSTOMER_ID, O.ORDER_DATE, O.STATUS\n" +
+				"FROM SALES.ORDERS O, SALES.CUSTOMERS C\n" +
+				"WHERE O.CUSTOMER_ID = C.CUSTOMER_ID AND C.REGION_ID = " + i + " AND O.STATUS = 'ž'";
+	}
+
+	@Test
+	public void lazy(@TempDir final File dir) throws IOException, SQLException {
+		final File file = new File(dir, "mapping.yaml");
+		final long signature = Long.parseUnsignedLong("16194980974160721469");
+		final String[] sources = {"select 1 from dual", "select 'ž' from dual", "select 3 from dual", "select 4 from dual"};
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 2 from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[1]), "select 'č'\n  from dual\n\nwhere 1=1",
+					sources[1].length(), sources[1].hashCode());
+			writer.write(OraProxyUtils.sql_id(sources[2]) + ": |-\r\n  select 4\r\n  from dual\r\n\r\n");
+			writer.write(OraProxyUtils.forceMatchingKey(signature) + ": select :\"SYS_B_0\" from dual\n");
+		}
+		// Multi-line values are read with '\n' after every line, as in OraProxyUtils.readSimpleYaml
+		final String[] expected = {"select 2 from dual", "select 'č'\n  from dual\n\nwhere 1=1\n",
+				"select 4\nfrom dual\n", sources[3]};
+		final OraProxySqlTranslatorLazy lazy = new OraProxySqlTranslatorLazy(
+				file.toURI().toURL(), new OraProxyConfig(new Properties()));
+		for (int i = 0; i < sources.length; i++) {
+			assertEquals(lazy.translate(sources[i]), expected[i], "Unexpected results");
+			assertEquals(lazy.translate(sources[i]), expected[i], "Unexpected results");
+		}
+		assertEquals(lazy.translateSignature(signature), "select :\"SYS_B_0\" from dual", "Unexpected results");
+		assertNull(lazy.translateSignature(signature + 1), "Unexpected results");
+	}
+
+	@Test
+	public void parallel(@TempDir final File dir) throws IOException, SQLException {
+		final File file = new File(dir, "mapping.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			for (int i = 0; i < 3000; i++) {
+				final String sqlId = OraProxyUtils.sql_id("select " + (i % 2500) + " from dual");
+				if (i % 3 == 0) {
+					writer.write(sqlId + ": select " + i + " from dual\n");
+				} else if (i % 3 == 1) {
+					OraProxyUtils.write2Yaml(writer, sqlId, statement(i), i, -i);
+				} else {
+					writer.write(sqlId + ": |-\r\n  select " + i + "\r\n\r\n  from dual\r\n");
+				}
+			}
+		}
+		final List<String> expected = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			OraProxyUtils.readSimpleYaml(reader, new Collector(expected));
+		}
+		final List<String> actual = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			OraProxyYamlReader.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					StandardCharsets.US_ASCII, 4, new Collector(actual));
+		}
+		assertEquals(expected.size(), 3000 * 2 + 1000, "Unexpected results");
+		assertEquals(actual, expected, "Unexpected results");
+	}
+
+	@Test
+	public void snapshot(@TempDir final File dir) throws IOException, SQLException {
+		final File file = new File(dir, "mapping.yaml");
+		final long signature = Long.parseUnsignedLong("16194980974160721469");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select 1 from dual"), "select 2 from dual",
+					"select 1 from dual".length(), "select 1 from dual".hashCode());
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.forceMatchingKey(signature), "select :\"SYS_B_0\" from dual");
+		}
+		final File snapshotFile = new File(dir, "mapping.yaml" + OraProxyYamlSnapshot.FILE_SUFFIX);
+		OraProxySqlTranslatorBin translator = OraProxyYamlSnapshot.translator(file, 1);
+		assertTrue(snapshotFile.exists(), "Unexpected results");
+		final long written = snapshotFile.lastModified();
+		assertEquals(translator.translate("select 1 from dual"), "select 2 from dual\n", "Unexpected results");
+
+		translator = OraProxyYamlSnapshot.translator(file, 1);
+		assertEquals(snapshotFile.lastModified(), written, "Unexpected results");
+		assertEquals(translator.translate("select 1 from dual"), "select 2 from dual\n", "Unexpected results");
+		assertEquals(translator.translate("select 3 from dual"), "select 3 from dual", "Unexpected results");
+		assertEquals(translator.translateSignature(signature), "select :\"SYS_B_0\" from dual", "Unexpected results");
+
+		// Stale snapshot is written again
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select 3 from dual"), "select 4 from dual");
+		}
+		translator = OraProxyYamlSnapshot.translator(file, 1);
+		assertEquals(translator.translate("select 3 from dual"), "select 4 from dual", "Unexpected results");
+	}
+
+	@Test
+	public void directory(@TempDir final File dir) throws IOException, SQLException {
+		final String[] sources = {"select 1 from dual", "select 2 from dual", "select 3 from dual"};
+		final String[] files = {"b.yaml", "a.yaml", "c.txt"};
+		for (int i = 0; i < files.length; i++) {
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, files[i])),
+					StandardCharsets.US_ASCII)) {
+				OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'file " + files[i] + "' from dual");
+				OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[i + 1 < sources.length ? i + 1 : 0]),
+						"select 'only " + files[i] + "' from dual");
+			}
+		}
+		// Files are sorted by name and the last file wins
+		final OraProxyTranslatorIntf map = new OraProxySqlTranslatorMap(dir.toURI().toURL(), 2);
+		assertEquals(map.translate(sources[0]), "select 'file b.yaml' from dual", "Unexpected results");
+		assertEquals(map.translate(sources[1]), "select 'only b.yaml' from dual", "Unexpected results");
+		assertEquals(map.translate(sources[2]), "select 'only a.yaml' from dual", "Unexpected results");
+
+		// Files are parsed at most twice parallelism ahead, and are stored in the same order
+		final File many = new File(dir, "many");
+		assertTrue(many.mkdir(), "Unexpected results");
+		final int count = 9;
+		for (int i = 0; i < count; i++) {
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(many, i + ".yaml")),
+					StandardCharsets.US_ASCII)) {
+				OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'file " + i + "' from dual");
+				OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select " + i + " from t"), "select 'only " + i + "' from dual");
+			}
+		}
+		final OraProxyTranslatorIntf windowed = new OraProxySqlTranslatorMap(many.toURI().toURL(), 1);
+		assertEquals(windowed.translate(sources[0]), "select 'file " + (count - 1) + "' from dual", "Unexpected results");
+		for (int i = 0; i < count; i++) {
+			assertEquals(windowed.translate("select " + i + " from t"), "select 'only " + i + "' from dual", "Unexpected results");
+		}
+
+		final OraProxyConfig config = new OraProxyConfig(new Properties());
+		final OraProxyTranslatorIntf composite = OraProxyMappingFiles.open(
+				OraProxyMappingFiles.list(new File(dir, "*.yaml").toURI().toURL(), "yaml"), 2,
+				url -> new OraProxySqlTranslatorLazy(url, config));
+		for (final String source : sources) {
+			assertEquals(composite.translate(source), map.translate(source), "Unexpected results");
+		}
+		assertEquals(composite.translate("select 4 from dual"), "select 4 from dual", "Unexpected results");
+	}
+
+	@Test
+	public void openFailure(@TempDir final File dir) throws IOException {
+		final List<URL> urls = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			urls.add(new File(dir, i + ".bin").toURI().toURL());
+		}
+		final AtomicInteger opened = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+		assertThrows(SQLException.class, () -> OraProxyMappingFiles.open(urls, 4, url -> {
+			if (url.getFile().endsWith("/5.bin")) {
+				throw new SQLException("Unable to open " + url);
+			}
+			opened.incrementAndGet();
+			return new OraProxyTranslatorIntf() {
+				@Override
+				public String translate(final String source) {
+					return source;
+				}
+
+				@Override
+				public String translateSqlId(final String source, final long sqlId) {
+					return null;
+				}
+
+				@Override
+				public boolean mightTranslate(final String source) {
+					return true;
+				}
+
+				@Override
+				public String translateSignature(final long signature) {
+					return null;
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			};
+		}));
+		// Translators opened before the failure are closed
+		assertTrue(opened.get() > 0, "Unexpected results");
+		assertEquals(closed.get(), opened.get(), "Unexpected results");
+	}
+
+	@Test
+	public void shared(@TempDir final File dir) throws IOException, SQLException {
+		final File file = new File(dir, "mapping.yaml");
+		final int entries = 3000;
+		final String[] sources = new String[entries];
+		for (int i = 0; i < entries; i++) {
+			sources[i] = "select " + i + " from dual";
+		}
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			writer.write(OraProxyUtils.sql_id(sources[0]) + ": &block |-\n  select 'block'\n  from dual\n");
+			writer.write(OraProxyUtils.sql_id(sources[1]) + ":  &inline  select 'inline' from dual\n");
+			for (int i = 2; i < entries; i++) {
+				final String sqlId = OraProxyUtils.sql_id(sources[i]);
+				if (i % 3 == 0) {
+					writer.write(sqlId + ": *block\n");
+				} else if (i % 3 == 1) {
+					writer.write(sqlId + ": *inline # len=" + sources[i].length() + " hash=" + sources[i].hashCode() + "\n");
+				} else {
+					// Equal values without anchor
+					OraProxyUtils.write2Yaml(writer, sqlId, ascii(i % 10));
+				}
+			}
+		}
+		final List<String> expected = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			OraProxyUtils.readSimpleYaml(reader, new Collector(expected));
+		}
+		final List<String> actual = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			OraProxyYamlReader.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					StandardCharsets.UTF_8, 4, new Collector(actual));
+		}
+		assertEquals(expected.get(1), "select 'block'\nfrom dual\n", "Unexpected results");
+		assertEquals(expected.get(3), "select 'inline' from dual", "Unexpected results");
+		assertEquals(actual, expected, "Unexpected results");
+
+		final OraProxyTranslatorIntf map = new OraProxySqlTranslatorMap(file.toURI().toURL(), 1);
+		final OraProxyTranslatorIntf lazy = new OraProxySqlTranslatorLazy(
+				file.toURI().toURL(), new OraProxyConfig(new Properties()));
+		// Equal values are the same instance
+		final Map<String, String> distinct = new HashMap<>();
+		for (int i = 0; i < entries; i++) {
+			final String translated = map.translate(sources[i]);
+			assertSame(distinct.computeIfAbsent(translated, value -> translated), translated, "Unexpected results");
+			assertEquals(lazy.translate(sources[i]), translated, "Unexpected results");
+		}
+		assertEquals(distinct.size(), 12, "Unexpected results");
+		assertSame(lazy.translate(sources[3000 - 3]), lazy.translate(sources[0]), "Unexpected results");
+
+		final OraProxyCompactStore store = new OraProxyCompactStore(0);
+		final OraProxyBinMapping.Builder builder = new OraProxyBinMapping.Builder();
+		for (int i = 0; i < entries; i++) {
+			store.put(i, ascii(i % 10));
+			builder.add(i, ascii(i % 10));
+		}
+		store.trim();
+		final File binFile = new File(dir, "mapping.bin");
+		builder.write(binFile);
+		final OraProxyBinMapping bin = OraProxyBinMapping.open(binFile);
+		// Every distinct value is stored once
+		assertTrue(store.sizeInBytes() < entries * ascii(0).length(), "Unexpected results");
+		assertTrue(binFile.length() < entries * ascii(0).length(), "Unexpected results");
+		for (int i = 0; i < entries; i++) {
+			assertEquals(store.get(i), ascii(i % 10), "Unexpected results");
+			assertEquals(bin.get(i), ascii(i % 10), "Unexpected results");
+		}
+
+		assertThrows(IOException.class, () -> OraProxyUtils.readSimpleYaml(new BufferedReader(new StringReader(
+				OraProxyUtils.sql_id(sources[0]) + ": *unknown\n")), new Collector(new ArrayList<>())));
+	}
+
+	@Test
+	public void reload(@TempDir final File dir) throws IOException, SQLException, InterruptedException {
+		final File file = new File(dir, "mapping.yaml");
+		final String source = "select 1 from dual";
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 2 from dual");
+		}
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, file.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_CACHE_TEXT_MAX_BYTES, "65536");
+		props.setProperty(OraProxyDriver.A2_MAPPING_HOT_MAX_BYTES, "65536");
+		final OraProxySqlTranslator translator = new OraProxySqlTranslator(props);
+		assertEquals(translator.translate(source), "select 2 from dual", "Unexpected results");
+		assertEquals(translator.translate(source), "select 2 from dual", "Unexpected results");
+		assertEquals(translator.getCacheHits(), 1L, "Unexpected results");
+		assertFalse(translator.reload(), "Unexpected results");
+
+		// Caches are replaced together with the mapping
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 'reloaded' from dual");
+		}
+		assertTrue(translator.reload(), "Unexpected results");
+		assertEquals(translator.getCacheHits(), 0L, "Unexpected results");
+		assertEquals(translator.translate(source), "select 'reloaded' from dual", "Unexpected results");
+
+		// Invalid mapping is not published and is not loaded again
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			writer.write(OraProxyUtils.sql_id(source) + " select 3 from dual\n");
+		}
+		assertThrows(SQLException.class, translator::reload);
+		assertFalse(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(source), "select 'reloaded' from dual", "Unexpected results");
+
+		// Background check loads files not changed since the previous check
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 'stable' from dual");
+		}
+		assertFalse(translator.reload(true), "Unexpected results");
+		assertEquals(translator.translate(source), "select 'reloaded' from dual", "Unexpected results");
+		assertTrue(translator.reload(true), "Unexpected results");
+		assertEquals(translator.translate(source), "select 'stable' from dual", "Unexpected results");
+
+		// Sidecar file is a part of the mapping
+		try (FileOutputStream fos = new FileOutputStream(file.getPath() + OraProxySourceFilter.FILE_SUFFIX)) {
+			fos.write(0);
+		}
+		assertTrue(translator.reload(), "Unexpected results");
+		assertTrue(new File(file.getPath() + OraProxySourceFilter.FILE_SUFFIX).delete(), "Unexpected results");
+		assertTrue(translator.reload(), "Unexpected results");
+
+		// Watcher
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 2 from dual");
+		}
+		props.setProperty(OraProxyDriver.A2_MAPPING_RELOAD_INTERVAL_MS, "20");
+		final OraProxySqlTranslator watched = new OraProxySqlTranslator(props);
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 'watched' from dual");
+		}
+		for (int i = 0; i < 500 && !"select 'watched' from dual".equals(watched.translate(source)); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(watched.translate(source), "select 'watched' from dual", "Unexpected results");
+	}
+
+	@Test
+	public void delta(@TempDir final File dir) throws IOException, SQLException, GeneralSecurityException {
+		// Different signatures of sources
+		final String[] sources = {"select 1 from t1", "select 2 from t2", "select 3 from t3", "select 4 from t4"};
+		final long signature = OraProxySqlNormalizer.get().forceMatchingSignature("select 5 from dual");
+		final File baseFile = new File(dir, "base.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(baseFile), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'unchanged' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[1]), "select 'changed' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[2]), "select 'deleted' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.forceMatchingKey(signature), "select :\"SYS_B_0\" + 0 from dual");
+		}
+		final File targetFile = new File(dir, "target.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(targetFile), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'unchanged' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[1]), "select 'changed'\nfrom dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[3]), "select 'added' from dual");
+		}
+		OraProxyFileUtils.main(new String[] {"-m", "yaml2delta", "-f", targetFile.getPath(), "-b", baseFile.getPath()});
+		final List<String> changes = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(new File(dir, "target.delta")))) {
+			OraProxyUtils.readSimpleYaml(reader, new Collector(changes));
+		}
+		assertEquals(changes.size(), 8, "Unexpected results");
+
+		final File deltaDir = new File(dir, "delta");
+		assertTrue(deltaDir.mkdir(), "Unexpected results");
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, baseFile.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_MAPPING_DELTA_URL, deltaDir.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_MAPPING_FORCE_MATCHING, "true");
+		props.setProperty(OraProxyDriver.A2_MAPPING_HOT_MAX_BYTES, "65536");
+		final OraProxySqlTranslator translator = new OraProxySqlTranslator(props);
+		assertEquals(translator.translate(sources[2]), "select 'deleted' from dual", "Unexpected results");
+		assertEquals(translator.translate("select 5 from dual"), "select 5 + 0 from dual", "Unexpected results");
+		assertFalse(translator.reload(), "Unexpected results");
+
+		assertTrue(new File(dir, "target.delta").renameTo(new File(deltaDir, "0001.delta")), "Unexpected results");
+		assertTrue(translator.reload(), "Unexpected results");
+		assertFalse(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[0]), "select 'unchanged' from dual", "Unexpected results");
+		assertEquals(translator.translate(sources[1]), "select 'changed'\nfrom dual\n", "Unexpected results");
+		assertEquals(translator.translate(sources[2]), sources[2], "Unexpected results");
+		assertEquals(translator.translate(sources[3]), "select 'added' from dual", "Unexpected results");
+		// Signature is deleted too
+		assertEquals(translator.translate("select 5 from dual"), "select 5 from dual", "Unexpected results");
+
+		// Only the new delta file is applied
+		try (Writer writer = new OutputStreamWriter(
+				new FileOutputStream(new File(deltaDir, "0002.delta")), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[3]), OraProxyUtils.DELETED);
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.forceMatchingKey(signature), "select 'signature' from dual");
+		}
+		assertTrue(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[3]), sources[3], "Unexpected results");
+		assertEquals(translator.translate("select 6 from dual"), "select 'signature' from dual", "Unexpected results");
+
+		// Removed delta file is not applied any more
+		assertTrue(new File(deltaDir, "0001.delta").delete(), "Unexpected results");
+		assertTrue(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[1]), "select 'changed' from dual", "Unexpected results");
+		assertEquals(translator.translate(sources[2]), "select 'deleted' from dual", "Unexpected results");
+		assertEquals(translator.translate(sources[3]), sources[3], "Unexpected results");
+
+		// Delta file written by yaml2delta is bound to its base file
+		OraProxyFileUtils.main(new String[] {"-m", "yaml2delta", "-f", targetFile.getPath(), "-b", baseFile.getPath()});
+		assertTrue(new File(dir, "target.delta").renameTo(new File(deltaDir, "0001.delta")), "Unexpected results");
+		assertTrue(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[1]), "select 'changed'\nfrom dual\n", "Unexpected results");
+
+		// The new mapping supersedes the bound delta file, other delta files are still applied
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(baseFile), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'unchanged' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[1]), "select 'new base' from dual");
+		}
+		assertTrue(translator.reload(), "Unexpected results");
+		assertFalse(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[1]), "select 'new base' from dual", "Unexpected results");
+		assertEquals(translator.translate(sources[3]), sources[3], "Unexpected results");
+		assertEquals(translator.translate("select 6 from dual"), "select 'signature' from dual", "Unexpected results");
+
+		// Delta file made for the new mapping is applied over it
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(targetFile), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[0]), "select 'new delta' from dual");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(sources[1]), "select 'new base' from dual");
+		}
+		OraProxyFileUtils.main(new String[] {"-m", "yaml2delta", "-f", targetFile.getPath(), "-b", baseFile.getPath()});
+		assertTrue(new File(dir, "target.delta").renameTo(new File(deltaDir, "0003.delta")), "Unexpected results");
+		assertTrue(translator.reload(), "Unexpected results");
+		assertEquals(translator.translate(sources[0]), "select 'new delta' from dual", "Unexpected results");
+
+		// Translator started over the same files has the same translations as the reloaded one
+		final OraProxySqlTranslator started = new OraProxySqlTranslator(props);
+		for (final String source : new String[] {
+				sources[0], sources[1], sources[2], sources[3], "select 5 from dual", "select 6 from dual"}) {
+			assertEquals(started.translate(source), translator.translate(source), "Unexpected results");
+		}
+	}
+
+	@Test
+	public void deltaBase(@TempDir final File dir) throws IOException, SQLException {
+		final String source = "select 1 from t1";
+		final File baseFile = new File(dir, "base.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(baseFile), StandardCharsets.US_ASCII)) {
+			// Comment lines are skipped
+			writer.write("# base mapping\n");
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 'base' from dual");
+		}
+		final File targetFile = new File(dir, "target.yaml");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(targetFile), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(source), "select 'delta' from dual");
+		}
+		OraProxyFileUtils.main(new String[] {"-m", "yaml2delta", "-f", targetFile.getPath(), "-b", baseFile.getPath()});
+		final File deltaDir = new File(dir, "delta");
+		assertTrue(deltaDir.mkdir(), "Unexpected results");
+		assertTrue(new File(dir, "target.delta").renameTo(new File(deltaDir, "0001.delta")), "Unexpected results");
+		// Binary file converted from the base file has its CRC32 in the '.base' file
+		OraProxyFileUtils.main(new String[] {"-m", "yaml2bin", "-f", baseFile.getPath()});
+		assertTrue(new File(dir, "base.bin" + OraProxySqlTranslatorDelta.BASE_SUFFIX).exists(), "Unexpected results");
+
+		for (final String mapping : new String[] {"base.yaml", "base.bin"}) {
+			final Properties props = new Properties();
+			props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, new File(dir, mapping).toURI().toURL().toString());
+			props.setProperty(OraProxyDriver.A2_MAPPING_FILE_TYPE, mapping.endsWith(".bin") ? "bin" : "yaml");
+			props.setProperty(OraProxyDriver.A2_MAPPING_DELTA_URL, deltaDir.toURI().toURL().toString());
+			for (final String store : new String[] {"map", "lazy"}) {
+				props.setProperty(OraProxyDriver.A2_MAPPING_YAML_STORE, store);
+				assertEquals(new OraProxySqlTranslator(props).translate(source), "select 'delta' from dual",
+						"Unexpected results");
+			}
+		}
+
+		// Delta file is not applied over another mapping
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(baseFile, true), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select 2 from t2"), "select 'other' from dual");
+		}
+		final Properties props = new Properties();
+		props.setProperty(OraProxyDriver.A2_MAPPING_FILE_URL, baseFile.toURI().toURL().toString());
+		props.setProperty(OraProxyDriver.A2_MAPPING_DELTA_URL, deltaDir.toURI().toURL().toString());
+		assertEquals(new OraProxySqlTranslator(props).translate(source), "select 'base' from dual", "Unexpected results");
+	}
+
+	@Test
+	public void deltaSourceFilter(@TempDir final File dir) throws IOException, SQLException {
+		final OraProxyTranslatorIntf base = new OraProxyTranslatorIntf() {
+			@Override
+			public String translate(final String source) throws SQLException {
+				return source;
+			}
+
+			@Override
+			public String translateSqlId(final String source, final long sqlId) throws SQLException {
+				return null;
+			}
+
+			@Override
+			public boolean mightTranslate(final String source) {
+				return false;
+			}
+
+			@Override
+			public String translateSignature(final long signature) throws SQLException {
+				return null;
+			}
+		};
+		final String added = "select 1 from t1";
+		final File withSources = new File(dir, "0001.delta");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(withSources), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id(added), "select 'added' from dual",
+					added.length(), added.hashCode());
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select 2 from t2"), OraProxyUtils.DELETED);
+		}
+		OraProxySqlTranslatorDelta delta = new OraProxySqlTranslatorDelta(base)
+				.apply(Collections.singletonList(withSources.toURI().toURL()));
+		assertEquals(delta.translate(added), "select 'added' from dual\n", "Unexpected results");
+		assertTrue(delta.mightTranslate(added), "Unexpected results");
+		assertFalse(delta.mightTranslate("select 3 from t3"), "Unexpected results");
+
+		// Translation without source information disables the filter
+		final File withoutSources = new File(dir, "0002.delta");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(withoutSources), StandardCharsets.US_ASCII)) {
+			OraProxyUtils.write2Yaml(writer, OraProxyUtils.sql_id("select 3 from t3"), "select 'other' from dual");
+		}
+		delta = delta.apply(Collections.singletonList(withoutSources.toURI().toURL()));
+		assertTrue(delta.mightTranslate("select 3 from t3"), "Unexpected results");
+		assertEquals(delta.translate("select 3 from t3"), "select 'other' from dual", "Unexpected results");
+	}
+
+	private static String ascii(final int i) {
+		return statement(i).replace('ž', 'z');
+	}
+
+	private static final class Collector implements OraProxyMappingConsumer {
+		private final List<String> entries;
+
+		Collector(final List<String> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public void sourceInfo(final String sqlId, final int sourceLength, final int sourceHash) {
+			entries.add(sqlId + " " + sourceLength + " " + sourceHash);
+		}
+
+		@Override
+		public void accept(final String sqlId, final String sqlStatement) {
+			entries.add(sqlId);
+			entries.add(sqlStatement);
+		}
+	}
+
+	@Test
+	public void sourceFilter(@TempDir final File dir) throws IOException, SQLException {
+		final int entries = 10000;
+		final OraProxySourceFilter.Builder builder = new OraProxySourceFilter.Builder();
+		for (int i = 0; i < entries; i++) {
+			final String source = "select " + i + " from dual";
+			builder.add(OraProxyUtils.sqlIdAsLong(source), source.length(), source.hashCode());
+		}
+		final File file = new File(dir, "mapping.bin" + OraProxySourceFilter.FILE_SUFFIX);
+		builder.write(file);
+		final OraProxySourceFilter filter = OraProxySourceFilter.read(file).build();
+
+		// No false negatives for mapped statements
+		for (int i = 0; i < entries; i++) {
+			assertTrue(filter.mightContain("select " + i + " from dual"), "Unexpected results");
+		}
+		// Length outside of mapped range is always rejected
+		assertFalse(filter.mightContain("select 1 from t"), "Unexpected results");
+		assertFalse(filter.mightContain("select " + entries + "0 from dual"), "Unexpected results");
+		// Same length with another hash is rejected except Bloom filter false positives
+		int rejected = 0;
+		for (int i = 0; i < entries; i++) {
+			if (!filter.mightContain("select " + i + " from dua1")) {
+				rejected++;
+			}
+		}
+		assertTrue(rejected > entries * 0.95, "Unexpected results");
+
+		// Rejected statement is not looked up in the mapping
+		final String mapped = "select 1 from dual";
+		String candidate = "select 1 from dua1";
+		for (int i = 2; filter.mightContain(candidate); i++) {
+			candidate = "select " + i + " from dua1";
+		}
+		final String unlisted = candidate;
+		final OraProxyBinMapping.Builder mapping = new OraProxyBinMapping.Builder();
+		mapping.add(OraProxyUtils.sqlIdAsLong(mapped), "select 1 from t");
+		mapping.add(OraProxyUtils.sqlIdAsLong(unlisted), "select 2 from t");
+		final File bin = new File(dir, "mapping.bin");
+		mapping.write(bin);
+		final OraProxyTranslatorIntf translator = new OraProxySqlTranslatorBin(bin.toURI().toURL());
+		assertEquals(translator.translate(mapped), "select 1 from t", "Unexpected results");
+		assertFalse(translator.mightTranslate(unlisted), "Unexpected results");
+		assertSame(translator.translate(unlisted), unlisted, "Unexpected results");
+		assertNull(translator.translateSqlId(unlisted, OraProxyUtils.sqlIdAsLong(unlisted)), "Unexpected results");
+	}
+
+	@Test
+	public void sharded(@TempDir final File dir) throws IOException, SQLException {
+		final int count = 4;
+		final OraProxyBinMapping.Builder[] builders = new OraProxyBinMapping.Builder[count];
+		final OraProxySourceFilter.Builder[] sources = new OraProxySourceFilter.Builder[count];
+		for (int i = 0; i < count; i++) {
+			builders[i] = new OraProxyBinMapping.Builder();
+			sources[i] = new OraProxySourceFilter.Builder();
+		}
+		final int entries = 1000;
+		for (int i = 0; i < entries; i++) {
+			final String source = "select " + i + " from dual";
+			final long sqlId = OraProxyUtils.sqlIdAsLong(source);
+			builders[OraProxyMappingFiles.shard(sqlId, count)].add(sqlId, "select " + i + " from t");
+			sources[OraProxyMappingFiles.shard(sqlId, count)].add(sqlId, source.length(), source.hashCode());
+		}
+		final long salted = OraProxyUtils.SIGNATURE_SALT ^ 12345L;
+		builders[OraProxyMappingFiles.shard(salted, count)].add(salted, "select :\"SYS_B_0\" from t");
+		for (int i = 0; i < count; i++) {
+			final String name = OraProxyMappingFiles.Shard.fileName("mapping", i, count, ".bin");
+			final OraProxyMappingFiles.Shard shard = OraProxyMappingFiles.Shard.parse(name);
+			assertEquals(shard.index, i, "Unexpected results");
+			assertEquals(shard.count, count, "Unexpected results");
+			builders[i].write(new File(dir, name));
+			sources[i].write(new File(dir, name + OraProxySourceFilter.FILE_SUFFIX));
+		}
+		assertNull(OraProxyMappingFiles.Shard.parse("mapping.3-of-6.bin"), "Unexpected results");
+
+		final OraProxyTranslatorIntf translator = OraProxyMappingFiles.open(
+				OraProxyMappingFiles.list(dir.toURI().toURL(), "bin"), 2,
+				url -> new OraProxySqlTranslatorBin(url));
+		assertTrue(translator instanceof OraProxySqlTranslatorSharded, "Unexpected results");
+		for (int i = 0; i < entries; i++) {
+			assertEquals(translator.translate("select " + i + " from dual"), "select " + i + " from t", "Unexpected results");
+		}
+		assertEquals(translator.translate("select 1 from t"), "select 1 from t", "Unexpected results");
+		// Statement is checked by one filter over all shards before SQL_ID computation,
+		// and the filter of the selected shard is not checked again
+		assertTrue(translator.mightTranslate("select 7 from dual"), "Unexpected results");
+		assertFalse(translator.mightTranslate("select 1 from t"), "Unexpected results");
+		assertEquals(translator.translateSqlId("select 1 from t", OraProxyUtils.sqlIdAsLong("select 7 from dual")),
+				"select 7 from t", "Unexpected results");
+		assertEquals(translator.translateSignature(12345L), "select :\"SYS_B_0\" from t", "Unexpected results");
+
+		// Shard without source information, filters of shards are checked
+		assertTrue(new File(dir, OraProxyMappingFiles.Shard.fileName("mapping", 1, count, ".bin") +
+				OraProxySourceFilter.FILE_SUFFIX).delete(), "Unexpected results");
+		final OraProxyTranslatorIntf unfiltered = OraProxyMappingFiles.open(
+				OraProxyMappingFiles.list(dir.toURI().toURL(), "bin"), 2,
+				url -> new OraProxySqlTranslatorBin(url));
+		assertTrue(unfiltered.mightTranslate("select 1 from t"), "Unexpected results");
+		for (int i = 0; i < entries; i++) {
+			assertEquals(unfiltered.translate("select " + i + " from dual"), "select " + i + " from t", "Unexpected results");
+		}
+
+		// Shards of YAML file with source information
+		final File yaml = new File(dir, "yaml");
+		assertTrue(yaml.mkdir(), "Unexpected results");
+		final Writer[] writers = new Writer[count];
+		for (int i = 0; i < count; i++) {
+			writers[i] = new OutputStreamWriter(new FileOutputStream(
+					new File(yaml, OraProxyMappingFiles.Shard.fileName("mapping", i, count, ".yaml"))),
+					StandardCharsets.US_ASCII);
+		}
+		for (int i = 0; i < entries; i++) {
+			final String source = "select " + i + " from dual";
+			OraProxyUtils.write2Yaml(writers[OraProxyMappingFiles.shard(OraProxyUtils.sqlIdAsLong(source), count)],
+					OraProxyUtils.sql_id(source), "select " + i + " from t", source.length(), source.hashCode());
+		}
+		for (final Writer writer : writers) {
+			writer.close();
+		}
+		final OraProxyConfig config = new OraProxyConfig(new Properties());
+		final OraProxyTranslatorIntf lazy = OraProxyMappingFiles.open(
+				OraProxyMappingFiles.list(yaml.toURI().toURL(), "yaml"), 2,
+				url -> new OraProxySqlTranslatorLazy(url, config));
+		assertTrue(lazy instanceof OraProxySqlTranslatorSharded, "Unexpected results");
+		final OraProxyTranslatorIntf map = new OraProxySqlTranslatorMap(yaml.toURI().toURL(), 2);
+		for (int i = 0; i < entries; i++) {
+			final String source = "select " + i + " from dual";
+			assertTrue(map.translate(source).startsWith("select " + i + " from t"), "Unexpected results");
+			assertEquals(lazy.translate(source), map.translate(source), "Unexpected results");
+		}
+		assertFalse(lazy.mightTranslate("select 1 from t"), "Unexpected results");
+		assertSame(lazy.translate("select 1 from t"), "select 1 from t", "Unexpected results");
+	}
+
+	@Test
+	public void tiered() throws SQLException {
+		final int[] coldLookups = {0};
+		final OraProxyTranslatorIntf cold = new OraProxyTranslatorIntf() {
+			@Override
+			public String translate(final String source) throws SQLException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public String translateSqlId(final String source, final long sqlId) throws SQLException {
+				coldLookups[0]++;
+				return source.startsWith("select") ? source.replace("select", "SELECT") : null;
+			}
+
+			@Override
+			public boolean mightTranslate(final String source) {
+				return !source.startsWith("update");
+			}
+
+			@Override
+			public String translateSignature(final long signature) throws SQLException {
+				return null;
+			}
+		};
+		// Budget for two short translations
+		final OraProxySqlTranslatorTiered tiered = new OraProxySqlTranslatorTiered(cold, 256);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(tiered.translate("select 1 from dual"), "SELECT 1 from dual", "Unexpected results");
+			assertEquals(tiered.translate("select 2 from dual"), "SELECT 2 from dual", "Unexpected results");
+		}
+		assertEquals(tiered.hotSize(), 2, "Unexpected results");
+		// Hot translations are not read from the cold tier
+		final int lookups = coldLookups[0];
+		assertEquals(tiered.translate("select 1 from dual"), "SELECT 1 from dual", "Unexpected results");
+		assertEquals(coldLookups[0], lookups, "Unexpected results");
+		assertEquals(tiered.translate("update t set c = 1"), "update t set c = 1", "Unexpected results");
+		// Statement rejected by the cold tier filter is not looked up
+		assertEquals(coldLookups[0], lookups, "Unexpected results");
+
+		// More frequently used translation demotes the least frequently used one
+		for (int i = 0; i < 14; i++) {
+			assertEquals(tiered.translate("select 3 from dual"), "SELECT 3 from dual", "Unexpected results");
+		}
+		assertEquals(tiered.hotSize(), 2, "Unexpected results");
+		coldLookups[0] = 0;
+		tiered.translate("select 3 from dual");
+		tiered.translate("select 1 from dual");
+		assertEquals(coldLookups[0], 0, "Unexpected results");
+		tiered.translate("select 2 from dual");
+		assertEquals(coldLookups[0], 1, "Unexpected results");
+
+		// Victims of large hot tier are sampled, frequently used translation is still promoted
+		final OraProxySqlTranslatorTiered large = new OraProxySqlTranslatorTiered(cold, 100 * 128);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 200; i++) {
+				large.translate("select " + i + " from dual");
+			}
+		}
+		final int hotSize = large.hotSize();
+		assertTrue(hotSize > 8, "Unexpected results");
+		for (int i = 0; i < 20; i++) {
+			large.translate("select 1000 from dual");
+		}
+		coldLookups[0] = 0;
+		large.translate("select 1000 from dual");
+		assertEquals(coldLookups[0], 0, "Unexpected results");
+		assertTrue(large.hotSize() <= hotSize, "Unexpected results");
+	}
+
+}
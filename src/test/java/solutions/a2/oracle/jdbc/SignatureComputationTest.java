@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.math.BigInteger;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *  
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class SignatureComputationTest {
+
+	@Test
+	public void signatures() throws SQLException {
+		final String sqlText = "SELECT 'Ram' ram_stmt FROM dual";
+		assertEquals(OraProxyUtils.exact_matching_signature(sqlText), new BigInteger("4178266890746386855"), "Unexpected results");
+		assertEquals(OraProxyUtils.force_matching_signature(sqlText), new BigInteger("16194980974160721469"), "Unexpected results");
+	}
+
+	@Test
+	public void normalization() throws SQLException {
+		final String sqlText = "select 'Ram' ram_stmt from dual";
+		final BigInteger exact = OraProxyUtils.exact_matching_signature(sqlText);
+		final BigInteger force = OraProxyUtils.force_matching_signature(sqlText);
+		assertEquals(OraProxyUtils.exact_matching_signature("  SELECT\n\t'Ram'   RAM_STMT FROM Dual \n"), exact, "Unexpected results");
+		assertNotEquals(OraProxyUtils.exact_matching_signature("select 'RAM' ram_stmt from dual"), exact, "Unexpected results");
+		assertEquals(OraProxyUtils.force_matching_signature("select 'Shyam' ram_stmt from dual"), force, "Unexpected results");
+		assertEquals(OraProxyUtils.force_matching_signature("select q'[Ram's]' ram_stmt from dual"), force, "Unexpected results");
+
+		final BigInteger number = OraProxyUtils.force_matching_signature("select * from t where a = 1 and b = 'x'");
+		assertEquals(OraProxyUtils.force_matching_signature("select * from T where A = 25.5e3 and B = N'y'"), number, "Unexpected results");
+		assertNotEquals(OraProxyUtils.force_matching_signature("select * from t1 where a = 1 and b = 'x'"), number, "Unexpected results");
+
+		// Literals are not replaced when bind variables are present
+		final String mixed = "select * from t where a = :1 and b = 'x'";
+		assertEquals(OraProxyUtils.force_matching_signature(mixed), OraProxyUtils.exact_matching_signature(mixed), "Unexpected results");
+		// Literals inside quoted identifiers and comments are not replaced
+		assertNotEquals(
+				OraProxyUtils.force_matching_signature("select /* 1 */ \"Col 1\" from t"),
+				OraProxyUtils.force_matching_signature("select /* 2 */ \"Col 1\" from t"), "Unexpected results");
+	}
+
+	@Test
+	public void bindLiterals() throws Exception {
+		final String sqlText = "select * from t where a = 10 and b = 'It''s'";
+		final OraProxySqlNormalizer normalizer = OraProxySqlNormalizer.get();
+		normalizer.forceMatchingSignature(sqlText);
+		assertEquals(normalizer.literalCount(), 2, "Unexpected results");
+		assertEquals(
+				normalizer.bindLiterals(sqlText, "select * from v where b = :\"SYS_B_1\" and a = :\"SYS_B_0\" + 1"),
+				"select * from v where b = 'It''s' and a = 10 + 1", "Unexpected results");
+		assertEquals(
+				normalizer.bindLiterals(sqlText, "select * from v where c = :\"SYS_B_2\""),
+				"select * from v where c = :\"SYS_B_2\"", "Unexpected results");
+	}
+
+}
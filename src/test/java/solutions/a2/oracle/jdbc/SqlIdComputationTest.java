@@ -14,8 +14,14 @@
 package solutions.a2.oracle.jdbc;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.SQLException;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -76,4 +82,84 @@ public class SqlIdComputationTest {
 
 	}
 
-}
+	@Test
+	public void hashValue() throws SQLException {
+		final String s_aqth16g98h2jd = "SELECT 'Ram' ram_stmt FROM dual";
+		assertEquals(OraProxyUtils.sql_id(s_aqth16g98h2jd), "aqth16g98h2jd", "Unexpected results");
+		assertEquals(OraProxyUtils.hash_value(s_aqth16g98h2jd), new BigInteger("3532130861"), "Unexpected results");
+	}
+
+	@Test
+	public void multiByte() throws Exception {
+		final Random random = new Random(20181105L);
+		final String[] fragments = {
+				"select ", "'Šiška'", " from dual ", "\u0436\u0443\u043a", "\u6f22\u5b57",
+				"\ud83d\ude00", "\ud83d", "\ude00", "\n", "\t", "where a = :1 " };
+		for (int i = 0; i < 1000; i++) {
+			final StringBuilder sb = new StringBuilder();
+			final int count = random.nextInt(64);
+			for (int j = 0; j < count; j++) {
+				sb.append(fragments[random.nextInt(fragments.length)]);
+			}
+			final String sqlText = sb.toString();
+			assertEquals(OraProxyUtils.sql_id(sqlText), referenceSqlId(sqlText), "Unexpected results");
+		}
+	}
+
+	@Test
+	public void largeCharSequence() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("BEGIN\n");
+		for (int i = 0; sb.length() < 0x100000; i++) {
+			// Make multi-byte characters cross chunk boundaries
+			sb
+				.append("  INSERT INTO T VALUES(")
+				.append(i)
+				.append(", 'Šiška \ud83d\ude00');\n");
+		}
+		sb.append("END;");
+		final String sqlText = sb.toString();
+		final String expected = referenceSqlId(sqlText);
+		assertEquals(OraProxyUtils.sql_id(sqlText), expected, "Unexpected results");
+		assertEquals(OraProxyUtils.sql_id(sb), expected, "Unexpected results");
+		assertEquals(OraProxyUtils.sql_id(CharBuffer.wrap(sqlText)), expected, "Unexpected results");
+		assertEquals(OraProxyUtils.hash_value(sb), OraProxyUtils.hash_value(sqlText), "Unexpected results");
+	}
+
+	@Test
+	public void sqlIdAsLong() throws SQLException {
+		final String s_aqth16g98h2jd = "SELECT 'Ram' ram_stmt FROM dual";
+		final long sqlId = OraProxyUtils.sqlIdAsLong(s_aqth16g98h2jd);
+		assertEquals(OraProxyUtils.sqlIdToString(sqlId), "aqth16g98h2jd", "Unexpected results");
+		assertEquals(OraProxyUtils.sqlIdToLong("aqth16g98h2jd"), sqlId, "Unexpected results");
+		assertEquals(sqlId & 0xFFFFFFFFL, 3532130861L, "Unexpected results");
+		assertEquals(OraProxyUtils.sqlIdToString(0L), "0000000000000", "Unexpected results");
+		assertEquals(OraProxyUtils.sqlIdToLong(OraProxyUtils.sqlIdToString(-1L)), -1L, "Unexpected results");
+		assertThrows(IllegalArgumentException.class, () -> OraProxyUtils.sqlIdToLong("aqth16g98h2je"));
+		assertThrows(IllegalArgumentException.class, () -> OraProxyUtils.sqlIdToLong("zqth16g98h2jd"));
+		assertThrows(IllegalArgumentException.class, () -> OraProxyUtils.sqlIdToLong("aqth16g98h2j"));
+	}
+
+	private static String referenceSqlId(final String sqlText) throws Exception {
+		final byte[] bytes = sqlText.getBytes(StandardCharsets.UTF_8);
+		final MessageDigest md = MessageDigest.getInstance("MD5");
+		md.update(bytes);
+		md.update((byte) 0);
+		final byte[] md5 = md.digest();
+		long value = 0;
+		for (int i = 11; i > 7; i--) {
+			value = (value << 8) | (md5[i] & 0xFF);
+		}
+		for (int i = 15; i > 11; i--) {
+			value = (value << 8) | (md5[i] & 0xFF);
+		}
+		final String alphabet = "0123456789abcdfghjkmnpqrstuvwxyz";
+		final StringBuilder sqlId = new StringBuilder(13);
+		sqlId.append(alphabet.charAt((int) (value >>> 60)));
+		for (int i = 1; i < 13; i++) {
+			sqlId.append(alphabet.charAt((int) (value >>> (60 - 5 * i)) & 0x1F));
+		}
+		return sqlId.toString();
+	}
+
+}
\ No newline at end of file
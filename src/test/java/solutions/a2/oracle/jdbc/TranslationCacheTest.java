@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2018-present, A2 Rešitve d.o.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package solutions.a2.oracle.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *  
+ * @author <a href="mailto:averemee@a2.solutions">Aleksei Veremeev</a>
+ * 
+ */
+public class TranslationCacheTest {
+
+	@Test
+	public void identity() {
+		final OraProxyIdentityCache cache = new OraProxyIdentityCache(64);
+		final String source = new String("select 1 from dual");
+		final String other = new String(source);
+		assertNull(cache.get(source), "Unexpected results");
+		cache.put(source, "select 2 from dual");
+		assertEquals(cache.get(source), "select 2 from dual", "Unexpected results");
+		cache.put(other, other);
+		assertSame(cache.get(other), other, "Unexpected results");
+	}
+
+	@Test
+	public void scanResistance() {
+		final OraProxyTranslationCache cache = new OraProxyTranslationCache(64 * 1024);
+		final String[] hot = new String[50];
+		for (int i = 0; i < hot.length; i++) {
+			hot[i] = "select * from hot_table where id = " + i;
+			for (int j = 0; j < 10; j++) {
+				if (cache.get(hot[i]) == null) {
+					cache.put(hot[i], "select * from v_hot_table where id = " + i);
+				}
+			}
+		}
+		for (int i = 0; i < 100_000; i++) {
+			final String once = "select * from scan_table where id = " + i;
+			if (cache.get(once) == null) {
+				cache.put(once, once);
+			}
+			// Hot statements are still executed during the scan
+			if (i % 5 == 0) {
+				cache.get(hot[(i / 5) % hot.length]);
+			}
+		}
+		int found = 0;
+		for (int i = 0; i < hot.length; i++) {
+			if (cache.get(hot[i]) != null) {
+				found++;
+			}
+		}
+		assertTrue(found > hot.length * 9 / 10, "Hot entries are flushed by one-off statements: " + found);
+		assertTrue(cache.weightedSize() <= 64 * 1024, "Memory budget exceeded");
+		assertTrue(cache.hits() > 0 && cache.misses() > 100_000, "Unexpected counters");
+	}
+
+	@Test
+	public void largeEntry() {
+		final StringBuilder sb = new StringBuilder(40_000);
+		while (sb.length() < 40_000) {
+			sb.append("select column_").append(sb.length()).append(" from report_table union all ");
+		}
+		final String source = sb.toString();
+		final String translated = source.replace("report_table", "v_report_table");
+		// Entry is larger than the window of 1% of budget, but fits into the main segment
+		final OraProxyTranslationCache cache = new OraProxyTranslationCache(1024 * 1024);
+		for (int i = 0; i < 10; i++) {
+			cache.put("select " + i + " from dual", "select " + i + " from t");
+		}
+		assertNull(cache.get(source), "Unexpected results");
+		cache.put(source, translated);
+		assertEquals(cache.get(source), translated, "Unexpected results");
+		assertEquals(cache.get(source), translated, "Unexpected results");
+		assertTrue(cache.weightedSize() <= 1024 * 1024, "Memory budget exceeded");
+
+		// Entry larger than the main segment is not cached
+		final OraProxyTranslationCache small = new OraProxyTranslationCache(64 * 1024);
+		small.put(source, translated);
+		assertNull(small.get(source), "Unexpected results");
+		assertEquals(small.weightedSize(), 0L, "Unexpected results");
+	}
+
+}